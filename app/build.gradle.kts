@@ -30,6 +30,7 @@ android {
     }
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
 }
 
@@ -40,6 +41,7 @@ dependencies {
     implementation(libs.constraintlayout)
     implementation(libs.navigation.fragment)
     implementation(libs.navigation.ui)
+    implementation(project(":vision"))
     implementation("net.sf.supercsv:super-csv:2.4.0")
     implementation("androidx.camera:camera-camera2:1.0.0-alpha05")
     implementation("androidx.camera:camera-core:1.0.0-alpha05")
@@ -0,0 +1,115 @@
+package com.example.emotiondetection;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.emotiondetection.inference.PyTorchBackend;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.InferenceBackend;
+import com.example.emotiondetection.vision.Recognition;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares one batched forward pass over N faces with N single-face passes on the device.
+ * Results are written to logcat under the "BatchBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchInferenceBenchmark {
+    private static final String TAG = "BatchBenchmark";
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    private static InferenceBackend sBackend;
+
+    @BeforeClass
+    public static void loadModule() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        sBackend = PyTorchBackend.load(MainActivity.assetFilePath(context, MainActivity.MODEL_ASSET));
+    }
+
+    private static void fillRandom(FloatBuffer buffer, Random random) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (float) random.nextGaussian());
+        }
+    }
+
+    @Test
+    public void batchedVersusSequential() {
+        Random random = new Random(7);
+        Recognition batchResult = new Recognition(MainActivity.DEFAULT_DESCRIPTOR.getMaxBatchSize(), MainActivity.NUM_CLASSES, 1);
+        Recognition singleResult = new Recognition(1, MainActivity.NUM_CLASSES, 1);
+
+        for (int faces = 1; faces <= 6; faces++) {
+            FloatBufferPool.Lease batch = MainActivity.acquireInput(faces);
+            FloatBufferPool.Lease single = MainActivity.acquireInput(1);
+            try {
+                fillRandom(batch.getBuffer(), random);
+                fillRandom(single.getBuffer(), random);
+
+                for (int i = 0; i < WARMUP; i++) {
+                    MainActivity.batchRecognition(batch, sBackend, batchResult);
+                    MainActivity.tensorRecognition(single, sBackend, singleResult);
+                }
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    MainActivity.batchRecognition(batch, sBackend, batchResult);
+                }
+                long batchedNs = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+                start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (int f = 0; f < faces; f++) {
+                        MainActivity.tensorRecognition(single, sBackend, singleResult);
+                    }
+                }
+                long sequentialNs = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+                Log.i(TAG, String.format("faces=%d batched=%.2fms sequential=%.2fms speedup=%.2fx",
+                        faces, batchedNs / 1e6, sequentialNs / 1e6, (double) sequentialNs / batchedNs));
+            } finally {
+                MainActivity.releaseInput(single);
+                MainActivity.releaseInput(batch);
+            }
+        }
+    }
+
+    @Test
+    public void batchedMatchesSingleFaceScores() {
+        Random random = new Random(11);
+        int faces = 3;
+        int faceSize = 3 * MainActivity.SIZE * MainActivity.SIZE;
+        Recognition batchResult = new Recognition(faces, MainActivity.NUM_CLASSES, 1);
+        Recognition singleResult = new Recognition(1, MainActivity.NUM_CLASSES, 1);
+
+        FloatBufferPool.Lease batch = MainActivity.acquireInput(faces);
+        FloatBufferPool.Lease single = MainActivity.acquireInput(1);
+        try {
+            fillRandom(batch.getBuffer(), random);
+            MainActivity.batchRecognition(batch, sBackend, batchResult);
+            for (int f = 0; f < faces; f++) {
+                for (int i = 0; i < faceSize; i++) {
+                    single.getBuffer().put(i, batch.getBuffer().get(f * faceSize + i));
+                }
+                MainActivity.tensorRecognition(single, sBackend, singleResult);
+                assertEquals(batchResult.getBestClass(f), singleResult.getBestClass(0));
+            }
+        } finally {
+            MainActivity.releaseInput(single);
+            MainActivity.releaseInput(batch);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.emotiondetection;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.emotiondetection.inference.FaceDetectorOwner;
+import com.example.emotiondetection.vision.LumaImage;
+import com.example.emotiondetection.vision.YuvFrame;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Face detection latency on the device for each detector input scale, from full resolution
+ * down to 1/8, on a portrait camera frame. Each run includes shrinking the luminance plane.
+ * Results are written to logcat under the "DetectionScale" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectionScaleBenchmark {
+    private static final String TAG = "DetectionScale";
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ROTATION = 90;
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 20;
+
+    /** A camera frame of smooth noise, so the detector has structure to reject everywhere. */
+    private static YuvFrame syntheticFrame() {
+        Random random = new Random(5);
+        ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int value = 128 + (int) (60 * Math.sin(col / 23.0) * Math.cos(row / 17.0)) + random.nextInt(16);
+                y.put(row * WIDTH + col, (byte) value);
+            }
+        }
+        ByteBuffer chroma = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2);
+        return new YuvFrame().wrap(WIDTH, HEIGHT, y, WIDTH, 1, chroma, chroma, WIDTH, 2);
+    }
+
+    @Test
+    public void detectionLatencyPerScale() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        FaceDetectorOwner detector = new FaceDetectorOwner(context, "DetectionScaleBenchmark");
+        YuvFrame frame = syntheticFrame();
+        LumaImage luma = new LumaImage();
+        try {
+            Log.i(TAG, "auto shift for " + HEIGHT + " px wide upright frames: "
+                    + FaceDetectorOwner.detectionShift(HEIGHT));
+            for (int shift = 0; shift <= FaceDetectorOwner.MAX_DETECTION_SHIFT; shift++) {
+                for (int i = 0; i < WARMUP; i++) {
+                    detector.detect(frame(luma, frame, shift));
+                }
+                long start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    detector.detect(frame(luma, frame, shift));
+                }
+                long nanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+                Log.i(TAG, String.format("scale=1/%d input=%dx%d detect=%.2fms",
+                        1 << shift, luma.getWidth(), luma.getHeight(), nanos / 1e6));
+            }
+        } finally {
+            detector.release();
+        }
+    }
+
+    private static Frame frame(LumaImage luma, YuvFrame frame, int shift) {
+        luma.sample(frame, ROTATION, shift);
+        int width = luma.getWidth();
+        int height = luma.getHeight();
+        ByteBuffer nv21 = ByteBuffer.allocateDirect(width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2));
+        luma.copyTo(nv21);
+        return new Frame.Builder().setImageData(nv21, width, height, ImageFormat.NV21).build();
+    }
+}
@@ -25,11 +25,28 @@ import androidx.camera.core.Preview;
 import androidx.camera.core.PreviewConfig;
 import androidx.core.app.ActivityCompat;
 
+import com.example.emotiondetection.vision.AnalysisRateController;
+
+import java.util.concurrent.atomic.AtomicReference;
+
 public abstract class AbstractCameraXActivity<R> extends com.example.emotiondetection.BaseModuleActivity {
     private static final int REQUEST_CODE_CAMERA_PERMISSION = 200;
     private static final String[] PERMISSIONS = {Manifest.permission.CAMERA};
 
-    private long mLastAnalysisResultTime;
+    /** Default share of time the analysis thread should be busy, see {@link #createRateController()}. */
+    protected static final double TARGET_UTILIZATION = 0.8;
+    protected static final long MIN_ANALYSIS_INTERVAL_MS = 33;
+    protected static final long MAX_ANALYSIS_INTERVAL_MS = 2000;
+
+    private AnalysisRateController mRateController;
+    /** Newest result not shown yet; older ones are skipped when the UI thread falls behind. */
+    private final AtomicReference<R> mPendingResult = new AtomicReference<>();
+    private final Runnable mApplyPendingResult = () -> {
+        R result = mPendingResult.getAndSet(null);
+        if (result != null) {
+            applyToUiAnalyzeImageResult(result);
+        }
+    };
 
     protected abstract int getContentViewLayoutId();
 
@@ -40,6 +57,7 @@ public abstract class AbstractCameraXActivity<R> extends com.example.emotiondete
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(getContentViewLayoutId());
+        mRateController = createRateController();
 
         startBackgroundThread();
 
@@ -80,20 +98,52 @@ public abstract class AbstractCameraXActivity<R> extends com.example.emotiondete
                         .build();
         final ImageAnalysis imageAnalysis = new ImageAnalysis(imageAnalysisConfig);
         imageAnalysis.setAnalyzer((image, rotationDegrees) -> {
-            if (SystemClock.elapsedRealtime() - mLastAnalysisResultTime < 500) {
+            final long start = SystemClock.elapsedRealtime();
+            if (!mRateController.shouldAnalyze(start)) {
                 return;
             }
 
             final R result = analyzeImage(image, rotationDegrees);
             if (result != null) {
-                mLastAnalysisResultTime = SystemClock.elapsedRealtime();
-                runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+                postResult(result, SystemClock.elapsedRealtime() - start);
             }
         });
 
         CameraX.bindToLifecycle(this, preview, imageAnalysis);
     }
 
+    /**
+     * Decides which camera frames get analysed, from the measured cost of analysis. Override to
+     * change the target utilization or the interval bounds.
+     */
+    protected AnalysisRateController createRateController() {
+        return new AnalysisRateController(TARGET_UTILIZATION, MIN_ANALYSIS_INTERVAL_MS, MAX_ANALYSIS_INTERVAL_MS);
+    }
+
+    protected AnalysisRateController getRateController() {
+        return mRateController;
+    }
+
+    /**
+     * Hands a result to the UI thread. {@link #analyzeImage} results go through here; analyses
+     * that finish on another thread call it themselves and return null from analyzeImage.
+     *
+     * @param costMs time the frame kept the analysis thread busy, fed to the rate controller
+     */
+    protected void postResult(R result, long costMs) {
+        mRateController.onResult(costMs, SystemClock.elapsedRealtime());
+        R skipped = mPendingResult.getAndSet(result);
+        if (skipped == null) {
+            runOnUiThread(mApplyPendingResult);
+        } else {
+            onResultSkipped(skipped);
+        }
+    }
+
+    /** A result replaced by a newer one before the UI showed it; lets subclasses recycle it. */
+    protected void onResultSkipped(R result) {
+    }
+
     @WorkerThread
     @Nullable
     protected abstract R analyzeImage(ImageProxy image, int rotationDegrees);
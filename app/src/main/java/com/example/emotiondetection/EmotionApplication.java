@@ -0,0 +1,31 @@
+package com.example.emotiondetection;
+
+import android.app.Application;
+
+import com.example.emotiondetection.inference.AssetExtractor;
+import com.example.emotiondetection.inference.ModelCatalog;
+import com.example.emotiondetection.inference.ModelManager;
+import com.example.emotiondetection.inference.VideoBatchAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EmotionApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Extract every bundled model concurrently, then load and warm up the default one
+        // while the user is still on the start screen.
+        List<String> modelAssets = new ArrayList<>();
+        for (ModelCatalog.Entry entry : ModelCatalog.list(this)) {
+            if (entry.isAsset()) {
+                modelAssets.add(entry.getName());
+            }
+        }
+        AssetExtractor.getInstance().prefetch(this, modelAssets);
+        ModelManager.getInstance().start(this);
+        // Pick up video analyses that were cut short when the process was last killed.
+        VideoBatchAnalyzer.getInstance().resumePending(this);
+    }
+}
@@ -10,6 +10,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 
+import com.example.emotiondetection.inference.VideoBatchAnalyzer;
 import com.example.emotiondetection.utils.FileUtil;
 
 import java.io.File;
@@ -41,6 +42,7 @@ public class ListActivity extends Activity {
             list = FileUtil.getWavFiles();
         } else {
             list = FileUtil.getVideoFiles();
+            initAnalysis();
         }
 
         adapter = new FileListAdapter(this, list);
@@ -49,6 +51,41 @@ public class ListActivity extends Activity {
         initEvent();
     }
 
+    /** Long-pressing a video analyses every video without a complete emotion log. */
+    private void initAnalysis() {
+        final TextView status = findViewById(R.id.playStatus);
+        VideoBatchAnalyzer.getInstance().setListener(new VideoBatchAnalyzer.Listener() {
+            @Override
+            public void onProgress(File video, long positionMs, long durationMs, int frames, double fps) {
+                final String text = "Analysing " + video.getName() + ": " + positionMs * 100 / Math.max(1, durationMs)
+                        + "% (" + frames + " frames, " + String.format("%.1f", fps) + " fps)";
+                runOnUiThread(() -> status.setText(text));
+            }
+
+            @Override
+            public void onFinished(File video, Throwable error) {
+                final String text = error == null
+                        ? "Analysed " + video.getName() + " ("
+                                + String.format("%.1f", VideoBatchAnalyzer.getInstance().getFramesPerSecond()) + " fps overall)"
+                        : "Failed to analyse " + video.getName() + ": " + error.getMessage();
+                runOnUiThread(() -> status.setText(text));
+            }
+        });
+        listView.setOnItemLongClickListener((parent, view, position, id) -> {
+            int queued = VideoBatchAnalyzer.getInstance().analyzeAll(getApplicationContext());
+            Toast.makeText(getApplicationContext(), queued == 0 ? "Nothing to analyse" : "Analysing " + queued + " videos",
+                    Toast.LENGTH_SHORT).show();
+            return true;
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Analysis carries on in the background; only stop reporting to this screen.
+        VideoBatchAnalyzer.getInstance().setListener(null);
+        super.onDestroy();
+    }
+
     private void initEvent() {
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -10,14 +10,15 @@ import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
-import android.media.Image;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
-import android.util.Pair;
 import android.util.SparseArray;
 import android.view.TextureView;
+import android.view.View;
 import android.view.ViewStub;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -28,39 +29,271 @@ import androidx.annotation.WorkerThread;
 import androidx.camera.core.ImageProxy;
 
 
+import com.example.emotiondetection.inference.FaceDetectorOwner;
+import com.example.emotiondetection.inference.ModelCatalog;
+import com.example.emotiondetection.inference.ModelManager;
+import com.example.emotiondetection.vision.AnalysisRateController;
+import com.example.emotiondetection.vision.FaceBox;
+import com.example.emotiondetection.vision.FaceSignatureCache;
+import com.example.emotiondetection.vision.FaceTracker;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.HaarCascade;
+import com.example.emotiondetection.vision.HaarCascadeDetector;
+import com.example.emotiondetection.vision.LatencyHistogram;
+import com.example.emotiondetection.vision.LatencyWindow;
+import com.example.emotiondetection.vision.LumaFaceDetector;
+import com.example.emotiondetection.vision.LumaImage;
+import com.example.emotiondetection.vision.LumaSampler;
+import com.example.emotiondetection.vision.ModelInputSpec;
+import com.example.emotiondetection.vision.PreprocessingPlan;
+import com.example.emotiondetection.vision.Recognition;
+import com.example.emotiondetection.vision.RegionOfInterestSearch;
+import com.example.emotiondetection.vision.StagePipeline;
+import com.example.emotiondetection.vision.StripedExecutor;
+import com.example.emotiondetection.vision.YuvConverter;
+import com.example.emotiondetection.vision.YuvFrame;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
-import com.google.android.gms.vision.face.FaceDetector;
-
-import org.pytorch.LiteModuleLoader;
-import org.pytorch.Module;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class LiveEmotionRecognitionActivity extends com.example.emotiondetection.AbstractCameraXActivity<LiveEmotionRecognitionActivity.AnalysisResult> {
-    private Module mModule = null;
     private TextView mResultView;
+    private final StringBuilder mStatusText = new StringBuilder();
+
+    /** How camera frames are turned into the RGB bitmap handed to the face detector. */
+    enum FrameConversion {
+        /** Reads the YUV planes directly, no intermediate copy or compression. */
+        DIRECT,
+        /** Legacy NV21 -> JPEG -> Bitmap round trip, kept as a fallback. */
+        JPEG
+    }
+
+    private volatile FrameConversion mFrameConversion = FrameConversion.DIRECT;
+
+    /** Model in use and its compiled preprocessing; null until the first model is ready. */
+    private volatile ModelManager.LoadedModel mModel;
+    private volatile PreprocessingPlan mPlan;
+    private FaceSignatureCache mFaceCache;
+
+    /** A/B mode: a second model classifying every other frame; null when off. */
+    private volatile Future<ModelManager.LoadedModel> mCompareFuture;
+    private volatile ModelManager.LoadedModel mCompareModel;
+    private PreprocessingPlan mComparePlan;
+    private FaceSignatureCache mCompareFaceCache;
+    private final LatencyWindow mLatencyA = new LatencyWindow(200);
+    private final LatencyWindow mLatencyB = new LatencyWindow(200);
+    private long mFrameCount;
+    private final StripedExecutor mPreprocessExecutor = StripedExecutor.forAvailableProcessors();
+
+    /**
+     * Convert, detect, preprocess and infer each run on their own thread, so frame N+1 is
+     * converted and detected while frame N is in inference. The camera thread only copies
+     * the planes out of the {@link ImageProxy}, which is closed as soon as it returns.
+     */
+    private StagePipeline<FrameJob> mPipeline;
+    /** Built in the background from onCreate and reused for every frame. */
+    private FaceDetectorOwner mFaceDetector;
+
+    /**
+     * Intent extra picking the detector by {@link LumaFaceDetector#getName() name}:
+     * {@link FaceDetectorOwner#NAME} (the default) or {@link HaarCascadeDetector#NAME}.
+     */
+    public static final String EXTRA_FACE_DETECTOR = "faceDetector";
+    /** Intent extra naming the OpenCV cascade XML in assets the Haar detector loads. */
+    public static final String EXTRA_HAAR_CASCADE = "haarCascade";
+    public static final String DEFAULT_HAAR_CASCADE = "haarcascade_frontalface_default.xml";
+    /** Threads the Haar detector scans scales on, the detect stage's own included. */
+    private static final int HAAR_THREADS = 2;
+    /** Cascade asset to build the Haar detector from on first use; null to use Play Services. */
+    private volatile String mHaarCascadeAsset;
+    /**
+     * The detector in use, {@link #mFaceDetector} or a Haar detector. Only touched by the
+     * detect stage and, under the activity's lock, onDestroy.
+     */
+    private LumaFaceDetector mLumaDetector;
+    private boolean mDestroyed;
+
+    /**
+     * Tracking mode: the detector runs every few frames, or when tracking loses a face, and
+     * boxes are followed by template matching in between. Off, every frame is detected.
+     */
+    private volatile boolean mTrackingEnabled = true;
+    /** Frames are shrunk by 2^TRACKING_SHIFT for tracking. */
+    private static final int TRACKING_SHIFT = 2;
+    private static final int DETECT_INTERVAL_MIN = 2;
+    private static final int DETECT_INTERVAL_MAX = 15;
+    private static final float TRACKING_MIN_CONFIDENCE = 0.5f;
+    private static final float TRACKING_MAX_DRIFT = 0.1f;
+    /**
+     * The detector sees the frame shrunk by 2^shift, and its boxes are scaled back up; faces
+     * are still cropped from the full-resolution frame. DETECTION_SHIFT_AUTO shrinks it as
+     * far as the smallest face wanted stays detectable.
+     */
+    private volatile int mDetectionShift = DETECTION_SHIFT_AUTO;
+    private static final int DETECTION_SHIFT_AUTO = -1;
+    /** Detect stage only. */
+    private final FaceTracker mTracker = new FaceTracker(ModelInputSpec.MAX_BATCH_SIZE,
+            DETECT_INTERVAL_MIN, DETECT_INTERVAL_MAX, TRACKING_MIN_CONFIDENCE, TRACKING_MAX_DRIFT);
+    private final LumaImage mTrackingLuma = new LumaImage();
+    /**
+     * Detections first search the last faces' box grown by REGION_MARGIN on every side, and
+     * only scan the whole frame when that finds fewer faces, or every FULL_SCAN_INTERVAL
+     * detections. Off, every detection scans the whole frame.
+     */
+    private volatile boolean mRegionSearchEnabled = true;
+    private static final float REGION_MARGIN = 0.5f;
+    private static final int FULL_SCAN_INTERVAL = 10;
+    /** Detect stage only. */
+    private final RegionOfInterestSearch mRegionSearch = new RegionOfInterestSearch(ModelInputSpec.MAX_BATCH_SIZE,
+            REGION_MARGIN, FULL_SCAN_INTERVAL);
+    /** Whether the next detection scans the whole frame, so the convert stage only builds detector frames then. */
+    private volatile boolean mFullScanDue = true;
+    /** Detector runs since the activity started; written by the detect stage only. */
+    private volatile long mDetectionCount;
+    private final long mStartNanos = SystemClock.elapsedRealtimeNanos();
+    /** Whether the next frame will be detected, so the convert stage only builds detector frames when needed. */
+    private volatile boolean mDetectionDue = true;
+    /** Recycled jobs; a handful are in flight at once (one per stage plus one per queue). */
+    private final BlockingQueue<FrameJob> mFreeJobs = new ArrayBlockingQueue<>(2 * STAGE_COUNT + 1);
+    private final BlockingQueue<AnalysisResult> mFreeResults = new ArrayBlockingQueue<>(4);
+    /** Completed frames; onComplete runs on whichever stage finished the frame. */
+    private final AtomicLong mResultCount = new AtomicLong();
+    private static final int STAGE_COUNT = 4;
+    private static final int STATS_LOG_INTERVAL = 50;
+    /** Results between two snapshots appended to {@link MainActivity#METRICS_FILE}. */
+    private static final int METRICS_DUMP_INTERVAL = 500;
+
+    /** Steps timed on top of the per-stage times the pipeline records itself. */
+    private final LatencyHistogram mCopyLatency = MainActivity.METRICS.histogram("Analysis.CameraCopy");
+    private final LatencyHistogram mForwardLatency = MainActivity.METRICS.histogram("Analysis.Forward");
+    private final LatencyHistogram mEndToEndLatency = MainActivity.METRICS.histogram("Analysis.EndToEnd");
+
+    /** Face crops whose hashes differ in at most this many of 64 bits reuse the last scores. */
+    private static final int FACE_CACHE_MAX_DISTANCE = 4;
+    /** Cached scores are refreshed at least this often even for a perfectly still face. */
+    private static final long FACE_CACHE_MAX_AGE_MS = 1000;
+    /** Last measured inference time per face, credited to the cache for each face it serves. */
+    private volatile long mInferenceMsPerFace;
+
+    /** One camera frame on its way through {@link #mPipeline}, with every buffer it needs. */
+    private static class FrameJob {
+        final YuvFrame mFrame = new YuvFrame();
+        ByteBuffer mY;
+        ByteBuffer mU;
+        ByteBuffer mV;
+        int mRotation;
+        long mSubmitNanos;
+
+        /** Retained by the convert stage, released when the job is recycled. */
+        ModelManager.LoadedModel mModel;
+        PreprocessingPlan mPlan;
+        FaceSignatureCache mFaceCache;
+        boolean mUseB;
+
+        int[] mArgbPixels;
+        Bitmap mBitmap;
+        ByteBuffer mLumaBuffer;
+        final LumaImage mDetectionLuma = new LumaImage();
+        /** Frame pixels per detector input pixel. */
+        int mDetectionScale = 1;
+        Frame mDetectorFrame;
+
+        final Face[] mDetected = new Face[ModelInputSpec.MAX_BATCH_SIZE];
+        /** Left, top, width and height of each face, detected or tracked. */
+        final float[] mBoxes = new float[ModelInputSpec.MAX_BATCH_SIZE * 4];
+        int mFaceCount;
+        long mPreprocessNanos;
+        final long[] mSignatures = new long[ModelInputSpec.MAX_BATCH_SIZE];
+        FloatBufferPool.Lease mInput;
+
+        AnalysisResult mResult;
+    }
+
+
+    /** One classified face; filled in place and reused with its {@link AnalysisResult}. */
+    static class FaceResult {
+        private float mLeft;
+        private float mTop;
+        private float mWidth;
+        private float mHeight;
+        private int mEmotion;
+        private String mLabel;
+        private float mConfidence;
+
+        /** Takes the box of face {@code index} from {@code boxes}, four values per face. */
+        void set(float[] boxes, int index, int emotion, String label, float confidence) {
+            mLeft = boxes[index * 4];
+            mTop = boxes[index * 4 + 1];
+            mWidth = boxes[index * 4 + 2];
+            mHeight = boxes[index * 4 + 3];
+            mEmotion = emotion;
+            mLabel = label;
+            mConfidence = confidence;
+        }
+
+        public FaceBox getBox() {
+            return new FaceBox(mLeft, mTop, mWidth, mHeight);
+        }
 
-    private final static int ANGRY = 0;
-    private final static int DISGUST = 1;
-    private final static int FEAR = 2;
-    private final static int HAPPY = 3;
-    private final static int NEUTRAL = 4;
-    private final static int SAD = 5;
-    private final static int SURPRISE = 6;
+        public int getEmotion() {
+            return mEmotion;
+        }
 
+        public String getLabel() {
+            return mLabel;
+        }
 
+        /** Probability of {@link #getEmotion()}, 0..1. */
+        public float getConfidence() {
+            return mConfidence;
+        }
+    }
 
+    /**
+     * Text and faces of one analysed frame. Results are recycled through {@link #mFreeResults}
+     * once the UI has shown them, so producing one allocates nothing.
+     */
     static class AnalysisResult {
-        private final String mResults;
+        private final StringBuilder mResults = new StringBuilder(128);
+        private final FaceResult[] mFaces = new FaceResult[ModelInputSpec.MAX_BATCH_SIZE];
+        private int mFaceCount;
+
+        AnalysisResult() {
+            for (int i = 0; i < mFaces.length; i++) {
+                mFaces[i] = new FaceResult();
+            }
+        }
+
+        AnalysisResult setMessage(String message) {
+            mResults.setLength(0);
+            mResults.append(message);
+            mFaceCount = 0;
+            return this;
+        }
 
-        public AnalysisResult(String results) {
-            mResults = results;
+        public CharSequence getText() {
+            return mResults;
+        }
+
+        public int getFaceCount() {
+            return mFaceCount;
+        }
+
+        public FaceResult getFace(int index) {
+            return mFaces[index];
         }
     }
 
@@ -77,28 +310,314 @@ public class LiveEmotionRecognitionActivity extends com.example.emotiondetection
                 .findViewById(R.id.object_detection_texture_view);
     }
 
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // No-op when the application already started it.
+        ModelManager.getInstance().start(this);
+        mFaceDetector = new FaceDetectorOwner(this, "Analysis");
+        if (HaarCascadeDetector.NAME.equals(getIntent().getStringExtra(EXTRA_FACE_DETECTOR))) {
+            String asset = getIntent().getStringExtra(EXTRA_HAAR_CASCADE);
+            mHaarCascadeAsset = asset != null ? asset : DEFAULT_HAAR_CASCADE;
+        }
+        mPipeline = createPipeline();
+        mPipeline.start();
+
+        // Tap: switch to the next model in the catalog. Long press: toggle A/B comparison.
+        View resultView = findViewById(R.id.resultView);
+        resultView.setOnClickListener(v -> switchToNextModel());
+        resultView.setOnLongClickListener(v -> {
+            toggleComparison();
+            return true;
+        });
+    }
+
+    @Nullable
+    private ModelCatalog.Entry currentEntry() {
+        ModelManager.LoadedModel active = ModelManager.getInstance().getActive();
+        return active == null ? null : active.getEntry();
+    }
+
+    private void switchToNextModel() {
+        ModelCatalog.Entry current = currentEntry();
+        ModelCatalog.Entry next = ModelCatalog.next(this, current);
+        if (next == null || next.equals(current)) {
+            Toast.makeText(this, "No other model available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, "Loading " + next.getName(), Toast.LENGTH_SHORT).show();
+        ModelManager.getInstance().switchTo(this, next);
+    }
+
+    private void toggleComparison() {
+        if (mCompareFuture != null) {
+            retireWhenLoaded(mCompareFuture);
+            mCompareFuture = null;
+            Toast.makeText(this, "A/B comparison off", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        ModelCatalog.Entry current = currentEntry();
+        ModelCatalog.Entry other = ModelCatalog.next(this, current);
+        if (other == null || other.equals(current)) {
+            Toast.makeText(this, "No other model to compare with", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, "A/B: " + (current == null ? "?" : current.getName()) + " vs " + other.getName(),
+                Toast.LENGTH_SHORT).show();
+        mCompareFuture = ModelManager.getInstance().load(this, other);
+    }
+
+    /**
+     * Frees a compare model's instances once it is loaded, off the caller; the convert stage
+     * retires the one it was using as well, and retiring twice is harmless.
+     */
+    private static void retireWhenLoaded(final Future<ModelManager.LoadedModel> future) {
+        Thread retirer = new Thread(() -> {
+            try {
+                future.get().retire();
+            } catch (InterruptedException | ExecutionException e) {
+                // Never loaded: nothing to free.
+            }
+        }, "CompareModel-retire");
+        retirer.setDaemon(true);
+        retirer.start();
+    }
+
+    private PreprocessingPlan newPlan(ModelManager.LoadedModel model) {
+        return new PreprocessingPlan(model.getDescriptor(), MainActivity.INPUT_POOL, mPreprocessExecutor);
+    }
+
+    private static FaceSignatureCache newFaceCache(PreprocessingPlan plan) {
+        return new FaceSignatureCache(plan.getMaxBatchSize(), plan.getDescriptor().getNumClasses(),
+                FACE_CACHE_MAX_DISTANCE, FACE_CACHE_MAX_AGE_MS);
+    }
+
+    /** Swaps in a newly activated or compared model; runs on the convert stage between frames. */
+    private void refreshModels() {
+        ModelManager.LoadedModel active = ModelManager.getInstance().getActive();
+        if (active != null && active != mModel) {
+            mPlan = newPlan(active);
+            mFaceCache = newFaceCache(mPlan);
+            mModel = active;
+            mLatencyA.clear();
+        }
+
+        Future<ModelManager.LoadedModel> compareFuture = mCompareFuture;
+        ModelManager.LoadedModel compare = null;
+        if (compareFuture != null && compareFuture.isDone()) {
+            try {
+                compare = compareFuture.get();
+            } catch (ExecutionException | InterruptedException e) {
+                mCompareFuture = null;
+            }
+        }
+        if (compare != mCompareModel) {
+            if (mCompareModel != null) {
+                mCompareModel.retire();
+            }
+            mComparePlan = compare == null ? null : newPlan(compare);
+            mCompareFaceCache = compare == null ? null : newFaceCache(mComparePlan);
+            mCompareModel = compare;
+            mLatencyB.clear();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPipeline.shutdown();
+        mPreprocessExecutor.shutdown();
+        mFaceDetector.release();
+        synchronized (this) {
+            mDestroyed = true;
+            if (mLumaDetector != null && mLumaDetector != mFaceDetector) {
+                mLumaDetector.close();
+            }
+        }
+        if (mCompareFuture != null) {
+            retireWhenLoaded(mCompareFuture);
+        }
+        if (mCompareModel != null) {
+            mCompareModel.retire();
+        }
+        final Context context = getApplicationContext();
+        new Thread(() -> MainActivity.appendMetricsCsv(context), "MetricsDump").start();
+        Log.d("MyTag", mPipeline.toString());
+        Log.d("MyTag", "Input buffer pool: " + MainActivity.INPUT_POOL);
+    }
+
+    /** The analysis pipeline, for its per-stage queue depth and drop counts. */
+    StagePipeline<FrameJob> getPipeline() {
+        return mPipeline;
+    }
+
+    /** Detector calls per second since start, and in tracking mode how well tracking kept up. */
+    private String detectionStats() {
+        double seconds = (SystemClock.elapsedRealtimeNanos() - mStartNanos) / 1e9;
+        long tenths = Math.round(mDetectionCount / seconds * 10);
+        return "detections " + tenths / 10 + "." + tenths % 10 + "/s" + (mTrackingEnabled ? " " + mTracker : "")
+                + (mRegionSearchEnabled ? " " + mRegionSearch : "");
+    }
+
+    private StagePipeline<FrameJob> createPipeline() {
+        StagePipeline.Listener<FrameJob> listener = new StagePipeline.Listener<FrameJob>() {
+            @Override
+            public void onComplete(FrameJob job) {
+                if (job.mResult == null) {
+                    return;
+                }
+                // Stages overlap, so the slowest one, not the end-to-end latency, is what limits
+                // how often frames can be taken.
+                postResult(job.mResult, mPipeline.getBottleneckNanos() / 1000000);
+                mEndToEndLatency.recordSince(job.mSubmitNanos);
+                long results = mResultCount.incrementAndGet();
+                if (results % STATS_LOG_INTERVAL == 0) {
+                    Log.d("MyTag", mPipeline + ", " + mFaceCache + ", " + mModel.getPool()
+                            + ", " + detectionStats() + "\n" + MainActivity.METRICS);
+                }
+                if (results % METRICS_DUMP_INTERVAL == 0) {
+                    MainActivity.appendMetricsCsv(getApplicationContext());
+                }
+            }
+
+            @Override
+            public void onError(FrameJob job, Throwable error) {
+                Log.e("MyTag", "Frame analysis failed", error);
+            }
+        };
+        StagePipeline.Recycler<FrameJob> recycler = new StagePipeline.Recycler<FrameJob>() {
+            @Override
+            public void recycle(FrameJob job) {
+                if (job.mInput != null) {
+                    job.mPlan.release(job.mInput);
+                    job.mInput = null;
+                }
+                Arrays.fill(job.mDetected, null);
+                job.mFaceCount = 0;
+                job.mDetectorFrame = null;
+                if (job.mModel != null) {
+                    job.mModel.release();
+                    job.mModel = null;
+                }
+                job.mPlan = null;
+                job.mFaceCache = null;
+                job.mResult = null;
+                mFreeJobs.offer(job);
+            }
+        };
+        return new StagePipeline<>("Analysis", listener, recycler)
+                .addStage("Convert", this::convertStage)
+                .addStage("Detect", this::detectStage)
+                .addStage("Preprocess", this::preprocessStage)
+                .addStage("Infer", this::inferStage)
+                .recordTo(MainActivity.METRICS);
+    }
+
+    private AnalysisResult obtainResult() {
+        AnalysisResult result = mFreeResults.poll();
+        return result != null ? result : new AnalysisResult();
+    }
+
+    @Override
+    protected void onResultSkipped(AnalysisResult result) {
+        mFreeResults.offer(result);
+    }
+
     @Override
     protected void applyToUiAnalyzeImageResult(AnalysisResult result) {
-        mResultView.setText(result.mResults);
+        AnalysisRateController rate = getRateController();
+        mStatusText.setLength(0);
+        mStatusText.append(result.mResults)
+                .append("\nevery ").append(rate.getIntervalMs()).append("ms, ");
+        // One decimal without String.format.
+        long fpsTenths = Math.round(rate.getFps() * 10);
+        mStatusText.append(fpsTenths / 10).append('.').append(fpsTenths % 10).append(" fps");
+        mResultView.setText(mStatusText);
         mResultView.invalidate();
+        mFreeResults.offer(result);
+    }
+
+    /** Copies the planes out of {@code image} into {@code job}, reusing its buffers. */
+    private static void copyFrame(ImageProxy image, FrameJob job) {
+        ImageProxy.PlaneProxy[] planes = image.getPlanes();
+        job.mY = copyPlane(planes[0].getBuffer(), job.mY);
+        job.mU = copyPlane(planes[1].getBuffer(), job.mU);
+        job.mV = copyPlane(planes[2].getBuffer(), job.mV);
+        job.mFrame.wrap(image.getWidth(), image.getHeight(),
+                job.mY, planes[0].getRowStride(), planes[0].getPixelStride(),
+                job.mU, job.mV, planes[1].getRowStride(), planes[1].getPixelStride());
+    }
+
+    private static ByteBuffer copyPlane(ByteBuffer src, @Nullable ByteBuffer dst) {
+        int size = src.remaining();
+        if (dst == null || dst.capacity() < size) {
+            dst = ByteBuffer.allocateDirect(size);
+        }
+        int position = src.position();
+        dst.clear();
+        dst.put(src);
+        dst.flip();
+        src.position(position);
+        return dst;
     }
 
-    private Bitmap imgToBitmap(Image image, int rotationDegrees) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
+    /**
+     * Builds a detector frame from the luminance plane alone (grayscale NV21 with neutral
+     * chroma), letting the detector apply the rotation itself.
+     */
+    private static Frame lumaToFrame(FrameJob job) {
+        int width = job.mFrame.getWidth();
+        int height = job.mFrame.getHeight();
+        job.mLumaBuffer = FaceDetectorOwner.grayNv21Buffer(job.mLumaBuffer, width, height);
+        LumaSampler.packLuma(job.mFrame, job.mLumaBuffer);
+        return new Frame.Builder()
+                .setImageData(job.mLumaBuffer, width, height, ImageFormat.NV21)
+                .setRotation(job.mRotation / 90)
+                .build();
+    }
+
+    /** Builds an upright detector frame from the luminance plane shrunk by 2^shift. */
+    private static Frame downscaledFrame(FrameJob job, int shift) {
+        LumaImage luma = job.mDetectionLuma.sample(job.mFrame, job.mRotation, shift);
+        job.mLumaBuffer = FaceDetectorOwner.grayNv21Buffer(job.mLumaBuffer, luma.getWidth(), luma.getHeight());
+        luma.copyTo(job.mLumaBuffer);
+        return new Frame.Builder()
+                .setImageData(job.mLumaBuffer, luma.getWidth(), luma.getHeight(), ImageFormat.NV21)
+                .build();
+    }
+
+    private Bitmap imgToBitmap(FrameJob job) {
+        if (mFrameConversion == FrameConversion.JPEG) {
+            return imgToBitmapJpeg(job.mY, job.mU, job.mV,
+                    job.mFrame.getWidth(), job.mFrame.getHeight(), job.mRotation);
+        }
+
+        int width = YuvConverter.rotatedWidth(job.mFrame, job.mRotation);
+        int height = YuvConverter.rotatedHeight(job.mFrame, job.mRotation);
+        if (job.mArgbPixels == null || job.mArgbPixels.length != width * height) {
+            job.mArgbPixels = new int[width * height];
+        }
+        if (job.mBitmap == null || job.mBitmap.getWidth() != width || job.mBitmap.getHeight() != height) {
+            job.mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        YuvConverter.toArgb(job.mFrame, job.mRotation, job.mArgbPixels, mPreprocessExecutor);
+        job.mBitmap.setPixels(job.mArgbPixels, 0, width, 0, 0, width, height);
+        return job.mBitmap;
+    }
+
+    private static Bitmap imgToBitmapJpeg(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                          int imageWidth, int imageHeight, int rotationDegrees) {
 
         int ySize = yBuffer.remaining();
         int uSize = uBuffer.remaining();
         int vSize = vBuffer.remaining();
 
         byte[] nv21 = new byte[ySize + uSize + vSize];
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
+        yBuffer.duplicate().get(nv21, 0, ySize);
+        vBuffer.duplicate().get(nv21, ySize, vSize);
+        uBuffer.duplicate().get(nv21, ySize + vSize, uSize);
 
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, imageWidth, imageHeight, null);
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
 
@@ -117,65 +636,254 @@ public class LiveEmotionRecognitionActivity extends com.example.emotiondetection
     @WorkerThread
     @Nullable
     protected AnalysisResult analyzeImage(ImageProxy image, int rotationDegrees) {
-        if (mModule == null) {
-            try {
-                mModule = LiteModuleLoader.load(MainActivity.assetFilePath(getApplicationContext(), "mobilenet_v2_lite2.ptl"));
-            } catch (IOException e) {
-                return null;
-            }
+        FrameJob job = mFreeJobs.poll();
+        if (job == null) {
+            job = new FrameJob();
         }
-        Pair<Boolean,Bitmap> detectionResult = detectAndCropFace(getApplicationContext(),imgToBitmap(image.getImage(),rotationDegrees));
-        boolean faceDetected = detectionResult.first;
-        if (faceDetected){
-            Bitmap bitmap = detectionResult.second;
-            Matrix matrix = new Matrix();
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-            bitmap = Bitmap.createScaledBitmap(bitmap, MainActivity.SIZE, MainActivity.SIZE, true);
-            Pair<Integer, Long> idxTm = MainActivity.bitmapRecognition(bitmap, mModule);
-            int maxScoreIdx = idxTm.first;
-            long inferenceTime = idxTm.second;
-            String result = getEmotionLabel(maxScoreIdx);
-            return new AnalysisResult(String.format("%s - %dms", result, inferenceTime));
+        long start = System.nanoTime();
+        copyFrame(image, job);
+        job.mRotation = rotationDegrees;
+        job.mSubmitNanos = mCopyLatency.recordSince(start);
+        mPipeline.submit(job);
+        // Results are posted by the pipeline as frames come out of inference.
+        return null;
+    }
+
+    /** Picks the model for the frame and turns it into what the face detector takes. */
+    private boolean convertStage(FrameJob job) {
+        // The model is loaded and warmed up in the background from application start.
+        refreshModels();
+        if (mModel == null) {
+            job.mResult = obtainResult().setMessage(ModelManager.getInstance().getState() == ModelManager.State.FAILED
+                    ? "Model failed to load" : "Loading model...");
+            return false;
         }
-        else{
-            return new AnalysisResult(String.format("%s - %dms", "No face Detected", 0));
+        // In A/B mode the two models take turns, one frame each.
+        job.mUseB = mCompareModel != null && (mFrameCount++ & 1) == 1;
+        ModelManager.LoadedModel model = job.mUseB ? mCompareModel : mModel;
+        // Retained until the job is recycled, so a switch or A/B toggle meanwhile doesn't shut
+        // its pool down under the frame.
+        if (!model.retain()) {
+            job.mResult = obtainResult().setMessage("Switching model...");
+            return false;
         }
+        job.mModel = model;
+        job.mPlan = job.mUseB ? mComparePlan : mPlan;
+        job.mFaceCache = job.mUseB ? mCompareFaceCache : mFaceCache;
+        // Other detectors sample the luminance plane themselves in the detect stage.
+        job.mDetectorFrame = (!mTrackingEnabled || mDetectionDue) && mFullScanDue
+                && mHaarCascadeAsset == null ? detectorFrame(job) : null;
+        return true;
+    }
+
+    /** How far the frame is shrunk for detection, also setting {@link FrameJob#mDetectionScale}. */
+    private int detectionShift(FrameJob job) {
+        int shift = mDetectionShift;
+        if (shift == DETECTION_SHIFT_AUTO) {
+            shift = FaceDetectorOwner.detectionShift(YuvConverter.rotatedWidth(job.mFrame, job.mRotation));
+        }
+        job.mDetectionScale = 1 << shift;
+        return shift;
+    }
 
+    private Frame detectorFrame(FrameJob job) {
+        int shift = detectionShift(job);
+        if (shift > 0) {
+            // The detector only looks at luminance, so a small grayscale frame serves colour models too.
+            return downscaledFrame(job, shift);
+        }
+        return job.mPlan.getInputSpec().isGrayscale()
+                ? lumaToFrame(job)
+                : new Frame.Builder().setBitmap(imgToBitmap(job)).build();
+    }
+
+    private boolean detectStage(FrameJob job) throws InterruptedException, ExecutionException {
+        if (mTrackingEnabled) {
+            // Every frame is needed at low resolution: for the templates when detected, for
+            // matching them otherwise.
+            mTrackingLuma.sample(job.mFrame, job.mRotation, TRACKING_SHIFT);
+            int count = mTracker.needsDetection() ? -1 : mTracker.track(mTrackingLuma);
+            if (count < 0) {
+                count = detect(job);
+                mTracker.onDetected(mTrackingLuma, job.mBoxes, count);
+            } else {
+                count = Math.min(count, job.mPlan.getMaxBatchSize());
+                System.arraycopy(mTracker.getBoxes(), 0, job.mBoxes, 0, count * 4);
+            }
+            mDetectionDue = mTracker.needsDetection();
+            job.mFaceCount = count;
+        } else {
+            job.mFaceCount = detect(job);
+        }
+        job.mDetectorFrame = null;
+        if (job.mFaceCount == 0) {
+            job.mResult = obtainResult().setMessage("No face Detected - 0ms");
+            return false;
+        }
+        return true;
+    }
 
-//        try {
-//            saveBitmap(getApplicationContext(),bitmap,Bitmap.CompressFormat.PNG, "image/png", "bitmap");
-//            Toast.makeText(getApplicationContext(), "Demo Saved!", Toast.LENGTH_SHORT).show();
-//        } catch (IOException e) {
-//            Toast.makeText(getApplicationContext(), "Demo not Saved!", Toast.LENGTH_SHORT).show();
-//            throw new RuntimeException(e);
-//        }
+    /**
+     * Runs the face detector around the last faces when it can, and on the whole frame when
+     * that falls short or a full scan is due.
+     */
+    private int detect(FrameJob job) throws InterruptedException, ExecutionException {
+        mDetectionCount++;
+        int count = -1;
+        if (mRegionSearchEnabled && !mRegionSearch.needsFullScan()) {
+            LumaImage luma = job.mDetectionLuma.sample(job.mFrame, job.mRotation, detectionShift(job));
+            count = mRegionSearch.search(lumaDetector(), luma, job.mBoxes, job.mPlan.getMaxBatchSize());
+        }
+        if (count < 0) {
+            long start = System.nanoTime();
+            count = detectFullFrame(job);
+            mRegionSearch.onFullScan(job.mBoxes, count, System.nanoTime() - start);
+        }
+        mFullScanDue = !mRegionSearchEnabled || mRegionSearch.needsFullScan();
+        return count;
+    }
 
-//        Log.d("MyTag", "analyzeImage result: " + result);
-//        Log.d("MyTag", "analyzeImage maxScoreIdx: " + maxScoreIdx);
+    /**
+     * The selected detector, building the Haar detector on first use. Falls back to Play
+     * Services when its cascade can't be loaded.
+     */
+    @WorkerThread
+    private synchronized LumaFaceDetector lumaDetector() {
+        if (mLumaDetector == null && !mDestroyed) {
+            String asset = mHaarCascadeAsset;
+            if (asset == null) {
+                mLumaDetector = mFaceDetector;
+            } else {
+                try (InputStream in = getAssets().open(asset)) {
+                    mLumaDetector = new HaarCascadeDetector(HaarCascade.readOpenCv(new BufferedInputStream(in)),
+                            FaceDetectorOwner.MIN_FACE_SIZE, HAAR_THREADS);
+                    Log.i("MyTag", "Detecting faces with the Haar cascade " + asset);
+                } catch (IOException | RuntimeException e) {
+                    Log.e("MyTag", "Can't load Haar cascade " + asset + ", using Play Services", e);
+                    mHaarCascadeAsset = null;
+                    mLumaDetector = mFaceDetector;
+                }
+            }
+        }
+        return mLumaDetector;
+    }
 
+    /** Runs the face detector on the whole frame, building its input if the convert stage didn't. */
+    private int detectFullFrame(FrameJob job) throws InterruptedException, ExecutionException {
+        LumaFaceDetector detector = lumaDetector();
+        if (detector != mFaceDetector) {
+            LumaImage luma = job.mDetectionLuma.sample(job.mFrame, job.mRotation, detectionShift(job));
+            // Boxes come back in full-resolution upright coordinates.
+            return detector.detect(luma, job.mBoxes, job.mPlan.getMaxBatchSize());
+        }
+        if (job.mDetectorFrame == null) {
+            job.mDetectorFrame = detectorFrame(job);
+        }
+        SparseArray<Face> faces = mFaceDetector.detect(job.mDetectorFrame);
+        int count = FaceDetectorOwner.selectFaces(faces, job.mPlan.getMaxBatchSize(), job.mDetected);
+        // Back to full-resolution upright coordinates.
+        float scale = job.mDetectionScale;
+        for (int i = 0; i < count; i++) {
+            Face face = job.mDetected[i];
+            job.mBoxes[i * 4] = face.getPosition().x * scale;
+            job.mBoxes[i * 4 + 1] = face.getPosition().y * scale;
+            job.mBoxes[i * 4 + 2] = face.getWidth() * scale;
+            job.mBoxes[i * 4 + 3] = face.getHeight() * scale;
+        }
+        return count;
     }
 
-    private String getEmotionLabel(int maxScoreIdx) {
-        switch (maxScoreIdx) {
-            case ANGRY:
-                return "ANGRY";
-            case DISGUST:
-                return "DISGUST";
-            case FEAR:
-                return "FEAR";
-            case HAPPY:
-                return "HAPPY";
-            case NEUTRAL:
-                return "NEUTRAL";
-            case SAD:
-                return "SAD";
-            case SURPRISE:
-                return "SUPRISE";
-            default:
-                return String.valueOf((char)(1 + maxScoreIdx + 64));
+    /** Crops, rotates, resizes and normalizes every face in one pass from the YUV planes. */
+    private boolean preprocessStage(FrameJob job) {
+        long start = System.nanoTime();
+        job.mInput = job.mPlan.acquire(job.mFaceCount);
+        for (int i = 0; i < job.mFaceCount; i++) {
+            job.mPlan.sampleFace(job.mFrame, job.mRotation,
+                    job.mBoxes[i * 4], job.mBoxes[i * 4 + 1], job.mBoxes[i * 4 + 2], job.mBoxes[i * 4 + 3],
+                    job.mInput.getBuffer(), i);
+            job.mSignatures[i] = job.mFaceCache.signature(job.mInput.getBuffer(),
+                    i * job.mPlan.getInputSpec().getElementsPerFace(), job.mPlan.getInputSpec());
         }
+        job.mPreprocessNanos = System.nanoTime() - start;
+        return true;
     }
 
+    private boolean inferStage(FrameJob job) throws InterruptedException, ExecutionException {
+        PreprocessingPlan plan = job.mPlan;
+        FaceSignatureCache cache = job.mFaceCache;
+        Recognition recognition = plan.getRecognition();
+        float[] probabilities = recognition.getProbabilities();
+        int batchSize = job.mFaceCount;
+        int numClasses = plan.getDescriptor().getNumClasses();
+        long now = SystemClock.elapsedRealtime();
+
+        // Still faces reuse their last probabilities; any changed face runs the whole batch.
+        boolean cached = true;
+        cache.startBatch();
+        for (int i = 0; i < batchSize && cached; i++) {
+            cached = cache.lookup(job.mSignatures[i], now, probabilities, i * numClasses) >= 0;
+        }
+        try {
+            if (cached) {
+                recognition.setFaceCount(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    recognition.updateTopK(i);
+                }
+                recognition.setStepNanos(Recognition.Step.INFERENCE, 0);
+                recognition.setStepNanos(Recognition.Step.POSTPROCESS, 0);
+            } else {
+                MainActivity.batchRecognition(job.mInput, job.mModel.getPool(), recognition);
+                mForwardLatency.record(recognition.getStepNanos(Recognition.Step.INFERENCE));
+                mInferenceMsPerFace = recognition.getStepMs(Recognition.Step.INFERENCE) / batchSize;
+                cache.startBatch();
+                for (int i = 0; i < batchSize; i++) {
+                    cache.put(job.mSignatures[i], now, probabilities, i * numClasses, recognition.getBestClass(i));
+                }
+            }
+            recognition.setStepNanos(Recognition.Step.PREPROCESS, job.mPreprocessNanos);
+        } finally {
+            plan.release(job.mInput);
+            job.mInput = null;
+        }
+        cache.recordFrame(cached, cached ? mInferenceMsPerFace * batchSize : 0);
+        ModelManager.getInstance().onFirstResult();
+
+        AnalysisResult result = obtainResult();
+        StringBuilder text = result.mResults;
+        text.setLength(0);
+        for (int i = 0; i < batchSize; i++) {
+            int emotion = recognition.getBestClass(i);
+            float confidence = recognition.getTopProbability(i, 0);
+            String label = plan.getDescriptor().getLabel(emotion);
+            result.mFaces[i].set(job.mBoxes, i, emotion, label, confidence);
+            text.append(i == 0 ? "" : ", ").append(label)
+                    .append(' ').append(Math.round(confidence * 100)).append('%');
+        }
+        result.mFaceCount = batchSize;
+        if (cached) {
+            text.append(" - cached");
+        } else {
+            text.append(" - ").append(recognition.getStepMs(Recognition.Step.INFERENCE)).append("ms");
+        }
+
+        ModelManager.LoadedModel modelA = mModel;
+        ModelManager.LoadedModel modelB = mCompareModel;
+        if (modelB != null && modelA != null && !cached) {
+            (job.mUseB ? mLatencyB : mLatencyA).record(recognition.getStepMs(Recognition.Step.INFERENCE));
+            int start = text.length();
+            text.append('\n').append(job.mUseB ? "[B]" : "[A]")
+                    .append("\nA ").append(modelA.getEntry().getName())
+                    .append(" p50/p95 ").append(mLatencyA.percentile(50)).append('/').append(mLatencyA.percentile(95))
+                    .append("ms\nB ").append(modelB.getEntry().getName())
+                    .append(" p50/p95 ").append(mLatencyB.percentile(50)).append('/').append(mLatencyB.percentile(95))
+                    .append("ms");
+            if (job.mUseB && mLatencyB.getCount() % STATS_LOG_INTERVAL == 0) {
+                Log.i("MyTag", text.substring(start + 5).replace('\n', ' '));
+            }
+        }
+        job.mResult = result;
+        return true;
+    }
 
     public static void saveBitmap(@NonNull final Context context, @NonNull final Bitmap bitmap,
                                   @NonNull final Bitmap.CompressFormat format,
@@ -214,45 +922,4 @@ public class LiveEmotionRecognitionActivity extends com.example.emotiondetection
             throw e;
         }
     }
-
-    public static Pair<Boolean,Bitmap> detectAndCropFace(Context context, Bitmap originalBitmap) {
-        // Initialize the face detector
-        FaceDetector faceDetector = new FaceDetector.Builder(context)
-                .setTrackingEnabled(false)
-                .setLandmarkType(FaceDetector.ALL_LANDMARKS)
-                .build();
-
-        // Build the frame
-        Frame frame = new Frame.Builder().setBitmap(originalBitmap).build();
-
-        // Detect faces
-        SparseArray<Face> faces = faceDetector.detect(frame);
-
-        // Check if any face is detected
-        if (faces.size() == 0) {
-//            Toast.makeText(context, "Face not Detected!", Toast.LENGTH_SHORT).show();
-            // No faces detected, return original bitmap
-            return new Pair<>(false,originalBitmap);
-        }
-
-        // Get the first face detected
-        Face face = faces.valueAt(0);
-
-        // Calculate the position of the face
-        float x1 = face.getPosition().x;
-        float y1 = face.getPosition().y;
-        float x2 = x1 + face.getWidth();
-        float y2 = y1 + face.getHeight();
-
-        // Crop the face from the original bitmap
-        Bitmap croppedBitmap = Bitmap.createBitmap(originalBitmap, (int) x1, (int) y1, (int) (x2 - x1), (int) (y2 - y1));
-        Matrix matrix = new Matrix();
-        croppedBitmap = Bitmap.createBitmap(croppedBitmap, 0, 0, croppedBitmap.getWidth(), croppedBitmap.getHeight(), matrix, true);
-//        Toast.makeText(context, "Face Detected at: " + x1 + y1, Toast.LENGTH_SHORT).show();
-
-        // Release the face detector
-        faceDetector.release();
-
-        return new Pair<>(true,croppedBitmap);
-    }
 }
\ No newline at end of file
@@ -5,14 +5,12 @@ import static java.security.AccessController.getContext;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.SystemClock;
 import android.provider.MediaStore;
-import android.util.Pair;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
@@ -21,40 +19,122 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
-import org.pytorch.IValue;
-import org.pytorch.Module;
-import org.pytorch.Tensor;
-
+import com.example.emotiondetection.inference.AssetExtractor;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.InferenceBackend;
+import com.example.emotiondetection.vision.InferencePool;
+import com.example.emotiondetection.vision.MetricsRegistry;
+import com.example.emotiondetection.vision.ModelDescriptor;
+import com.example.emotiondetection.vision.ModelInputSpec;
+import com.example.emotiondetection.vision.Recognition;
 
 import org.pytorch.torchvision.TensorImageUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.FloatBuffer;
+import java.io.Writer;
+import java.util.concurrent.ExecutionException;
 
 public class MainActivity extends AppCompatActivity {
 
     public final static int SIZE = 224;
+    /** Classes of the bundled model, see {@link #DEFAULT_DESCRIPTOR}. */
+    public final static int NUM_CLASSES = 7;
+    public final static String MODEL_ASSET = "asl.ptl";
+
+    /** Used for models shipped without a descriptor sidecar. */
+    public final static ModelDescriptor DEFAULT_DESCRIPTOR = ModelDescriptor.defaultEmotionModel(SIZE);
+    public final static ModelInputSpec DEFAULT_INPUT = DEFAULT_DESCRIPTOR.getInputSpec();
+
+    /** Direct input buffers shared by every inference path; see {@link #acquireInput()}. */
+    public final static FloatBufferPool INPUT_POOL = new FloatBufferPool(4);
+    /**
+     * Input buffers of one shape checked out at once that debug builds report as a leak. Far
+     * above normal use: frames in flight in the live pipeline, parts of split batches, pool
+     * warm-up and parallel video jobs together stay well below it.
+     */
+    public final static int INPUT_LEAK_THRESHOLD = 64;
+
+    /** Latency histograms of every analysis step, kept for the process lifetime. */
+    public final static MetricsRegistry METRICS = new MetricsRegistry();
+    /** CSV in the app's files dir that {@link #METRICS} snapshots are appended to. */
+    public final static String METRICS_FILE = "metrics.csv";
+
+    static {
+        INPUT_POOL.setLeakDetection(BuildConfig.DEBUG ? INPUT_LEAK_THRESHOLD : 0);
+    }
 
-    public static String assetFilePath(Context context, String assetName) throws IOException {
-        File file = new File(context.getFilesDir(), assetName);
-        if (file.exists() && file.length() > 0) {
-            return file.getAbsolutePath();
+    /** Checks out a {@code 1 x 3 x SIZE x SIZE} input buffer; hand it back with {@link #releaseInput}. */
+    public static FloatBufferPool.Lease acquireInput() {
+        return acquireInput(1);
+    }
+
+    /** Checks out a {@code batchSize x 3 x SIZE x SIZE} input buffer. */
+    public static FloatBufferPool.Lease acquireInput(int batchSize) {
+        return acquireInput(DEFAULT_INPUT, batchSize);
+    }
+
+    /** Checks out an input buffer shaped for {@code batchSize} faces of {@code spec}. */
+    public static FloatBufferPool.Lease acquireInput(ModelInputSpec spec, int batchSize) {
+        if (batchSize < 1 || batchSize > DEFAULT_DESCRIPTOR.getMaxBatchSize()) {
+            throw new IllegalArgumentException("Batch size must be in 1.." + DEFAULT_DESCRIPTOR.getMaxBatchSize()
+                    + ": " + batchSize);
         }
+        return INPUT_POOL.acquire(spec.getShape(batchSize));
+    }
 
-        try (InputStream is = context.getAssets().open(assetName)) {
-            try (OutputStream os = new FileOutputStream(file)) {
-                byte[] buffer = new byte[4 * 1024];
-                int read;
-                while ((read = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, read);
+    public static void releaseInput(FloatBufferPool.Lease lease) {
+        INPUT_POOL.release(lease);
+    }
+
+    /**
+     * Appends a snapshot of {@link #METRICS} to {@link #METRICS_FILE}, starting the file with
+     * a header. Does file I/O; call off the main thread.
+     */
+    public static void appendMetricsCsv(Context context) {
+        File file = new File(context.getFilesDir(), METRICS_FILE);
+        synchronized (METRICS) {
+            boolean header = !file.exists();
+            try (Writer out = new BufferedWriter(new FileWriter(file, true))) {
+                if (header) {
+                    out.append(MetricsRegistry.CSV_HEADER).append('\n');
                 }
-                os.flush();
+                METRICS.writeCsv(out, System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.w("MyTag", "Cannot write " + file, e);
             }
-            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Path of {@code assetName} copied to app storage. The copy is validated against the
+     * running APK and re-extracted when stale; see {@link AssetExtractor}.
+     */
+    public static String assetFilePath(Context context, String assetName) throws IOException {
+        return AssetExtractor.getInstance().extract(context, assetName).getAbsolutePath();
+    }
+
+    /**
+     * Reads the descriptor shipped next to {@code modelAsset} in assets, falling back to
+     * {@link #DEFAULT_DESCRIPTOR} when the model has none.
+     */
+    public static ModelDescriptor loadDescriptor(Context context, String modelAsset) throws IOException {
+        String sidecar = ModelDescriptor.sidecarName(modelAsset);
+        InputStream is;
+        try {
+            is = context.getAssets().open(sidecar);
+        } catch (FileNotFoundException e) {
+            Log.w("MyTag", "No descriptor " + sidecar + ", using defaults");
+            return DEFAULT_DESCRIPTOR;
+        }
+        try {
+            return ModelDescriptor.parse(is);
+        } finally {
+            is.close();
         }
     }
 
@@ -73,52 +153,42 @@ public class MainActivity extends AppCompatActivity {
         return true;
     }
 
-    public static Pair<Integer, Long> bitmapRecognition(Bitmap bitmap, Module module) {
-
-        FloatBuffer inTensorBuffer = Tensor.allocateFloatBuffer(3 * SIZE * SIZE);
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                int colour = bitmap.getPixel(x, y);
-
-                int red = Color.red(colour);
-                int blue = Color.blue(colour);
-                int green = Color.green(colour);
-
-                float normalizedRed = (float) ((red / 255.0 - 0.485) / 0.229);
-                float normalizedGreen = (float) ((green / 255.0 - 0.456) / 0.224);
-                float normalizedBlue = (float) ((blue / 255.0 - 0.406) / 0.225);
-
-                inTensorBuffer.put(x + SIZE * y, normalizedBlue);
-                inTensorBuffer.put(SIZE * SIZE + x + SIZE * y, normalizedGreen);
-                inTensorBuffer.put(2 * SIZE * SIZE + x + SIZE * y, normalizedRed);
-            }
-        }
-
-//        try {
-//            saveBitmap(context,bitmap,Bitmap.CompressFormat.PNG, "image/png", "bitmap");
-//            Toast.makeText(context, "Demo Saved!", Toast.LENGTH_SHORT).show();
-//        } catch (IOException e) {
-//            Toast.makeText(context, "Demo not Saved!", Toast.LENGTH_SHORT).show();
-//            throw new RuntimeException(e);
-//        }
-
-
-        Tensor inputTensor = Tensor.fromBlob(inTensorBuffer, new long[]{1, 3, SIZE, SIZE});
+    /** Classifies an already preprocessed single-face input into {@code out}. */
+    public static Recognition tensorRecognition(FloatBufferPool.Lease input, InferenceBackend backend, Recognition out) {
+        return batchRecognition(input, backend, out);
+    }
 
-        final long startTime = SystemClock.elapsedRealtime();
-        Tensor outTensor = module.forward(IValue.from(inputTensor)).toTensor();
-        final long inferenceTime = SystemClock.elapsedRealtime() - startTime;
+    /**
+     * Classifies every face packed in {@code input} ({@code N x C x H x W}) with a single
+     * forward pass. Probabilities and top classes of every face go to {@code out}, along with
+     * the inference and postprocessing times; the preprocessing time is left to the caller.
+     */
+    public static Recognition batchRecognition(FloatBufferPool.Lease input, InferenceBackend backend, Recognition out) {
+        final int batchSize = (int) input.getShape()[0];
+
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        final float[] output = backend.forward(input);
+        final long inferenceTime = SystemClock.elapsedRealtimeNanos() - startTime;
+
+        out.checkLogits(output, batchSize);
+        out.setLogits(output, 0, batchSize);
+        out.setStepNanos(Recognition.Step.INFERENCE, inferenceTime);
+        out.setStepNanos(Recognition.Step.POSTPROCESS, SystemClock.elapsedRealtimeNanos() - startTime - inferenceTime);
+        return out;
+    }
 
-        final float[] scores = outTensor.getDataAsFloatArray();
-        float maxScore = -Float.MAX_VALUE;
-        int maxScoreIdx = -1;
-        for (int i = 0; i < scores.length; i++) {
-            if (scores[i] > maxScore) {
-                maxScore = scores[i];
-                maxScoreIdx = i;
-            }
-        }
-        return new Pair<>(maxScoreIdx, inferenceTime);
+    /**
+     * Like {@link #batchRecognition(FloatBufferPool.Lease, InferenceBackend, Recognition)}, with
+     * the faces spread over the instances of {@code pool}. Softmax runs on the workers too, so
+     * it is part of the inference time.
+     */
+    public static Recognition batchRecognition(FloatBufferPool.Lease input, InferencePool pool, Recognition out)
+            throws InterruptedException, ExecutionException {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        pool.classify(input, out, INPUT_POOL);
+        out.setStepNanos(Recognition.Step.INFERENCE, SystemClock.elapsedRealtimeNanos() - startTime);
+        out.setStepNanos(Recognition.Step.POSTPROCESS, 0);
+        return out;
     }
 
     @Override
@@ -0,0 +1,233 @@
+package com.example.emotiondetection.inference;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Copies assets to app storage, where native code such as {@code LiteModuleLoader} can open
+ * them by path.
+ * <p>
+ * Each extracted file has a stamp next to it ({@code name.stamp}) recording the APK it came
+ * from (version code and install time), its length and its CRC-32. A file is only reused
+ * when the stamp matches the running APK and the file still matches its length and checksum,
+ * so a model updated in a new APK is re-extracted and a copy cut short by a crash is never
+ * picked up. Copies go to a temporary file that is synced and renamed into place, and the
+ * stamp is written last.
+ * <p>
+ * Extractions run on a small pool, so {@link #prefetch} at startup copies several models at
+ * once; later {@link #extract} calls for the same asset wait on the same job.
+ */
+public class AssetExtractor {
+    private static final String TAG = "AssetExtractor";
+    private static final String STAMP_EXTENSION = ".stamp";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final String KEY_APK = "apk";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_CRC = "crc32";
+
+    private static class AssetExtractorHolder {
+        private static final AssetExtractor instance = new AssetExtractor();
+    }
+
+    public static AssetExtractor getInstance() {
+        return AssetExtractorHolder.instance;
+    }
+
+    private final ExecutorService mWorkers;
+    private final Map<String, Future<File>> mJobs = new ConcurrentHashMap<>();
+    private final Map<String, Long> mExtractionTimesMs = new ConcurrentHashMap<>();
+
+    private AssetExtractor() {
+        final AtomicInteger count = new AtomicInteger();
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        mWorkers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "AssetExtractor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Starts extracting every asset in {@code assetNames} in the background. */
+    public void prefetch(Context context, List<String> assetNames) {
+        for (String assetName : assetNames) {
+            submit(context, assetName);
+        }
+    }
+
+    /** Local copy of {@code assetName}, extracting it first if needed; blocks until done. */
+    public File extract(Context context, String assetName) throws IOException {
+        Future<File> job = submit(context, assetName);
+        try {
+            return job.get();
+        } catch (ExecutionException e) {
+            // Let a later call retry instead of caching the failure.
+            mJobs.remove(assetName, job);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot extract " + assetName, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting " + assetName);
+        }
+    }
+
+    /** Time spent validating or copying {@code assetName}, or -1 while not done. */
+    public long getExtractionTimeMs(String assetName) {
+        Long time = mExtractionTimesMs.get(assetName);
+        return time == null ? -1 : time;
+    }
+
+    private Future<File> submit(Context context, final String assetName) {
+        Future<File> job = mJobs.get(assetName);
+        if (job != null) {
+            return job;
+        }
+        final Context appContext = context.getApplicationContext();
+        FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                long start = SystemClock.elapsedRealtime();
+                File file = extractOrReuse(appContext, assetName);
+                long time = SystemClock.elapsedRealtime() - start;
+                mExtractionTimesMs.put(assetName, time);
+                Log.i(TAG, assetName + " ready in " + time + "ms (" + file.length() + " bytes)");
+                return file;
+            }
+        });
+        Future<File> existing = mJobs.putIfAbsent(assetName, task);
+        if (existing != null) {
+            return existing;
+        }
+        mWorkers.execute(task);
+        return task;
+    }
+
+    private static File extractOrReuse(Context context, String assetName) throws IOException {
+        File dir = context.getFilesDir();
+        File file = new File(dir, assetName);
+        File stampFile = new File(dir, assetName + STAMP_EXTENSION);
+        String apkKey = apkKey(context);
+
+        Properties stamp = readStamp(stampFile);
+        if (stamp != null && apkKey.equals(stamp.getProperty(KEY_APK)) && matches(file, stamp)) {
+            return file;
+        }
+        Log.i(TAG, "Extracting " + assetName + (stamp == null ? "" : " (stale or corrupt copy)"));
+
+        // Drop the stamp first: a crash from here on leaves no valid stamp behind.
+        stampFile.delete();
+        File temp = new File(dir, assetName + TEMP_EXTENSION);
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try (InputStream is = context.getAssets().open(assetName, AssetManager.ACCESS_STREAMING);
+             FileOutputStream os = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+            os.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot move " + temp + " to " + file);
+        }
+
+        Properties newStamp = new Properties();
+        newStamp.setProperty(KEY_APK, apkKey);
+        newStamp.setProperty(KEY_LENGTH, Long.toString(length));
+        newStamp.setProperty(KEY_CRC, Long.toHexString(crc.getValue()));
+        writeStamp(stampFile, newStamp);
+        return file;
+    }
+
+    /** Identifies the installed APK; changes on every update or reinstall. */
+    private static String apkKey(Context context) throws IOException {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode + "-" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IOException("Cannot read package info", e);
+        }
+    }
+
+    private static boolean matches(File file, Properties stamp) {
+        try {
+            if (file.length() != Long.parseLong(stamp.getProperty(KEY_LENGTH, "-1"))) {
+                return false;
+            }
+            return Long.toHexString(checksum(file)).equals(stamp.getProperty(KEY_CRC));
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static Properties readStamp(File stampFile) {
+        if (!stampFile.exists()) {
+            return null;
+        }
+        Properties stamp = new Properties();
+        try (InputStream is = new FileInputStream(stampFile)) {
+            stamp.load(is);
+            return stamp;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeStamp(File stampFile, Properties stamp) throws IOException {
+        File temp = new File(stampFile.getPath() + TEMP_EXTENSION);
+        try (FileOutputStream os = new FileOutputStream(temp)) {
+            stamp.store(os, null);
+            os.getFD().sync();
+        }
+        if (!temp.renameTo(stampFile)) {
+            temp.delete();
+            throw new IOException("Cannot write " + stampFile);
+        }
+    }
+}
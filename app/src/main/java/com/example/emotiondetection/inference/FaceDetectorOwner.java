@@ -0,0 +1,207 @@
+package com.example.emotiondetection.inference;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.example.emotiondetection.vision.LumaFaceDetector;
+import com.example.emotiondetection.vision.LumaImage;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.FaceDetector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One native {@link FaceDetector}, built once and reused for every frame until its owner
+ * (an activity, or a background job) releases it.
+ * <p>
+ * Building a detector loads native state and costs far more than detecting on one frame, so
+ * the owner starts building it on a background thread as soon as it is created, and the
+ * first {@link #detect} waits for it. Every detector in the app is configured here. The
+ * number of detectors alive in the process and how long each took to build are logged, so
+ * leaks show up as a growing count.
+ * <p>
+ * It is also a {@link LumaFaceDetector}, taking luminance images as grayscale NV21 frames, so
+ * region searches can run it on a crop of the luminance plane, and live analysis can swap it for
+ * the pure-Java {@link com.example.emotiondetection.vision.HaarCascadeDetector}.
+ */
+public class FaceDetectorOwner implements LumaFaceDetector {
+    private static final String TAG = "FaceDetectorOwner";
+
+    // Landmarks and classifications aren't used: boxes are all the emotion models need.
+    public static final int LANDMARK_TYPE = FaceDetector.NO_LANDMARKS;
+    public static final int CLASSIFICATION_TYPE = FaceDetector.NO_CLASSIFICATIONS;
+    public static final int MODE = FaceDetector.FAST_MODE;
+    /** Smallest face detected, as a fraction of the image width. */
+    public static final float MIN_FACE_SIZE = 0.1f;
+    /** Width below which the detector stops finding faces reliably, in detector input pixels. */
+    public static final int DETECTOR_MIN_FACE_PIXELS = 24;
+    /** Detector input is shrunk by at most 2^MAX_DETECTION_SHIFT (1/8). */
+    public static final int MAX_DETECTION_SHIFT = 3;
+
+    public static final String NAME = "play-services";
+
+    private static final AtomicInteger sLiveInstances = new AtomicInteger();
+    private static final SparseArray<Face> NO_FACES = new SparseArray<>();
+
+    private final String mName;
+    private final FutureTask<FaceDetector> mDetector;
+    private volatile long mConstructionTimeMs = -1;
+    private boolean mReleased;
+    /** Grayscale NV21 copy of the last luminance image, and its faces; guarded by this. */
+    private ByteBuffer mLumaBuffer;
+    private Face[] mLumaFaces = new Face[0];
+
+    /** Starts building the detector on a thread named after {@code name}. */
+    public FaceDetectorOwner(Context context, String name) {
+        final Context appContext = context.getApplicationContext();
+        mName = name;
+        mDetector = new FutureTask<>(() -> {
+            long start = SystemClock.elapsedRealtime();
+            FaceDetector detector = new FaceDetector.Builder(appContext)
+                    .setTrackingEnabled(false)
+                    .setLandmarkType(LANDMARK_TYPE)
+                    .setClassificationType(CLASSIFICATION_TYPE)
+                    .setMode(MODE)
+                    .setMinFaceSize(MIN_FACE_SIZE)
+                    .build();
+            mConstructionTimeMs = SystemClock.elapsedRealtime() - start;
+            int live = sLiveInstances.incrementAndGet();
+            Log.i(TAG, mName + ": detector built in " + mConstructionTimeMs + "ms, "
+                    + live + " alive" + (detector.isOperational() ? "" : ", native library not ready yet"));
+            return detector;
+        });
+        Thread builder = new Thread(mDetector, "FaceDetector-" + name);
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * How far to shrink an upright frame {@code imageWidth} pixels wide for detection: as far
+     * as faces of {@link #MIN_FACE_SIZE} stay {@link #DETECTOR_MIN_FACE_PIXELS} wide.
+     */
+    public static int detectionShift(int imageWidth) {
+        return LumaImage.shiftFor(Math.round(MIN_FACE_SIZE * imageWidth), DETECTOR_MIN_FACE_PIXELS, MAX_DETECTION_SHIFT);
+    }
+
+    /** Detectors built and not yet released, in the whole process. */
+    public static int getLiveInstances() {
+        return sLiveInstances.get();
+    }
+
+    /** Time it took to build the detector, or -1 while it is being built. */
+    public long getConstructionTimeMs() {
+        return mConstructionTimeMs;
+    }
+
+    /**
+     * Faces in {@code frame}, waiting for the detector if it is still being built; none once
+     * released.
+     */
+    public synchronized SparseArray<Face> detect(Frame frame) throws InterruptedException, ExecutionException {
+        if (mReleased) {
+            return NO_FACES;
+        }
+        return mDetector.get().detect(frame);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized int detect(LumaImage image, float[] boxes, int maxFaces)
+            throws InterruptedException, ExecutionException {
+        mLumaBuffer = grayNv21Buffer(mLumaBuffer, image.getWidth(), image.getHeight());
+        image.copyTo(mLumaBuffer);
+        SparseArray<Face> faces = detect(new Frame.Builder()
+                .setImageData(mLumaBuffer, image.getWidth(), image.getHeight(), ImageFormat.NV21)
+                .build());
+        if (mLumaFaces.length < maxFaces) {
+            mLumaFaces = new Face[maxFaces];
+        }
+        int count = selectFaces(faces, maxFaces, mLumaFaces);
+        float scale = image.getScale();
+        for (int i = 0; i < count; i++) {
+            Face face = mLumaFaces[i];
+            boxes[i * 4] = face.getPosition().x * scale;
+            boxes[i * 4 + 1] = face.getPosition().y * scale;
+            boxes[i * 4 + 2] = face.getWidth() * scale;
+            boxes[i * 4 + 3] = face.getHeight() * scale;
+            mLumaFaces[i] = null;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /** An NV21 buffer for {@code width x height} with neutral chroma, reusing {@code buffer} when it fits. */
+    public static ByteBuffer grayNv21Buffer(@Nullable ByteBuffer buffer, int width, int height) {
+        int nv21Size = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+        if (buffer != null && buffer.capacity() == nv21Size) {
+            return buffer;
+        }
+        buffer = ByteBuffer.allocateDirect(nv21Size);
+        for (int i = width * height; i < nv21Size; i++) {
+            buffer.put(i, (byte) 128);
+        }
+        return buffer;
+    }
+
+    /** Releases the detector, waiting for it to be built first. Later detections find nothing. */
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+        }
+        // Off the caller, which is typically the UI thread in onDestroy.
+        Thread releaser = new Thread(() -> {
+            try {
+                mDetector.get().release();
+                Log.i(TAG, mName + ": detector released, " + sLiveInstances.decrementAndGet() + " alive");
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, mName + ": detector was never built", e);
+            }
+        }, "FaceDetector-" + mName + "-release");
+        releaser.setDaemon(true);
+        releaser.start();
+    }
+
+    /**
+     * Copies the {@code maxFaces} largest detected faces into {@code batchFaces}, largest first,
+     * and returns how many were taken.
+     */
+    public static int selectFaces(SparseArray<Face> faces, int maxFaces, Face[] batchFaces) {
+        int count = 0;
+        for (int i = 0; i < faces.size(); i++) {
+            Face face = faces.valueAt(i);
+            float area = face.getWidth() * face.getHeight();
+            int pos = count < maxFaces ? count++ : maxFaces;
+            // Insertion into the size-ordered batch; the smallest face falls off the end.
+            while (pos > 0 && area > batchFaces[pos - 1].getWidth() * batchFaces[pos - 1].getHeight()) {
+                if (pos < maxFaces) {
+                    batchFaces[pos] = batchFaces[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < maxFaces) {
+                batchFaces[pos] = face;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.emotiondetection.inference;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.emotiondetection.MainActivity;
+import com.example.emotiondetection.vision.ModelDescriptor;
+import com.example.emotiondetection.vision.ReferenceCnnBackend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every PyTorch Lite model the app can run: the {@code .ptl} files bundled in assets plus any
+ * dropped into the app's {@code models} folders (internal or external files dir), so new
+ * models can be tried on a device without rebuilding the APK.
+ */
+public class ModelCatalog {
+    private static final String TAG = "ModelCatalog";
+    public static final String MODEL_EXTENSION = ".ptl";
+    public static final String MODELS_DIR = "models";
+
+    public static class Entry {
+        private final String mName;
+        @Nullable
+        private final File mFile;
+
+        Entry(String name, @Nullable File file) {
+            mName = name;
+            mFile = file;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** True for models bundled in assets, false for files in app storage. */
+        public boolean isAsset() {
+            return mFile == null;
+        }
+
+        /** Local path of the model, extracting it from assets first if needed. */
+        public String resolvePath(Context context) throws IOException {
+            return mFile == null ? MainActivity.assetFilePath(context, mName) : mFile.getAbsolutePath();
+        }
+
+        /** The model's sidecar descriptor, or the default one when it ships without. */
+        public ModelDescriptor loadDescriptor(Context context) throws IOException {
+            if (mFile == null) {
+                return MainActivity.loadDescriptor(context, mName);
+            }
+            File sidecar = new File(mFile.getParentFile(), ModelDescriptor.sidecarName(mName));
+            if (!sidecar.exists()) {
+                return MainActivity.DEFAULT_DESCRIPTOR;
+            }
+            try (InputStream is = new FileInputStream(sidecar)) {
+                return ModelDescriptor.parse(is);
+            }
+        }
+
+        /**
+         * Opens the model's reference CNN weights ({@code name.cnn} next to it), or returns null
+         * when it has none. The caller closes the stream.
+         */
+        @Nullable
+        public InputStream openFallbackWeights(Context context) throws IOException {
+            String weights = ReferenceCnnBackend.weightsName(mName);
+            if (mFile == null) {
+                try {
+                    return context.getAssets().open(weights);
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+            }
+            File file = new File(mFile.getParentFile(), weights);
+            return file.exists() ? new FileInputStream(file) : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return mName.equals(other.mName) && (mFile == null ? other.mFile == null : mFile.equals(other.mFile));
+        }
+
+        @Override
+        public int hashCode() {
+            return mName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mFile == null ? mName : mFile.getAbsolutePath();
+        }
+    }
+
+    private ModelCatalog() {
+    }
+
+    /** Lists bundled models first (sorted by name), then models found in app storage. */
+    public static List<Entry> list(Context context) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            String[] assets = context.getAssets().list("");
+            if (assets != null) {
+                List<String> names = new ArrayList<>();
+                for (String asset : assets) {
+                    if (asset.endsWith(MODEL_EXTENSION)) {
+                        names.add(asset);
+                    }
+                }
+                Collections.sort(names);
+                for (String name : names) {
+                    entries.add(new Entry(name, null));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot list model assets", e);
+        }
+        addModelFiles(new File(context.getFilesDir(), MODELS_DIR), entries);
+        File external = context.getExternalFilesDir(MODELS_DIR);
+        if (external != null) {
+            addModelFiles(external, entries);
+        }
+        return entries;
+    }
+
+    private static void addModelFiles(File dir, List<Entry> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> models = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(MODEL_EXTENSION)) {
+                models.add(file);
+            }
+        }
+        Collections.sort(models);
+        for (File file : models) {
+            entries.add(new Entry(file.getName(), file));
+        }
+    }
+
+    /** {@link MainActivity#MODEL_ASSET} when it is bundled, else the first model found. */
+    @Nullable
+    public static Entry getDefault(Context context) {
+        List<Entry> entries = list(context);
+        for (Entry entry : entries) {
+            if (entry.isAsset() && entry.getName().equals(MainActivity.MODEL_ASSET)) {
+                return entry;
+            }
+        }
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    /** The entry after {@code current} in catalog order, wrapping around. */
+    @Nullable
+    public static Entry next(Context context, @Nullable Entry current) {
+        List<Entry> entries = list(context);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        int index = current == null ? -1 : entries.indexOf(current);
+        return entries.get((index + 1) % entries.size());
+    }
+}
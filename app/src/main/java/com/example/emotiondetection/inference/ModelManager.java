@@ -0,0 +1,435 @@
+package com.example.emotiondetection.inference;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.emotiondetection.MainActivity;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.InferenceBackend;
+import com.example.emotiondetection.vision.InferencePool;
+import com.example.emotiondetection.vision.ModelDescriptor;
+import com.example.emotiondetection.vision.Recognition;
+import com.example.emotiondetection.vision.ReferenceCnnBackend;
+
+import org.pytorch.PyTorchAndroid;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide owner of the emotion model.
+ * <p>
+ * Loading starts from {@code Application.onCreate} on a background thread: the asset is
+ * extracted, the model loaded on an {@link InferenceBackend}, and a few dummy forward passes run so the first camera frame
+ * doesn't pay for lazy kernel setup. Callers poll {@link #getState()} or wait on
+ * {@link #getReadyFuture()} instead of loading the model themselves.
+ * <p>
+ * Another {@link ModelCatalog} entry can be made active at runtime with {@link #switchTo}: it
+ * is loaded and warmed up on the same background thread, and only then replaces the active
+ * model in one reference swap, so the analysis loop picks it up between two frames.
+ * <p>
+ * Every model runs on an {@link InferencePool} sized from the core count and the memory
+ * available, so the faces of a frame, or frames from several streams, run in parallel.
+ */
+public class ModelManager {
+    private static final String TAG = "ModelManager";
+
+    public enum State {
+        IDLE,
+        LOADING,
+        WARMING_UP,
+        READY,
+        FAILED
+    }
+
+    /** A loaded, warmed-up backend with its descriptor and how long it took to get there. */
+    public static class LoadedModel {
+        private final ModelCatalog.Entry mEntry;
+        private final InferenceBackend mBackend;
+        private final InferencePool mPool;
+        private final ModelDescriptor mDescriptor;
+        private final long mLoadTimeMs;
+        private final long mWarmupTimeMs;
+        /** Jobs that {@link #retain retained} the model; the pool outlives its retirement until they finish. */
+        private int mUsers;
+        private boolean mRetired;
+
+        LoadedModel(ModelCatalog.Entry entry, InferenceBackend backend, InferencePool pool, ModelDescriptor descriptor,
+                    long loadTimeMs, long warmupTimeMs) {
+            mEntry = entry;
+            mBackend = backend;
+            mPool = pool;
+            mDescriptor = descriptor;
+            mLoadTimeMs = loadTimeMs;
+            mWarmupTimeMs = warmupTimeMs;
+        }
+
+        public ModelCatalog.Entry getEntry() {
+            return mEntry;
+        }
+
+        /** The first instance, also serving as worker 0 of {@link #getPool()}. */
+        public InferenceBackend getBackend() {
+            return mBackend;
+        }
+
+        /** All instances of the model, for concurrent inference. */
+        public InferencePool getPool() {
+            return mPool;
+        }
+
+        public ModelDescriptor getDescriptor() {
+            return mDescriptor;
+        }
+
+        public long getLoadTimeMs() {
+            return mLoadTimeMs;
+        }
+
+        public long getWarmupTimeMs() {
+            return mWarmupTimeMs;
+        }
+
+        /**
+         * Keeps the pool running until {@link #release}, even if another model is switched to
+         * meanwhile. False when the model was already retired.
+         */
+        public synchronized boolean retain() {
+            if (mRetired) {
+                return false;
+            }
+            mUsers++;
+            return true;
+        }
+
+        public synchronized void release() {
+            if (mUsers <= 0) {
+                throw new IllegalStateException(mEntry + " released more often than retained");
+            }
+            if (--mUsers == 0 && mRetired) {
+                shutDown();
+            }
+        }
+
+        /** Shuts the pool down, once the jobs that retained the model have released it. */
+        public synchronized void retire() {
+            if (mRetired) {
+                return;
+            }
+            mRetired = true;
+            if (mUsers == 0) {
+                shutDown();
+            }
+        }
+
+        private void shutDown() {
+            mPool.shutdown();
+        }
+    }
+
+    /** Dummy forward passes run after loading. */
+    public static final int DEFAULT_WARMUP_RUNS = 2;
+    /** Upper bound on instances per model; more than the faces in a frame never helps. */
+    public static final int MAX_INSTANCES = 4;
+    /**
+     * Intra-op threads per instance when several are alive, in one model's pool or across
+     * models, unless {@link #setIntraOpThreads set} otherwise. PyTorch Mobile has a single
+     * process-wide thread pool that runs one operator at a time, so the instances each run
+     * single-threaded on their own worker instead of queueing for it.
+     */
+    public static final int DEFAULT_INTRA_OP_THREADS = 1;
+    /** Share of the memory currently available that extra instances may take. */
+    private static final int MEMORY_BUDGET_DIVISOR = 4;
+    /** Native memory of an instance relative to its file size: weights plus working buffers. */
+    private static final int INSTANCE_MEMORY_FACTOR = 2;
+
+    private static class ModelManagerHolder {
+        private static final ModelManager instance = new ModelManager();
+    }
+
+    public static ModelManager getInstance() {
+        return ModelManagerHolder.instance;
+    }
+
+    private final ExecutorService mLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ModelLoader");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private volatile State mState = State.IDLE;
+    private volatile Future<LoadedModel> mReady;
+    private volatile LoadedModel mActive;
+    private volatile long mStartTime;
+    private volatile boolean mFirstResultLogged;
+    private int mWarmupRuns = DEFAULT_WARMUP_RUNS;
+    private int mIntraOpThreads = DEFAULT_INTRA_OP_THREADS;
+    /** Intra-op threads last handed to the runtime; 0 while it runs on its own default. */
+    private int mAppliedIntraOpThreads;
+
+    private ModelManager() {
+    }
+
+    /**
+     * Starts loading {@code entry} in the background unless a load was already started.
+     * Safe to call from any thread, any number of times.
+     */
+    public synchronized void start(Context context, ModelCatalog.Entry entry, int warmupRuns) {
+        if (mReady != null) {
+            return;
+        }
+        mStartTime = SystemClock.elapsedRealtime();
+        mWarmupRuns = warmupRuns;
+        mReady = submit(context, entry, true);
+    }
+
+    /**
+     * Sets the intra-op threads of each PyTorch instance while more than one is alive, and the
+     * pool sizes of models loaded afterwards. The runtime's thread pool is process-wide and
+     * can't report its default back, so it keeps the count once several instances were alive.
+     */
+    public synchronized void setIntraOpThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one intra-op thread: " + threads);
+        }
+        mIntraOpThreads = threads;
+        applyIntraOpThreads();
+    }
+
+    public synchronized int getIntraOpThreads() {
+        return mIntraOpThreads;
+    }
+
+    /** Hands the intra-op thread count to the runtime when several instances are alive, once per count. */
+    private synchronized void applyIntraOpThreads() {
+        int instances = PyTorchBackend.getLiveInstances();
+        if (instances > 1 && mAppliedIntraOpThreads != mIntraOpThreads) {
+            PyTorchAndroid.setNumThreads(mIntraOpThreads);
+            mAppliedIntraOpThreads = mIntraOpThreads;
+            Log.i(TAG, instances + " PyTorch instances alive, " + mIntraOpThreads + " intra-op thread(s) each");
+        }
+    }
+
+    /** Starts loading the catalog's default model. */
+    public void start(Context context) {
+        if (mReady != null) {
+            return;
+        }
+        ModelCatalog.Entry entry = ModelCatalog.getDefault(context);
+        if (entry == null) {
+            Log.e(TAG, "No model found in assets or app storage");
+            mState = State.FAILED;
+            return;
+        }
+        start(context, entry, DEFAULT_WARMUP_RUNS);
+    }
+
+    /**
+     * Loads and warms up {@code entry} in the background, then makes it the active model.
+     * The previous model keeps serving until the swap.
+     */
+    public synchronized Future<LoadedModel> switchTo(Context context, ModelCatalog.Entry entry) {
+        if (mReady == null) {
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+        Future<LoadedModel> future = submit(context, entry, true);
+        mReady = future;
+        return future;
+    }
+
+    /** Loads and warms up {@code entry} in the background without activating it. */
+    public Future<LoadedModel> load(Context context, ModelCatalog.Entry entry) {
+        return submit(context, entry, false);
+    }
+
+    private Future<LoadedModel> submit(Context context, final ModelCatalog.Entry entry, final boolean activate) {
+        final Context appContext = context.getApplicationContext();
+        final int warmupRuns = mWarmupRuns;
+        FutureTask<LoadedModel> task = new FutureTask<>(new Callable<LoadedModel>() {
+            @Override
+            public LoadedModel call() throws Exception {
+                LoadedModel model = load(appContext, entry, warmupRuns, activate);
+                if (activate) {
+                    LoadedModel previous = mActive;
+                    mActive = model;
+                    if (previous != null) {
+                        // Requests already queued still complete; the instances are then freed.
+                        previous.retire();
+                    }
+                }
+                return model;
+            }
+        });
+        if (activate) {
+            mState = State.LOADING;
+        }
+        mLoader.execute(task);
+        return task;
+    }
+
+    private LoadedModel load(Context context, ModelCatalog.Entry entry, int warmupRuns, boolean trackState) throws Exception {
+        try {
+            long start = SystemClock.elapsedRealtime();
+            ModelDescriptor descriptor = entry.loadDescriptor(context);
+            InferenceBackend backend = loadBackend(context, entry, descriptor);
+            long loadTime = SystemClock.elapsedRealtime() - start;
+
+            if (trackState) {
+                mState = State.WARMING_UP;
+            }
+            start = SystemClock.elapsedRealtime();
+            warmUp(backend, descriptor, warmupRuns);
+            long warmupTime = SystemClock.elapsedRealtime() - start;
+
+            Log.i(TAG, "Loaded " + entry + " on " + backend.getName() + " in " + loadTime + "ms, warm-up "
+                    + warmupRuns + " runs in " + warmupTime + "ms");
+            InferencePool pool = createPool(context, entry, descriptor, backend, warmupRuns);
+            if (trackState) {
+                mState = State.READY;
+            }
+            return new LoadedModel(entry, backend, pool, descriptor, loadTime, warmupTime);
+        } catch (Exception | Error e) {
+            Log.e(TAG, "Failed to load " + entry, e);
+            if (trackState) {
+                // A failed switch leaves the previous model serving.
+                mState = mActive != null ? State.READY : State.FAILED;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads {@code entry} on the PyTorch runtime. If that fails, typically because the native
+     * library could not be loaded on this device, the model's reference CNN weights are used
+     * instead when it ships with them; classification keeps working, only slower.
+     */
+    private InferenceBackend loadBackend(Context context, ModelCatalog.Entry entry,
+                                         ModelDescriptor descriptor) throws IOException {
+        String path = entry.resolvePath(context);
+        try {
+            PyTorchBackend backend = PyTorchBackend.load(path);
+            // Counted as loaded, before it runs anything, so a second instance never runs on
+            // the default thread count; failed loads are never counted.
+            applyIntraOpThreads();
+            return backend;
+        } catch (LinkageError | RuntimeException e) {
+            InputStream weights = entry.openFallbackWeights(context);
+            if (weights == null) {
+                throw e;
+            }
+            ReferenceCnnBackend backend;
+            try {
+                backend = ReferenceCnnBackend.read(new BufferedInputStream(weights));
+            } finally {
+                weights.close();
+            }
+            if (!backend.accepts(descriptor.getInputSpec()) || backend.getNumClasses() != descriptor.getNumClasses()) {
+                throw new IOException("Fallback weights of " + entry + " don't match its descriptor", e);
+            }
+            Log.w(TAG, "PyTorch runtime unavailable for " + entry + ", falling back to " + backend.getName(), e);
+            return backend;
+        }
+    }
+
+    /**
+     * Starts the instance pool of a freshly loaded model. {@code primary} becomes worker 0;
+     * the other workers load and warm up their own instance in parallel and join as they get
+     * ready, so the model is usable right away.
+     */
+    private InferencePool createPool(Context context, ModelCatalog.Entry entry, ModelDescriptor descriptor,
+                                     InferenceBackend primary, int warmupRuns) throws IOException {
+        int workers = poolSize(context, entry, getIntraOpThreads());
+        Log.i(TAG, "Running " + entry.getName() + " on " + workers + " instance(s)");
+        return new InferencePool(entry.getName(), workers, worker -> {
+            if (worker == 0) {
+                return primary;
+            }
+            InferenceBackend instance = loadBackend(context, entry, descriptor);
+            warmUp(instance, descriptor, warmupRuns);
+            return instance;
+        });
+    }
+
+    /** Instances that fit both the cores and the memory available right now. */
+    private static int poolSize(Context context, ModelCatalog.Entry entry, int intraOpThreads) throws IOException {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null || activityManager.isLowRamDevice()) {
+            return 1;
+        }
+        ActivityManager.MemoryInfo memory = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memory);
+        long bytesPerInstance = new File(entry.resolvePath(context)).length() * INSTANCE_MEMORY_FACTOR;
+        int workers = InferencePool.recommendedWorkers(Runtime.getRuntime().availableProcessors(),
+                intraOpThreads, memory.availMem / MEMORY_BUDGET_DIVISOR, bytesPerInstance);
+        return Math.min(workers, MAX_INSTANCES);
+    }
+
+    private static void warmUp(InferenceBackend backend, ModelDescriptor descriptor, int runs) {
+        Recognition result = new Recognition(1, descriptor.getNumClasses(), 1);
+        FloatBufferPool.Lease input = MainActivity.acquireInput(descriptor.getInputSpec(), 1);
+        try {
+            for (int i = 0; i < runs; i++) {
+                MainActivity.tensorRecognition(input, backend, result);
+            }
+        } finally {
+            MainActivity.releaseInput(input);
+        }
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /** Completes with the loaded model, or with the load failure; null before {@link #start}. */
+    @Nullable
+    public Future<LoadedModel> getReadyFuture() {
+        return mReady;
+    }
+
+    /**
+     * Waits for the model being activated and {@link LoadedModel#retain retains} it, for jobs
+     * that must finish on one model. Release it when done.
+     */
+    public LoadedModel retainReady() throws InterruptedException, ExecutionException {
+        while (true) {
+            Future<LoadedModel> ready = mReady;
+            if (ready == null) {
+                throw new IllegalStateException("No model is being loaded");
+            }
+            LoadedModel model = ready.get();
+            // Retired models were replaced by then, and mReady points at their replacement.
+            if (model.retain()) {
+                return model;
+            }
+        }
+    }
+
+    /** The active model, without blocking; null until the first load completes. */
+    @Nullable
+    public LoadedModel getActive() {
+        return mActive;
+    }
+
+    /** Logs the time from {@link #start} to the first analysis result, once per process. */
+    public void onFirstResult() {
+        if (mFirstResultLogged) {
+            return;
+        }
+        mFirstResultLogged = true;
+        LoadedModel model = mActive;
+        Log.i(TAG, "Time to first result: " + (SystemClock.elapsedRealtime() - mStartTime) + "ms"
+                + (model == null ? "" : " (load " + model.getLoadTimeMs() + "ms, warm-up " + model.getWarmupTimeMs() + "ms)"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.emotiondetection.inference;
+
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.InferenceBackend;
+
+import org.pytorch.IValue;
+import org.pytorch.LiteModuleLoader;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs a PyTorch Lite module through the native runtime. */
+public class PyTorchBackend implements InferenceBackend {
+    public static final String NAME = "pytorch-lite";
+
+    /** Modules loaded and not yet destroyed, across every pool; they share one runtime. */
+    private static final AtomicInteger sLiveInstances = new AtomicInteger();
+
+    private final Module mModule;
+
+    public PyTorchBackend(Module module) {
+        mModule = module;
+        sLiveInstances.incrementAndGet();
+    }
+
+    public static int getLiveInstances() {
+        return sLiveInstances.get();
+    }
+
+    /** Loads a {@code .ptl} file; fails with a {@link LinkageError} when the native library is missing. */
+    public static PyTorchBackend load(String path) {
+        return new PyTorchBackend(LiteModuleLoader.load(path));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public Module getModule() {
+        return mModule;
+    }
+
+    @Override
+    public float[] forward(FloatBufferPool.Lease input) {
+        // The tensor wrapping a pooled buffer is created once and travels with it.
+        Tensor inputTensor = (Tensor) input.getTag();
+        if (inputTensor == null) {
+            inputTensor = Tensor.fromBlob(input.getBuffer(), input.getShape());
+            input.setTag(inputTensor);
+        }
+        return mModule.forward(IValue.from(inputTensor)).toTensor().getDataAsFloatArray();
+    }
+
+    @Override
+    public void close() {
+        mModule.destroy();
+        sLiveInstances.decrementAndGet();
+    }
+}
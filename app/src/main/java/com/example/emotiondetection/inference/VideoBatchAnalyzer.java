@@ -0,0 +1,334 @@
+package com.example.emotiondetection.inference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import com.example.emotiondetection.MainActivity;
+import com.example.emotiondetection.utils.FileUtil;
+import com.example.emotiondetection.vision.EmotionLog;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.PreprocessingPlan;
+import com.example.emotiondetection.vision.Recognition;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Analyses recorded videos in the background and writes a per-frame emotion log next to
+ * each one (see {@link EmotionLog}).
+ * <p>
+ * A frame is decoded every {@link #setStrideMs stride} milliseconds; faces are detected on it
+ * and collected across consecutive frames until a full batch is ready, which then runs on the
+ * active model's {@link com.example.emotiondetection.vision.InferencePool}. The log is
+ * committed after every batch, so a job killed with the process resumes from its last batch
+ * through {@link #resumePending}. Files are processed in parallel, one per thread, up to the
+ * core budget.
+ */
+public class VideoBatchAnalyzer {
+    private static final String TAG = "VideoBatchAnalyzer";
+    public static final long DEFAULT_STRIDE_MS = 500;
+    /** Frames without faces between commits, so stretches with nobody in view still make progress. */
+    private static final int IDLE_COMMIT_FRAMES = 20;
+
+    /** Progress of the jobs, called on their worker threads. */
+    public interface Listener {
+        void onProgress(File video, long positionMs, long durationMs, int frames, double fps);
+
+        /** @param error null when the whole video was analysed */
+        void onFinished(File video, @Nullable Throwable error);
+    }
+
+    private static class VideoBatchAnalyzerHolder {
+        private static final VideoBatchAnalyzer instance = new VideoBatchAnalyzer();
+    }
+
+    public static VideoBatchAnalyzer getInstance() {
+        return VideoBatchAnalyzerHolder.instance;
+    }
+
+    private final ExecutorService mWorkers;
+    private final int mCoreBudget;
+    private final Map<File, Future<?>> mJobs = new ConcurrentHashMap<>();
+    private final AtomicLong mTotalFrames = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private volatile long mStrideMs = DEFAULT_STRIDE_MS;
+    private volatile boolean mExactFrames;
+    @Nullable
+    private volatile Listener mListener;
+
+    private VideoBatchAnalyzer() {
+        final AtomicInteger count = new AtomicInteger();
+        // Leave half the cores to the UI, the decoders and the inference workers.
+        mCoreBudget = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        mWorkers = Executors.newFixedThreadPool(mCoreBudget, r -> {
+            Thread thread = new Thread(r, "VideoAnalysis-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /** Time between analysed frames; takes effect for files started afterwards. */
+    public void setStrideMs(long strideMs) {
+        if (strideMs <= 0) {
+            throw new IllegalArgumentException("Stride must be positive: " + strideMs);
+        }
+        mStrideMs = strideMs;
+    }
+
+    public long getStrideMs() {
+        return mStrideMs;
+    }
+
+    /**
+     * Decode the exact frame at each timestamp instead of the nearest key frame; slower, but
+     * strides shorter than the key frame interval then see distinct frames.
+     */
+    public void setExactFrames(boolean exactFrames) {
+        mExactFrames = exactFrames;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /** Files analysed at once. */
+    public int getCoreBudget() {
+        return mCoreBudget;
+    }
+
+    /** Frames analysed per second of job time, over every job so far. */
+    public double getFramesPerSecond() {
+        long nanos = mTotalNanos.get();
+        return nanos == 0 ? 0 : mTotalFrames.get() * 1e9 / nanos;
+    }
+
+    /** Queues every video in the video folder that has no complete log yet. */
+    public int analyzeAll(Context context) {
+        int queued = 0;
+        for (File video : FileUtil.getVideoFiles()) {
+            if (!EmotionLog.isDone(video) && analyze(context, video)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /** Continues the videos whose analysis was interrupted, e.g. when the process was killed. */
+    public int resumePending(Context context) {
+        int queued = 0;
+        for (File video : FileUtil.getVideoFiles()) {
+            if (EmotionLog.isPending(video) && analyze(context, video)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /** Queues {@code video}; false if it is already queued or running. */
+    public boolean analyze(Context context, final File video) {
+        final Context appContext = context.getApplicationContext();
+        final long strideMs = mStrideMs;
+        final int option = mExactFrames ? MediaMetadataRetriever.OPTION_CLOSEST : MediaMetadataRetriever.OPTION_CLOSEST_SYNC;
+        synchronized (mJobs) {
+            if (mJobs.containsKey(video)) {
+                return false;
+            }
+            mJobs.put(video, mWorkers.submit(() -> {
+                Throwable error = null;
+                try {
+                    run(appContext, video, strideMs, option);
+                } catch (Exception e) {
+                    Log.e(TAG, "Analysis of " + video.getName() + " failed", e);
+                    error = e;
+                } finally {
+                    synchronized (mJobs) {
+                        mJobs.remove(video);
+                    }
+                }
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onFinished(video, error);
+                }
+            }));
+        }
+        return true;
+    }
+
+    /** Length of {@code video}, which must report one: without it there's no end to sample up to. */
+    private static long durationMs(MediaMetadataRetriever retriever, File video) throws IOException {
+        String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        if (duration == null) {
+            throw new IOException(video.getName() + " has no duration metadata");
+        }
+        try {
+            return Long.parseLong(duration.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(video.getName() + " has an unreadable duration: " + duration, e);
+        }
+    }
+
+    public boolean isRunning(File video) {
+        return mJobs.containsKey(video);
+    }
+
+    private void run(Context context, File video, long strideMs, int option)
+            throws IOException, InterruptedException, ExecutionException {
+        // Retained, so switching models meanwhile doesn't shut its pool down under the job.
+        ModelManager.LoadedModel model = ModelManager.getInstance().retainReady();
+        PreprocessingPlan plan = new PreprocessingPlan(model.getDescriptor(), MainActivity.INPUT_POOL, null);
+        FaceBatch batch = new FaceBatch(plan);
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        FaceDetectorOwner detector = new FaceDetectorOwner(context, video.getName());
+        try (EmotionLog log = EmotionLog.open(video)) {
+            if (log.isDone()) {
+                return;
+            }
+            retriever.setDataSource(video.getAbsolutePath());
+            long durationMs = durationMs(retriever, video);
+            long start = SystemClock.elapsedRealtimeNanos();
+            int frames = 0;
+            Face[] faces = new Face[plan.getMaxBatchSize()];
+            int[] pixels = null;
+
+            for (long timeMs = log.getNextTimeMs(); timeMs < durationMs; timeMs += strideMs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                Bitmap bitmap = retriever.getFrameAtTime(timeMs * 1000, option);
+                if (bitmap == null) {
+                    continue;
+                }
+                SparseArray<Face> detected = detector.detect(new Frame.Builder().setBitmap(bitmap).build());
+                int count = FaceDetectorOwner.selectFaces(detected, plan.getMaxBatchSize(), faces);
+                if (count > 0) {
+                    int width = bitmap.getWidth();
+                    int height = bitmap.getHeight();
+                    if (batch.getFaceCount() + count > plan.getMaxBatchSize()) {
+                        // The batch is full: classify it and make everything before this frame durable.
+                        batch.flush(model, log);
+                        log.commit(timeMs);
+                    }
+                    if (pixels == null || pixels.length < width * height) {
+                        pixels = new int[width * height];
+                    }
+                    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+                    batch.add(timeMs, faces, count, pixels, width, height);
+                }
+                bitmap.recycle();
+                frames++;
+                if (batch.getFaceCount() == 0 && frames % IDLE_COMMIT_FRAMES == 0) {
+                    log.commit(timeMs + strideMs);
+                }
+
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onProgress(video, timeMs, durationMs, frames,
+                            frames * 1e9 / (SystemClock.elapsedRealtimeNanos() - start));
+                }
+            }
+            batch.flush(model, log);
+            log.finish(durationMs);
+
+            long nanos = SystemClock.elapsedRealtimeNanos() - start;
+            mTotalFrames.addAndGet(frames);
+            mTotalNanos.addAndGet(nanos);
+            Log.i(TAG, video.getName() + ": " + frames + " frames in " + nanos / 1000000 + "ms ("
+                    + String.format("%.1f", frames * 1e9 / nanos) + " fps, overall "
+                    + String.format("%.1f", getFramesPerSecond()) + " fps)");
+        } finally {
+            batch.release();
+            detector.release();
+            retriever.release();
+            model.release();
+        }
+    }
+
+    /**
+     * Faces collected across frames, sampled into the model input as they arrive so the
+     * frames themselves needn't be kept.
+     */
+    private static class FaceBatch {
+        private final PreprocessingPlan mPlan;
+        private final Recognition mRecognition;
+        private final long[] mTimesMs;
+        private final int[] mFaceIndices;
+        private final float[][] mBoxes;
+        private FloatBufferPool.Lease mInput;
+        private int mCount;
+
+        FaceBatch(PreprocessingPlan plan) {
+            mPlan = plan;
+            int maxFaces = plan.getMaxBatchSize();
+            // The plan's own result belongs to the live loop; each job keeps its own.
+            mRecognition = new Recognition(maxFaces, plan.getDescriptor().getNumClasses(), 1);
+            mTimesMs = new long[maxFaces];
+            mFaceIndices = new int[maxFaces];
+            mBoxes = new float[maxFaces][4];
+        }
+
+        int getFaceCount() {
+            return mCount;
+        }
+
+        void add(long timeMs, Face[] faces, int count, int[] pixels, int width, int height) {
+            if (mInput == null) {
+                mInput = mPlan.acquire(mPlan.getMaxBatchSize());
+            }
+            for (int i = 0; i < count; i++) {
+                Face face = faces[i];
+                float[] box = mBoxes[mCount];
+                box[0] = face.getPosition().x;
+                box[1] = face.getPosition().y;
+                box[2] = face.getWidth();
+                box[3] = face.getHeight();
+                mPlan.sampleFace(pixels, width, height, box[0], box[1], box[2], box[3], mInput.getBuffer(), mCount);
+                mTimesMs[mCount] = timeMs;
+                mFaceIndices[mCount] = i;
+                mCount++;
+            }
+        }
+
+        /** Classifies the collected faces and appends them to {@code log}. */
+        void flush(ModelManager.LoadedModel model, EmotionLog log)
+                throws IOException, InterruptedException, ExecutionException {
+            if (mCount == 0) {
+                return;
+            }
+            // Straight from the buffer the faces were sampled into; only the collected ones.
+            mInput.getBuffer().rewind();
+            model.getPool().classify(mInput, mCount, mRecognition, MainActivity.INPUT_POOL);
+            for (int i = 0; i < mCount; i++) {
+                float[] box = mBoxes[i];
+                int emotion = mRecognition.getBestClass(i);
+                log.append(mTimesMs[i], mFaceIndices[i], box[0], box[1], box[2], box[3],
+                        mPlan.getDescriptor().getLabel(emotion), mRecognition.getTopProbability(i, 0));
+            }
+            mCount = 0;
+        }
+
+        void release() {
+            if (mInput != null) {
+                MainActivity.releaseInput(mInput);
+                mInput = null;
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.example.emotiondetection.utils;
 import android.os.Environment;
 import android.util.Log;
 
+import com.example.emotiondetection.vision.EmotionLog;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -170,6 +172,11 @@ public class FileUtil {
         } else {
             File[] files = rootFile.listFiles();
             for (File file : files) {
+                // Emotion logs of analysed videos live in the same folder.
+                String name = file.getName();
+                if (name.endsWith(EmotionLog.LOG_SUFFIX) || name.contains(EmotionLog.PROGRESS_SUFFIX)) {
+                    continue;
+                }
                 list.add(file);
             }
 
@@ -0,0 +1,23 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    jmh(project(":vision"))
+    jmh(testFixtures(project(":vision")))
+}
+
+// ./gradlew :benchmarks:jmh                      -> every benchmark
+// ./gradlew :benchmarks:jmh -Pjmh.includes=Yuv   -> only matching ones
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+    resultFormat.set("CSV")
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
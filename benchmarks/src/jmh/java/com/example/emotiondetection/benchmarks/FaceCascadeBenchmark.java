@@ -0,0 +1,92 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.HaarCascade;
+import com.example.emotiondetection.vision.HaarCascadeDetector;
+import com.example.emotiondetection.vision.IntegralImage;
+import com.example.emotiondetection.vision.LumaImage;
+import com.example.emotiondetection.vision.RegionOfInterestSearch;
+import com.example.emotiondetection.vision.SyntheticFaces;
+import com.example.emotiondetection.vision.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pure-Java Haar cascade detector on the luminance plane: building the integral image, and a
+ * full multi-scale detection on one or more threads, and a detection limited to the region
+ * around the face found before. The frame is noise with one schematic face drawn in, and is
+ * shrunk by 2 for detection like live analysis does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FaceCascadeBenchmark {
+    private static final int SHIFT = 1;
+
+    @Param({"480x640", "1280x720"})
+    public String resolution;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private LumaImage mImage;
+    private final IntegralImage mIntegral = new IntegralImage();
+    private HaarCascadeDetector mDetector;
+    private final float[] mBoxes = new float[4 * 4];
+    private RegionOfInterestSearch mRegionSearch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        YuvFrame frame = SyntheticFrames.create(size[0], size[1], 24);
+        mImage = new LumaImage().sample(frame, 0, SHIFT);
+        int face = Math.min(mImage.getWidth(), mImage.getHeight()) / 3;
+        SyntheticFaces.drawFace(mImage, mImage.getWidth() / 3, mImage.getHeight() / 3, face);
+        mDetector = new HaarCascadeDetector(HaarCascade.synthetic(), 0.1f, threads);
+        // Never due for a full scan again, as long as the region search finds the face.
+        mRegionSearch = new RegionOfInterestSearch(4, 0.5f, Integer.MAX_VALUE);
+        mRegionSearch.onFullScan(mBoxes, mDetector.detect(mImage, mBoxes, 4), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mDetector.close();
+    }
+
+    @Benchmark
+    public IntegralImage integralImage() {
+        return mIntegral.compute(mImage);
+    }
+
+    @Benchmark
+    public int detect() {
+        return mDetector.detect(mImage, mBoxes, 4);
+    }
+
+    /** A region search, followed by a full one when it misses, as in live analysis. */
+    @Benchmark
+    public int detectInRegion() throws Exception {
+        int count = mRegionSearch.search(mDetector, mImage, mBoxes, 4);
+        if (count < 0) {
+            count = mDetector.detect(mImage, mBoxes, 4);
+            mRegionSearch.onFullScan(mBoxes, count, 0);
+        }
+        return count;
+    }
+}
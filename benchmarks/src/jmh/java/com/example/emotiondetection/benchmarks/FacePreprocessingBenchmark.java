@@ -0,0 +1,144 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.FaceCropSampler;
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.LumaSampler;
+import com.example.emotiondetection.vision.ModelInputSpec;
+import com.example.emotiondetection.vision.PixelNormalizer;
+import com.example.emotiondetection.vision.StripedExecutor;
+import com.example.emotiondetection.vision.YuvConverter;
+import com.example.emotiondetection.vision.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-face preprocessing, from camera frame to model input, for every strategy in the app:
+ * the fused colour crop (single and striped), the grayscale luminance crop, and the bitmap
+ * path's normalisation (lookup tables against the original per-pixel double arithmetic).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FacePreprocessingBenchmark {
+    private static final int SIZE = 224;
+    private static final int GRAY_SIZE = 48;
+
+    @Param({"480x640", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private YuvFrame mFrame;
+    private float mLeft;
+    private float mTop;
+    private float mFaceSize;
+    private FloatBuffer mInput;
+    private FloatBuffer mGrayInput;
+    private float[] mGrayTable;
+    private int[] mFacePixels;
+    private StripedExecutor mExecutor;
+    private FloatBufferPool mPool;
+    private ModelInputSpec mSpec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        mFrame = SyntheticFrames.create(size[0], size[1], 2);
+        // A face covering about a third of the upright (rotated 90) frame width.
+        int uprightWidth = YuvConverter.rotatedWidth(mFrame, 90);
+        int uprightHeight = YuvConverter.rotatedHeight(mFrame, 90);
+        mFaceSize = uprightWidth / 3f;
+        mLeft = (uprightWidth - mFaceSize) / 2f;
+        mTop = (uprightHeight - mFaceSize) / 2f;
+
+        mInput = FloatBuffer.allocate(3 * SIZE * SIZE);
+        mGrayInput = FloatBuffer.allocate(GRAY_SIZE * GRAY_SIZE);
+        mGrayTable = PixelNormalizer.table(0.5, 0.5);
+        mFacePixels = new int[SIZE * SIZE];
+        Random random = new Random(3);
+        for (int i = 0; i < mFacePixels.length; i++) {
+            mFacePixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        mExecutor = StripedExecutor.forAvailableProcessors();
+        mPool = new FloatBufferPool(2);
+        mSpec = ModelInputSpec.imagenetBgr(SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public FloatBuffer fusedColourCrop() {
+        FaceCropSampler.sample(mFrame, 90, mLeft, mTop, mFaceSize, mFaceSize,
+                SIZE, SIZE, PixelNormalizer.IMAGENET, true, mInput, 0);
+        return mInput;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedColourCropStriped() {
+        FaceCropSampler.sample(mFrame, 90, mLeft, mTop, mFaceSize, mFaceSize,
+                SIZE, SIZE, PixelNormalizer.IMAGENET, true, mInput, 0, mExecutor);
+        return mInput;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedColourCropPooled() {
+        FloatBufferPool.Lease lease = mPool.acquire(mSpec.getShape(1));
+        try {
+            FaceCropSampler.sample(mFrame, 90, mLeft, mTop, mFaceSize, mFaceSize,
+                    SIZE, SIZE, PixelNormalizer.IMAGENET, true, lease.getBuffer(), 0);
+            return lease.getBuffer();
+        } finally {
+            mPool.release(lease);
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer grayscaleCrop() {
+        LumaSampler.sample(mFrame, 90, mLeft, mTop, mFaceSize, mFaceSize,
+                GRAY_SIZE, GRAY_SIZE, mGrayTable, mGrayInput, 0);
+        return mGrayInput;
+    }
+
+    @Benchmark
+    public FloatBuffer bitmapNormalizeLookup() {
+        PixelNormalizer.IMAGENET.argbToBgrChw(mFacePixels, SIZE, SIZE, mInput, 0);
+        return mInput;
+    }
+
+    /** The normalisation loop the bitmap path ran before the lookup tables, for reference. */
+    @Benchmark
+    public FloatBuffer bitmapNormalizeLegacy() {
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int colour = mFacePixels[y * SIZE + x];
+                int red = (colour >> 16) & 0xFF;
+                int green = (colour >> 8) & 0xFF;
+                int blue = colour & 0xFF;
+                mInput.put(x + SIZE * y, (float) ((blue / 255.0 - 0.406) / 0.225));
+                mInput.put(SIZE * SIZE + x + SIZE * y, (float) ((green / 255.0 - 0.456) / 0.224));
+                mInput.put(2 * SIZE * SIZE + x + SIZE * y, (float) ((red / 255.0 - 0.485) / 0.229));
+            }
+        }
+        return mInput;
+    }
+}
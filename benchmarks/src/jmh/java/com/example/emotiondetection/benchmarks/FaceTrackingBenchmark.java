@@ -0,0 +1,81 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.FaceTracker;
+import com.example.emotiondetection.vision.LumaImage;
+import com.example.emotiondetection.vision.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a tracked frame, which replaces a full face detection between detections: building
+ * the downscaled luminance image, and moving one face box by template matching. The face
+ * alternates between two positions a few pixels apart, so every search has to move it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FaceTrackingBenchmark {
+    /** Camera frame pixels are shrunk by 2^SHIFT in each direction for tracking. */
+    private static final int SHIFT = 2;
+    private static final int MOVE = 8;
+
+    @Param({"480x640", "1280x720"})
+    public String resolution;
+
+    private YuvFrame mFrame;
+    private final LumaImage mSampled = new LumaImage();
+    private LumaImage[] mImages;
+    private FaceTracker mTracker;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        mFrame = SyntheticFrames.create(size[0], size[1], 21);
+
+        // A copy of the frame moved right by MOVE pixels, for the second position.
+        YuvFrame moved = SyntheticFrames.create(size[0], size[1], 21);
+        ByteBuffer source = mFrame.getYPlane();
+        ByteBuffer target = moved.getYPlane();
+        for (int row = 0; row < size[1]; row++) {
+            for (int col = MOVE; col < size[0]; col++) {
+                target.put(row * moved.getYRowStride() + col, source.get(row * mFrame.getYRowStride() + col - MOVE));
+            }
+        }
+        mImages = new LumaImage[]{
+                new LumaImage().sample(mFrame, 0, SHIFT),
+                new LumaImage().sample(moved, 0, SHIFT)};
+
+        float face = Math.min(size[0], size[1]) / 3f;
+        mTracker = new FaceTracker(1, 1, Integer.MAX_VALUE, 0f, 1f);
+        mTracker.onDetected(mImages[0], new float[]{size[0] / 3f, size[1] / 3f, face, face}, 1);
+    }
+
+    @Benchmark
+    public LumaImage sampleLuma() {
+        return mSampled.sample(mFrame, 90, SHIFT);
+    }
+
+    @Benchmark
+    public int trackOneFace() {
+        mNext ^= 1;
+        return mTracker.track(mImages[mNext]);
+    }
+}
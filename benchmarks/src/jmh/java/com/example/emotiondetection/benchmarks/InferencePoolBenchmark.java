@@ -0,0 +1,78 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.InferenceBackend;
+import com.example.emotiondetection.vision.InferencePool;
+import com.example.emotiondetection.vision.ModelDescriptor;
+import com.example.emotiondetection.vision.Recognition;
+import com.example.emotiondetection.vision.ReferenceCnnBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A six-face batch classified by a pool of 1, 2 or 4 reference CNN instances, to show how
+ * splitting the faces over instances scales with cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InferencePoolBenchmark {
+    private static final int SIZE = 112;
+    private static final int FACES = 6;
+
+    @Param({"1", "2", "4"})
+    public int instances;
+
+    private InferencePool mPool;
+    private FloatBufferPool mBuffers;
+    private FloatBufferPool.Lease mInput;
+    private Recognition mRecognition;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        final ModelDescriptor descriptor = ModelDescriptor.defaultEmotionModel(SIZE);
+        mPool = new InferencePool("Bench", instances, new InferencePool.Factory() {
+            @Override
+            public InferenceBackend create(int worker) {
+                return ReferenceCnnBackend.random(descriptor.getInputSpec(), descriptor.getNumClasses(), 1);
+            }
+        });
+        mPool.awaitStarted(30, TimeUnit.SECONDS);
+        mBuffers = new FloatBufferPool(2 * instances);
+        mInput = mBuffers.acquire(descriptor.getInputSpec().getShape(FACES));
+        Random random = new Random(2);
+        for (int i = 0; i < mInput.getBuffer().capacity(); i++) {
+            mInput.getBuffer().put(i, (float) random.nextGaussian());
+        }
+        mRecognition = new Recognition(FACES, descriptor.getNumClasses(), 3);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPool.shutdown();
+        mBuffers.release(mInput);
+    }
+
+    @Benchmark
+    public Recognition classify() throws Exception {
+        return mPool.classify(mInput, mRecognition, mBuffers);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.LatencyHistogram;
+import com.example.emotiondetection.vision.MetricsRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of timing one pipeline stage: a {@code nanoTime} span recorded into a shared
+ * histogram, from one thread and from four threads hitting the same histogram. The budget
+ * is well under a microsecond per stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram mHistogram = new MetricsRegistry().histogram("Stage");
+
+    @Benchmark
+    public long recordSpan() {
+        long start = System.nanoTime();
+        return mHistogram.recordSince(start);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordSpanContended() {
+        long start = System.nanoTime();
+        return mHistogram.recordSince(start);
+    }
+
+    @Benchmark
+    public LatencyHistogram.Snapshot snapshot() {
+        return mHistogram.snapshot();
+    }
+}
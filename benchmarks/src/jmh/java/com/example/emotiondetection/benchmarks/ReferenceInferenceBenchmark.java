@@ -0,0 +1,92 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.FloatBufferPool;
+import com.example.emotiondetection.vision.ModelDescriptor;
+import com.example.emotiondetection.vision.PreprocessingPlan;
+import com.example.emotiondetection.vision.Recognition;
+import com.example.emotiondetection.vision.ReferenceCnnBackend;
+import com.example.emotiondetection.vision.YuvConverter;
+import com.example.emotiondetection.vision.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pure-Java reference backend on its own and behind the full frame-to-recognition path
+ * (crop sampling, batched forward pass, softmax and top-k), so pipeline changes can be
+ * measured on any machine without a device or the native runtime.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReferenceInferenceBenchmark {
+
+    @Param({"48", "224"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int faces;
+
+    private ReferenceCnnBackend mBackend;
+    private PreprocessingPlan mPlan;
+    private FloatBufferPool.Lease mInput;
+    private Recognition mRecognition;
+    private YuvFrame mFrame;
+    private float mFaceSize;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ModelDescriptor descriptor = ModelDescriptor.defaultEmotionModel(size);
+        mBackend = ReferenceCnnBackend.random(descriptor.getInputSpec(), descriptor.getNumClasses(), 1);
+        mPlan = new PreprocessingPlan(descriptor, new FloatBufferPool(2), faces);
+        mRecognition = mPlan.getRecognition();
+        mInput = mPlan.acquire(faces);
+        Random random = new Random(2);
+        for (int i = 0; i < mInput.getBuffer().capacity(); i++) {
+            mInput.getBuffer().put(i, (float) random.nextGaussian());
+        }
+        mFrame = SyntheticFrames.create(640, 480, 2);
+        mFaceSize = YuvConverter.rotatedWidth(mFrame, 90) / 3f;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPlan.release(mInput);
+    }
+
+    @Benchmark
+    public float[] forward() {
+        return mBackend.forward(mInput);
+    }
+
+    @Benchmark
+    public Recognition frameToRecognition() {
+        FloatBufferPool.Lease input = mPlan.acquire(faces);
+        try {
+            for (int face = 0; face < faces; face++) {
+                mPlan.sampleFace(mFrame, 90, face * 10, face * 20, mFaceSize, mFaceSize, input.getBuffer(), face);
+            }
+            mRecognition.setLogits(mBackend.forward(input), 0, faces);
+            return mRecognition;
+        } finally {
+            mPlan.release(input);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.YuvFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic YUV_420_888 frames shaped like what CameraX hands the analyzer: direct buffers,
+ * rows padded to a 64-byte stride and semi-planar (NV21-style) chroma with pixel stride 2.
+ */
+final class SyntheticFrames {
+
+    private SyntheticFrames() {
+    }
+
+    /** Parses resolutions written as {@code WIDTHxHEIGHT}. */
+    static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    static YuvFrame create(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int yRowStride = align(width, 64);
+        int uvRowStride = yRowStride;
+        int chromaRows = (height + 1) / 2;
+
+        ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * height);
+        for (int i = 0; i < y.capacity(); i++) {
+            y.put(i, (byte) random.nextInt(256));
+        }
+        // One interleaved V/U buffer; U starts one byte in, like NV21 exposed as YUV_420_888.
+        ByteBuffer vu = ByteBuffer.allocateDirect(uvRowStride * chromaRows);
+        for (int i = 0; i < vu.capacity(); i++) {
+            vu.put(i, (byte) (96 + random.nextInt(64)));
+        }
+        ByteBuffer v = vu.duplicate();
+        vu.position(1);
+        ByteBuffer u = vu.slice();
+        return new YuvFrame().wrap(width, height, y, yRowStride, 1, u, v, uvRowStride, 2);
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
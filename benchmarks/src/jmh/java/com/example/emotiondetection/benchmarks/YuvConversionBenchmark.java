@@ -0,0 +1,76 @@
+package com.example.emotiondetection.benchmarks;
+
+import com.example.emotiondetection.vision.StripedExecutor;
+import com.example.emotiondetection.vision.YuvConverter;
+import com.example.emotiondetection.vision.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-frame YUV to RGB conversion, i.e. what the analyzer does before face detection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvConversionBenchmark {
+
+    @Param({"480x640", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"90"})
+    public int rotation;
+
+    private YuvFrame mFrame;
+    private int[] mArgb;
+    private float[] mRgbPlanes;
+    private StripedExecutor mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        mFrame = SyntheticFrames.create(size[0], size[1], 1);
+        mArgb = new int[size[0] * size[1]];
+        mRgbPlanes = new float[3 * size[0] * size[1]];
+        mExecutor = StripedExecutor.forAvailableProcessors();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        YuvConverter.toArgb(mFrame, rotation, mArgb);
+        return mArgb;
+    }
+
+    @Benchmark
+    public int[] toArgbStriped() {
+        YuvConverter.toArgb(mFrame, rotation, mArgb, mExecutor);
+        return mArgb;
+    }
+
+    @Benchmark
+    public float[] toRgbPlanes() {
+        YuvConverter.toRgbPlanes(mFrame, rotation, mRgbPlanes);
+        return mRgbPlanes;
+    }
+}
@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Emotion Detection"
 include(":app")
+include(":vision")
+include(":benchmarks")
@@ -0,0 +1,93 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * Chooses how often camera frames are analysed from how long analysis actually takes.
+ * <p>
+ * Each completed frame reports its cost: the time it kept the analysis thread busy, which for
+ * a synchronous analyzer is its end-to-end latency. An exponentially weighted average of that
+ * cost, divided by the target utilization, gives the interval between analysed frames. With a
+ * target of 0.8 and frames costing 100 ms, a frame is taken every 125 ms, leaving the thread
+ * idle a fifth of the time. The interval is kept within {@code [minIntervalMs, maxIntervalMs]}.
+ * Times are passed in by the caller.
+ */
+public final class AnalysisRateController {
+    /** Weight of the newest sample in the moving averages. */
+    public static final double DEFAULT_SMOOTHING = 0.2;
+
+    private final double mTargetUtilization;
+    private final long mMinIntervalMs;
+    private final long mMaxIntervalMs;
+    private final double mSmoothing;
+
+    private double mAvgCostMs = -1;
+    private double mAvgResultIntervalMs = -1;
+    private long mLastResultMs = -1;
+    private long mLastAcceptedMs = Long.MIN_VALUE / 2;
+    private long mIntervalMs;
+
+    /**
+     * @param targetUtilization share of time the analysis thread should be busy, in (0, 1]
+     * @param minIntervalMs     frames are never analysed more often than this
+     * @param maxIntervalMs     frames are always analysed at least this often
+     */
+    public AnalysisRateController(double targetUtilization, long minIntervalMs, long maxIntervalMs) {
+        this(targetUtilization, minIntervalMs, maxIntervalMs, DEFAULT_SMOOTHING);
+    }
+
+    public AnalysisRateController(double targetUtilization, long minIntervalMs, long maxIntervalMs,
+                                  double smoothing) {
+        if (targetUtilization <= 0 || targetUtilization > 1) {
+            throw new IllegalArgumentException("Target utilization must be in (0, 1]: " + targetUtilization);
+        }
+        if (minIntervalMs < 0 || maxIntervalMs < minIntervalMs) {
+            throw new IllegalArgumentException("Bad interval bounds " + minIntervalMs + ".." + maxIntervalMs);
+        }
+        mTargetUtilization = targetUtilization;
+        mMinIntervalMs = minIntervalMs;
+        mMaxIntervalMs = maxIntervalMs;
+        mSmoothing = smoothing;
+        mIntervalMs = minIntervalMs;
+    }
+
+    /** True when a frame arriving at {@code nowMs} should be analysed; counts it as taken. */
+    public synchronized boolean shouldAnalyze(long nowMs) {
+        if (nowMs - mLastAcceptedMs < mIntervalMs) {
+            return false;
+        }
+        mLastAcceptedMs = nowMs;
+        return true;
+    }
+
+    /** Reports a completed frame that kept the analysis thread busy for {@code costMs}. */
+    public synchronized void onResult(long costMs, long nowMs) {
+        mAvgCostMs = mAvgCostMs < 0 ? costMs : mAvgCostMs + mSmoothing * (costMs - mAvgCostMs);
+        if (mLastResultMs >= 0) {
+            long sinceLast = nowMs - mLastResultMs;
+            mAvgResultIntervalMs = mAvgResultIntervalMs < 0
+                    ? sinceLast : mAvgResultIntervalMs + mSmoothing * (sinceLast - mAvgResultIntervalMs);
+        }
+        mLastResultMs = nowMs;
+
+        long interval = Math.round(mAvgCostMs / mTargetUtilization);
+        mIntervalMs = Math.max(mMinIntervalMs, Math.min(mMaxIntervalMs, interval));
+    }
+
+    /** Current minimum time between two analysed frames. */
+    public synchronized long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /** Smoothed cost per frame, or 0 before the first result. */
+    public synchronized long getAverageCostMs() {
+        return mAvgCostMs < 0 ? 0 : Math.round(mAvgCostMs);
+    }
+
+    /** Smoothed rate of results actually delivered, or 0 before the second result. */
+    public synchronized double getFps() {
+        return mAvgResultIntervalMs <= 0 ? 0 : 1000.0 / mAvgResultIntervalMs;
+    }
+
+    public double getTargetUtilization() {
+        return mTargetUtilization;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Crop + resize + normalize of a face from an upright ARGB image, such as a decoded video
+ * frame, straight into a planar model input.
+ * <p>
+ * The counterpart of {@link FaceCropSampler} and {@link LumaSampler} for pixels that are
+ * already RGB: each output pixel is bilinearly interpolated from the four nearest source
+ * pixels, and samples outside the image repeat its border.
+ */
+public final class ArgbCropSampler {
+    private ArgbCropSampler() {
+    }
+
+    /**
+     * Samples the rectangle ({@code left}, {@code top}, {@code width}, {@code height}) of a
+     * {@code imageWidth x imageHeight} image into a {@code 3 x outHeight x outWidth} input at
+     * {@code offset}.
+     *
+     * @param bgr whether channel 0 is blue (otherwise red)
+     */
+    public static void sample(int[] pixels, int imageWidth, int imageHeight,
+                              float left, float top, float width, float height,
+                              int outWidth, int outHeight, PixelNormalizer normalizer, boolean bgr,
+                              FloatBuffer out, int offset) {
+        final int planeSize = outWidth * outHeight;
+        if (out.limit() < offset + 3 * planeSize) {
+            throw new IllegalArgumentException("Output buffer too small for " + outWidth + "x" + outHeight + " crop");
+        }
+        final int blueOffset = offset + (bgr ? 0 : 2 * planeSize);
+        final int greenOffset = offset + planeSize;
+        final int redOffset = offset + (bgr ? 2 * planeSize : 0);
+        final float stepX = width / outWidth;
+        final float stepY = height / outHeight;
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            final float sy = top + (oy + 0.5f) * stepY - 0.5f;
+            for (int ox = 0; ox < outWidth; ox++) {
+                final float sx = left + (ox + 0.5f) * stepX - 0.5f;
+                final int argb = bilinear(pixels, imageWidth, imageHeight, sx, sy);
+                final int pixel = oy * outWidth + ox;
+                out.put(blueOffset + pixel, normalizer.blue(argb & 0xFF));
+                out.put(greenOffset + pixel, normalizer.green((argb >> 8) & 0xFF));
+                out.put(redOffset + pixel, normalizer.red((argb >> 16) & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Grayscale variant: samples BT.601 luminance into a {@code 1 x outHeight x outWidth}
+     * input, normalised through {@code table} (see {@link PixelNormalizer#table}).
+     */
+    public static void sampleLuma(int[] pixels, int imageWidth, int imageHeight,
+                                  float left, float top, float width, float height,
+                                  int outWidth, int outHeight, float[] table,
+                                  FloatBuffer out, int offset) {
+        if (out.limit() < offset + outWidth * outHeight) {
+            throw new IllegalArgumentException("Output buffer too small for " + outWidth + "x" + outHeight + " crop");
+        }
+        final float stepX = width / outWidth;
+        final float stepY = height / outHeight;
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            final float sy = top + (oy + 0.5f) * stepY - 0.5f;
+            for (int ox = 0; ox < outWidth; ox++) {
+                final float sx = left + (ox + 0.5f) * stepX - 0.5f;
+                final int argb = bilinear(pixels, imageWidth, imageHeight, sx, sy);
+                final int luma = (77 * ((argb >> 16) & 0xFF) + 150 * ((argb >> 8) & 0xFF) + 29 * (argb & 0xFF)) >> 8;
+                out.put(offset + oy * outWidth + ox, table[luma]);
+            }
+        }
+    }
+
+    /** Bilinear sample of every channel, clamping coordinates to the image. */
+    static int bilinear(int[] pixels, int width, int height, float x, float y) {
+        x = Math.max(0f, Math.min(x, width - 1));
+        y = Math.max(0f, Math.min(y, height - 1));
+        final int x0 = (int) x;
+        final int y0 = (int) y;
+        final int x1 = Math.min(x0 + 1, width - 1);
+        final int y1 = Math.min(y0 + 1, height - 1);
+        final float fx = x - x0;
+        final float fy = y - y0;
+
+        final int p00 = pixels[y0 * width + x0];
+        final int p01 = pixels[y0 * width + x1];
+        final int p10 = pixels[y1 * width + x0];
+        final int p11 = pixels[y1 * width + x1];
+
+        int result = 0xFF000000;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            final int c00 = (p00 >> shift) & 0xFF;
+            final int c01 = (p01 >> shift) & 0xFF;
+            final int c10 = (p10 >> shift) & 0xFF;
+            final int c11 = (p11 >> shift) & 0xFF;
+            final float top = c00 + (c01 - c00) * fx;
+            final float bottom = c10 + (c11 - c10) * fx;
+            result |= ((int) (top + (bottom - top) * fy + 0.5f)) << shift;
+        }
+        return result;
+    }
+}
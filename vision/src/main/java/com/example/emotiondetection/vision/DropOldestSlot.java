@@ -0,0 +1,67 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * A queue of capacity one between two pipeline stages. Offering never blocks: a newer item
+ * replaces one the consumer hasn't taken yet, and the replaced item is handed back to the
+ * producer so it can be recycled. A slow consumer therefore always sees the freshest frame.
+ */
+public final class DropOldestSlot<T> {
+    private T mItem;
+    private boolean mClosed;
+    private long mOffered;
+    private long mDropped;
+
+    /** Stores {@code item} and returns the item it displaced, or null. */
+    public synchronized T offer(T item) {
+        if (item == null) {
+            throw new NullPointerException("item");
+        }
+        if (mClosed) {
+            return item;
+        }
+        T displaced = mItem;
+        mItem = item;
+        mOffered++;
+        if (displaced != null) {
+            mDropped++;
+        }
+        notifyAll();
+        return displaced;
+    }
+
+    /** Waits for an item; returns null once the slot is closed. */
+    public synchronized T take() throws InterruptedException {
+        while (mItem == null) {
+            if (mClosed) {
+                return null;
+            }
+            wait();
+        }
+        T item = mItem;
+        mItem = null;
+        return item;
+    }
+
+    /** Wakes the consumer and refuses further items; returns the item left behind, if any. */
+    public synchronized T close() {
+        mClosed = true;
+        T item = mItem;
+        mItem = null;
+        notifyAll();
+        return item;
+    }
+
+    /** Items waiting, 0 or 1. */
+    public synchronized int getDepth() {
+        return mItem == null ? 0 : 1;
+    }
+
+    public synchronized long getOffered() {
+        return mOffered;
+    }
+
+    /** Items replaced before the consumer took them. */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.emotiondetection.vision;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Per-frame emotion log written next to an analysed video, resumable after the process dies.
+ * <p>
+ * Rows go to {@code <video>.emotions.csv}. Every {@link #commit} flushes them to disk and then
+ * records, in {@code <video>.emotions.progress}, how long the log is and which timestamp comes
+ * next; the progress file is replaced atomically. Reopening a log truncates whatever was
+ * written after the last commit, possibly half a row, and resumes from the recorded
+ * timestamp, so no frame is logged twice or lost.
+ */
+public final class EmotionLog implements AutoCloseable {
+    public static final String LOG_SUFFIX = ".emotions.csv";
+    public static final String PROGRESS_SUFFIX = ".emotions.progress";
+    public static final String HEADER = "time_ms,face,left,top,width,height,emotion,confidence";
+
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_NEXT_TIME = "nextTimeMs";
+    private static final String KEY_DONE = "done";
+
+    private final File mLogFile;
+    private final File mProgressFile;
+    private final FileOutputStream mStream;
+    private final Writer mWriter;
+    private final StringBuilder mRow = new StringBuilder(96);
+    private long mNextTimeMs;
+    private boolean mDone;
+
+    private EmotionLog(File logFile, File progressFile, long length, long nextTimeMs, boolean done) throws IOException {
+        mLogFile = logFile;
+        mProgressFile = progressFile;
+        mNextTimeMs = nextTimeMs;
+        mDone = done;
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.setLength(length);
+        }
+        mStream = new FileOutputStream(logFile, true);
+        mWriter = new OutputStreamWriter(mStream, StandardCharsets.UTF_8);
+        if (length == 0) {
+            mWriter.append(HEADER).append('\n');
+        }
+    }
+
+    public static File logFileFor(File video) {
+        return new File(video.getParentFile(), video.getName() + LOG_SUFFIX);
+    }
+
+    public static File progressFileFor(File video) {
+        return new File(video.getParentFile(), video.getName() + PROGRESS_SUFFIX);
+    }
+
+    /** True when the log of {@code video} is complete. */
+    public static boolean isDone(File video) {
+        Properties progress = readProgress(progressFileFor(video));
+        return progress != null && Boolean.parseBoolean(progress.getProperty(KEY_DONE));
+    }
+
+    /** True when analysis of {@code video} was started and not finished. */
+    public static boolean isPending(File video) {
+        Properties progress = readProgress(progressFileFor(video));
+        return progress != null && !Boolean.parseBoolean(progress.getProperty(KEY_DONE));
+    }
+
+    /** Opens the log of {@code video}, resuming after its last commit or starting afresh. */
+    public static EmotionLog open(File video) throws IOException {
+        File logFile = logFileFor(video);
+        File progressFile = progressFileFor(video);
+        Properties progress = readProgress(progressFile);
+        long length = 0;
+        long nextTimeMs = 0;
+        boolean done = false;
+        if (progress != null && logFile.exists()) {
+            try {
+                length = Math.min(Long.parseLong(progress.getProperty(KEY_LENGTH, "0")), logFile.length());
+                nextTimeMs = Long.parseLong(progress.getProperty(KEY_NEXT_TIME, "0"));
+                done = Boolean.parseBoolean(progress.getProperty(KEY_DONE));
+            } catch (NumberFormatException e) {
+                length = 0;
+                nextTimeMs = 0;
+            }
+        }
+        if (length == 0) {
+            nextTimeMs = 0;
+            done = false;
+        }
+        EmotionLog log = new EmotionLog(logFile, progressFile, length, nextTimeMs, done);
+        if (length == 0) {
+            log.commit(0);
+        }
+        return log;
+    }
+
+    /** Timestamp to analyse next. */
+    public long getNextTimeMs() {
+        return mNextTimeMs;
+    }
+
+    public boolean isDone() {
+        return mDone;
+    }
+
+    public File getLogFile() {
+        return mLogFile;
+    }
+
+    /** Buffers one row: a face of the frame at {@code timeMs}, with its box in frame pixels. */
+    public void append(long timeMs, int face, float left, float top, float width, float height,
+                       String emotion, float confidence) throws IOException {
+        mRow.setLength(0);
+        mRow.append(timeMs).append(',').append(face).append(',')
+                .append(Math.round(left)).append(',').append(Math.round(top)).append(',')
+                .append(Math.round(width)).append(',').append(Math.round(height)).append(',')
+                .append(emotion).append(',');
+        // Three decimals without String.format.
+        long thousandths = Math.round(confidence * 1000);
+        mRow.append(thousandths / 1000).append('.');
+        long fraction = thousandths % 1000;
+        mRow.append(fraction < 100 ? (fraction < 10 ? "00" : "0") : "").append(fraction).append('\n');
+        mWriter.append(mRow);
+    }
+
+    /** Makes every row appended so far durable; analysis resumes at {@code nextTimeMs}. */
+    public void commit(long nextTimeMs) throws IOException {
+        mWriter.flush();
+        mStream.getFD().sync();
+        mNextTimeMs = nextTimeMs;
+        writeProgress();
+    }
+
+    /** Commits and marks the video as fully analysed. */
+    public void finish(long endTimeMs) throws IOException {
+        mDone = true;
+        commit(endTimeMs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void writeProgress() throws IOException {
+        Properties progress = new Properties();
+        progress.setProperty(KEY_LENGTH, Long.toString(mStream.getChannel().size()));
+        progress.setProperty(KEY_NEXT_TIME, Long.toString(mNextTimeMs));
+        progress.setProperty(KEY_DONE, Boolean.toString(mDone));
+        File temp = new File(mProgressFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            progress.store(out, null);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(mProgressFile)) {
+            throw new IOException("Cannot replace " + mProgressFile);
+        }
+    }
+
+    private static Properties readProgress(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties progress = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            progress.load(in);
+            return progress;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
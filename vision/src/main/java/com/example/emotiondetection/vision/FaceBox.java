@@ -0,0 +1,59 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * Axis-aligned face bounding box in upright frame coordinates.
+ */
+public final class FaceBox {
+    private final float mLeft;
+    private final float mTop;
+    private final float mWidth;
+    private final float mHeight;
+
+    public FaceBox(float left, float top, float width, float height) {
+        mLeft = left;
+        mTop = top;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getWidth() {
+        return mWidth;
+    }
+
+    public float getHeight() {
+        return mHeight;
+    }
+
+    public float getRight() {
+        return mLeft + mWidth;
+    }
+
+    public float getBottom() {
+        return mTop + mHeight;
+    }
+
+    public float getCenterX() {
+        return mLeft + mWidth / 2f;
+    }
+
+    public float getCenterY() {
+        return mTop + mHeight / 2f;
+    }
+
+    public float area() {
+        return mWidth * mHeight;
+    }
+
+    @Override
+    public String toString() {
+        return "FaceBox{" + mLeft + ", " + mTop + ", " + mWidth + "x" + mHeight + "}";
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Fused crop + rotate + resize + normalize stage.
+ * <p>
+ * Samples a face rectangle straight out of a {@link YuvFrame} into a {@code 3 x H x W}
+ * CHW float tensor, without creating any intermediate bitmap. The rectangle is given in the
+ * coordinates of the upright frame (the frame rotated clockwise by {@code rotationDegrees},
+ * which is what the face detector sees); each output pixel is mapped back to the camera
+ * frame and bilinearly interpolated on the Y, U and V planes before conversion to RGB.
+ * <p>
+ * Channels are written in B, G, R or R, G, B order as the model expects, normalised through
+ * {@link PixelNormalizer} tables. Samples falling outside the frame repeat the border pixels,
+ * so faces partially out of view are still handled.
+ */
+public final class FaceCropSampler {
+    private FaceCropSampler() {
+    }
+
+    /**
+     * Samples the rectangle ({@code left}, {@code top}, {@code width}, {@code height}), given
+     * in upright frame coordinates, into {@code out} starting at {@code offset}.
+     *
+     * @param frame           camera frame, unrotated
+     * @param rotationDegrees clockwise rotation turning the camera frame upright
+     * @param bgr             whether channel 0 is blue (otherwise red)
+     */
+    public static void sample(YuvFrame frame, int rotationDegrees,
+                              float left, float top, float width, float height,
+                              int outWidth, int outHeight, PixelNormalizer normalizer, boolean bgr,
+                              FloatBuffer out, int offset) {
+        sampleRows(frame, rotationDegrees, left, top, width, height, outWidth, outHeight,
+                normalizer, bgr, out, offset, 0, outHeight);
+    }
+
+    /**
+     * Same as {@link #sample}, with output rows split into stripes run on {@code executor}.
+     * The result is identical whatever the number of threads.
+     */
+    public static void sample(final YuvFrame frame, final int rotationDegrees,
+                              final float left, final float top, final float width, final float height,
+                              final int outWidth, final int outHeight,
+                              final PixelNormalizer normalizer, final boolean bgr,
+                              final FloatBuffer out, final int offset, StripedExecutor executor) {
+        executor.forEachStripe(outHeight, outWidth, new StripedExecutor.RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                sampleRows(frame, rotationDegrees, left, top, width, height, outWidth, outHeight,
+                        normalizer, bgr, out, offset, rowStart, rowEnd);
+            }
+        });
+    }
+
+    private static void sampleRows(YuvFrame frame, int rotationDegrees,
+                                   float left, float top, float width, float height,
+                                   int outWidth, int outHeight, PixelNormalizer normalizer, boolean bgr,
+                                   FloatBuffer out, int offset, int rowStart, int rowEnd) {
+        final int rotation = YuvConverter.normalizeRotation(rotationDegrees);
+        final int frameWidth = frame.getWidth();
+        final int frameHeight = frame.getHeight();
+        final int chromaWidth = (frameWidth + 1) >> 1;
+        final int chromaHeight = (frameHeight + 1) >> 1;
+        final int planeSize = outWidth * outHeight;
+        if (out.limit() < offset + 3 * planeSize) {
+            throw new IllegalArgumentException("Output buffer too small for " + outWidth + "x" + outHeight + " crop");
+        }
+        final int blueOffset = offset + (bgr ? 0 : 2 * planeSize);
+        final int greenOffset = offset + planeSize;
+        final int redOffset = offset + (bgr ? 2 * planeSize : 0);
+
+        final ByteBuffer yPlane = frame.getYPlane();
+        final ByteBuffer uPlane = frame.getUPlane();
+        final ByteBuffer vPlane = frame.getVPlane();
+        final int yRowStride = frame.getYRowStride();
+        final int yPixelStride = frame.getYPixelStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+
+        final float stepX = width / outWidth;
+        final float stepY = height / outHeight;
+
+        for (int oy = rowStart; oy < rowEnd; oy++) {
+            final float uprightY = top + (oy + 0.5f) * stepY - 0.5f;
+            for (int ox = 0; ox < outWidth; ox++) {
+                final float uprightX = left + (ox + 0.5f) * stepX - 0.5f;
+
+                final float sx = YuvConverter.frameX(rotation, frameWidth, uprightX, uprightY);
+                final float sy = YuvConverter.frameY(rotation, frameHeight, uprightX, uprightY);
+
+                final int y = bilinear(yPlane, yRowStride, yPixelStride, frameWidth, frameHeight, sx, sy);
+                // 4:2:0 chroma samples sit between each 2x2 luma block.
+                final float cx = (sx - 0.5f) * 0.5f;
+                final float cy = (sy - 0.5f) * 0.5f;
+                final int u = bilinear(uPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, cx, cy);
+                final int v = bilinear(vPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, cx, cy);
+
+                final int argb = YuvConverter.yuvToArgb(y, u, v);
+                final int pixel = oy * outWidth + ox;
+                out.put(blueOffset + pixel, normalizer.blue(argb & 0xFF));
+                out.put(greenOffset + pixel, normalizer.green((argb >> 8) & 0xFF));
+                out.put(redOffset + pixel, normalizer.red((argb >> 16) & 0xFF));
+            }
+        }
+    }
+
+    /** Bilinear sample of an 8-bit plane, clamping coordinates to its bounds. */
+    static int bilinear(ByteBuffer plane, int rowStride, int pixelStride,
+                        int planeWidth, int planeHeight, float x, float y) {
+        x = Math.max(0f, Math.min(x, planeWidth - 1));
+        y = Math.max(0f, Math.min(y, planeHeight - 1));
+        final int x0 = (int) x;
+        final int y0 = (int) y;
+        final int x1 = Math.min(x0 + 1, planeWidth - 1);
+        final int y1 = Math.min(y0 + 1, planeHeight - 1);
+        final float fx = x - x0;
+        final float fy = y - y0;
+
+        final int row0 = y0 * rowStride;
+        final int row1 = y1 * rowStride;
+        final int p00 = plane.get(row0 + x0 * pixelStride) & 0xFF;
+        final int p01 = plane.get(row0 + x1 * pixelStride) & 0xFF;
+        final int p10 = plane.get(row1 + x0 * pixelStride) & 0xFF;
+        final int p11 = plane.get(row1 + x1 * pixelStride) & 0xFF;
+
+        final float top = p00 + (p01 - p00) * fx;
+        final float bottom = p10 + (p11 - p10) * fx;
+        return (int) (top + (bottom - top) * fy + 0.5f);
+    }
+}
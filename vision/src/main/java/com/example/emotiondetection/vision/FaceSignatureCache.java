@@ -0,0 +1,196 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Remembers the class scores of recently classified faces, keyed by a 64-bit difference hash
+ * of the preprocessed crop, so a face that hasn't visibly changed can skip inference.
+ * <p>
+ * The hash is computed on the normalised model input: the crop is averaged over channels into
+ * a 9x8 grid and each bit records whether a cell is brighter than its right neighbour. Two
+ * crops match when their hashes differ in at most {@code maxDistance} bits. Entries expire
+ * {@code maxAgeMs} after the inference that produced them, so results still refresh when the
+ * subject stays still. Times are passed in by the caller.
+ * <p>
+ * Faces are looked up and stored a frame's batch at a time, starting with
+ * {@link #startBatch()}: within a batch each entry matches one face at most, so two similar
+ * faces in one frame never share the scores of one of them.
+ */
+public final class FaceSignatureCache {
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    /** Pixels sampled per cell in each direction; the crop is far larger than the grid. */
+    private static final int SAMPLE_STEP = 2;
+
+    private final int mNumClasses;
+    private final int mMaxDistance;
+    private final long mMaxAgeMs;
+    private final long[] mSignatures;
+    private final long[] mTimes;
+    private final int[] mBestClasses;
+    private final float[] mScores;
+    /** Entries already matched by a face of the current batch. */
+    private final boolean[] mMatched;
+    private int mSize;
+
+    private final float[] mCells = new float[GRID_WIDTH * GRID_HEIGHT];
+
+    private long mFrames;
+    private long mHits;
+    private long mSavedMs;
+
+    /**
+     * @param capacity    faces remembered, typically the maximum batch size
+     * @param maxDistance differing hash bits still treated as the same face
+     * @param maxAgeMs    how long a result may be reused
+     */
+    public FaceSignatureCache(int capacity, int numClasses, int maxDistance, long maxAgeMs) {
+        mNumClasses = numClasses;
+        mMaxDistance = maxDistance;
+        mMaxAgeMs = maxAgeMs;
+        mSignatures = new long[capacity];
+        mTimes = new long[capacity];
+        mBestClasses = new int[capacity];
+        mScores = new float[capacity * numClasses];
+        mMatched = new boolean[capacity];
+    }
+
+    /** Starts a new batch of lookups or puts; every entry can be matched again. */
+    public synchronized void startBatch() {
+        for (int i = 0; i < mSize; i++) {
+            mMatched[i] = false;
+        }
+    }
+
+    /** Signature of the face at {@code offset} in a planar model input of {@code spec}. */
+    public synchronized long signature(FloatBuffer input, int offset, ModelInputSpec spec) {
+        final int width = spec.getWidth();
+        final int height = spec.getHeight();
+        final int plane = width * height;
+        final int channels = spec.getChannels();
+
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            final int y0 = gy * height / GRID_HEIGHT;
+            final int y1 = (gy + 1) * height / GRID_HEIGHT;
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                final int x0 = gx * width / GRID_WIDTH;
+                final int x1 = (gx + 1) * width / GRID_WIDTH;
+                float sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1; y += SAMPLE_STEP) {
+                    final int row = offset + y * width;
+                    for (int x = x0; x < x1; x += SAMPLE_STEP) {
+                        for (int c = 0; c < channels; c++) {
+                            sum += input.get(row + c * plane + x);
+                        }
+                        count++;
+                    }
+                }
+                mCells[gy * GRID_WIDTH + gx] = count == 0 ? 0 : sum / count;
+            }
+        }
+
+        long hash = 0;
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH - 1; gx++) {
+                final int cell = gy * GRID_WIDTH + gx;
+                hash = (hash << 1) | (mCells[cell] > mCells[cell + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Copies the scores cached for the closest matching, unexpired signature not yet matched in
+     * this batch into {@code scoresOut} at {@code offset} and returns its best class, or -1 on a
+     * miss.
+     */
+    public synchronized int lookup(long signature, long nowMs, float[] scoresOut, int offset) {
+        int entry = find(signature, nowMs);
+        if (entry < 0) {
+            return -1;
+        }
+        mMatched[entry] = true;
+        System.arraycopy(mScores, entry * mNumClasses, scoresOut, offset, mNumClasses);
+        return mBestClasses[entry];
+    }
+
+    /**
+     * Stores fresh scores for {@code signature}, replacing its match or else the oldest entry
+     * not yet matched in this batch. Does nothing when every entry already is.
+     */
+    public synchronized void put(long signature, long nowMs, float[] scores, int offset, int bestClass) {
+        int entry = find(signature, nowMs);
+        if (entry < 0) {
+            if (mSize < mSignatures.length) {
+                entry = mSize++;
+            } else {
+                for (int i = 0; i < mSize; i++) {
+                    if (!mMatched[i] && (entry < 0 || mTimes[i] < mTimes[entry])) {
+                        entry = i;
+                    }
+                }
+                if (entry < 0) {
+                    return;
+                }
+            }
+        }
+        mMatched[entry] = true;
+        mSignatures[entry] = signature;
+        mTimes[entry] = nowMs;
+        mBestClasses[entry] = bestClass;
+        System.arraycopy(scores, offset, mScores, entry * mNumClasses, mNumClasses);
+    }
+
+    /** Counts one analysed frame; {@code hit} when inference was skipped, saving {@code savedMs}. */
+    public synchronized void recordFrame(boolean hit, long savedMs) {
+        mFrames++;
+        if (hit) {
+            mHits++;
+            mSavedMs += savedMs;
+        }
+    }
+
+    public synchronized void clear() {
+        mSize = 0;
+    }
+
+    public synchronized long getFrames() {
+        return mFrames;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /** Share of frames that skipped inference, 0..1. */
+    public synchronized double getHitRate() {
+        return mFrames == 0 ? 0 : (double) mHits / mFrames;
+    }
+
+    /** Inference time avoided by hits, estimated from the preceding inferences. */
+    public synchronized long getSavedMs() {
+        return mSavedMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FaceSignatureCache{hits=" + mHits + "/" + mFrames + ", saved=" + mSavedMs + "ms}";
+    }
+
+    private int find(long signature, long nowMs) {
+        int best = -1;
+        int bestDistance = mMaxDistance + 1;
+        for (int i = 0; i < mSize; i++) {
+            if (mMatched[i] || nowMs - mTimes[i] > mMaxAgeMs) {
+                continue;
+            }
+            int distance = Long.bitCount(signature ^ mSignatures[i]);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
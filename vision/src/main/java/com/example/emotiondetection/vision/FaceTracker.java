@@ -0,0 +1,310 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * Follows detected faces between detections, so the full face detector only needs to run
+ * every few frames.
+ * <p>
+ * When faces are detected, a {@code 16 x 16} luminance template is sampled from each box on a
+ * {@link LumaImage}. On the frames in between, each box is moved to where its template
+ * matches best within a search window around the last position, by zero-mean sum of
+ * absolute differences; the box keeps its size. A match worse than {@code minConfidence}
+ * marks the faces as lost, and {@link #needsDetection()} asks for a detection right away.
+ * <p>
+ * The interval between detections adapts: every detection compares the tracked boxes with
+ * the detected ones, and grows the interval by one frame when they agree (same faces,
+ * centres within {@code maxDrift} of the face width), or halves it when they don't. The
+ * drift measured this way is kept as a running statistic. Not thread-safe.
+ */
+public final class FaceTracker {
+    static final int TEMPLATE_SIZE = 16;
+    private static final int SAMPLES = TEMPLATE_SIZE * TEMPLATE_SIZE;
+    /** Search window, as a fraction of the face width either way, and its bounds in image pixels. */
+    private static final float SEARCH_FRACTION = 0.25f;
+    private static final int MIN_SEARCH_RADIUS = 2;
+    private static final int MAX_SEARCH_RADIUS = 8;
+    /** Contrast assumed for flat templates, in grey levels, so they don't match anything perfectly. */
+    private static final int MIN_TEMPLATE_CONTRAST = 4;
+
+    private final int mMaxFaces;
+    private final int mMinInterval;
+    private final int mMaxInterval;
+    private final float mMinConfidence;
+    private final float mMaxDrift;
+
+    private final float[] mBoxes;
+    /** Boxes before the frame being tracked, put back when it loses a face. */
+    private final float[] mPreviousBoxes;
+    private final int[] mTemplates;
+    private final int[] mTemplateSums;
+    private final int[] mTemplateContrast;
+    private final int[] mXs = new int[TEMPLATE_SIZE];
+    private final int[] mYs = new int[TEMPLATE_SIZE];
+    private final int[] mCandidate = new int[SAMPLES];
+    private int mCount;
+    private int mInterval;
+    private int mSinceDetection;
+    private boolean mLost = true;
+    private float mConfidence;
+
+    private long mDetections;
+    private long mTrackedFrames;
+    private long mLostCount;
+    private double mDriftSum;
+    private long mDriftSamples;
+    private float mMaxDriftSeen;
+
+    /**
+     * @param minInterval   fewest frames from one detection to the next
+     * @param maxInterval   most frames from one detection to the next
+     * @param minConfidence match quality, 0..1, below which faces count as lost
+     * @param maxDrift      centre distance between tracked and detected box, as a fraction of
+     *                      the face width, up to which tracking counts as accurate
+     */
+    public FaceTracker(int maxFaces, int minInterval, int maxInterval, float minConfidence, float maxDrift) {
+        if (minInterval < 1 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Bad interval range " + minInterval + ".." + maxInterval);
+        }
+        mMaxFaces = maxFaces;
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mMinConfidence = minConfidence;
+        mMaxDrift = maxDrift;
+        mInterval = minInterval;
+        mBoxes = new float[maxFaces * 4];
+        mPreviousBoxes = new float[maxFaces * 4];
+        mTemplates = new int[maxFaces * SAMPLES];
+        mTemplateSums = new int[maxFaces];
+        mTemplateContrast = new int[maxFaces];
+    }
+
+    /** Whether the next frame should go through the full detector. */
+    public boolean needsDetection() {
+        return mLost || mSinceDetection >= mInterval;
+    }
+
+    /**
+     * Starts tracking {@code count} detected boxes, given as (left, top, width, height)
+     * quadruples in upright frame coordinates, on the frame {@code luma} was sampled from.
+     */
+    public void onDetected(LumaImage luma, float[] boxes, int count) {
+        if (count > mMaxFaces) {
+            throw new IllegalArgumentException("Too many faces: " + count + " > " + mMaxFaces);
+        }
+        if (mLost) {
+            mInterval = Math.max(mMinInterval, mInterval / 2);
+        } else if (mSinceDetection > 0) {
+            mInterval = agrees(boxes, count)
+                    ? Math.min(mMaxInterval, mInterval + 1)
+                    : Math.max(mMinInterval, mInterval / 2);
+        }
+        System.arraycopy(boxes, 0, mBoxes, 0, count * 4);
+        mCount = count;
+        for (int face = 0; face < count; face++) {
+            sampleTemplate(luma, face);
+        }
+        mSinceDetection = 0;
+        mLost = false;
+        mConfidence = 1f;
+        mDetections++;
+    }
+
+    /**
+     * Moves every box to its best match in {@code luma} and returns the face count, or -1 when
+     * a face was lost; the boxes are then left where they were, faces tracked earlier in the
+     * frame included.
+     */
+    public int track(LumaImage luma) {
+        mSinceDetection++;
+        System.arraycopy(mBoxes, 0, mPreviousBoxes, 0, mCount * 4);
+        float confidence = 1f;
+        for (int face = 0; face < mCount && confidence >= mMinConfidence; face++) {
+            confidence = Math.min(confidence, trackFace(luma, face));
+        }
+        mConfidence = confidence;
+        if (confidence < mMinConfidence) {
+            System.arraycopy(mPreviousBoxes, 0, mBoxes, 0, mCount * 4);
+            mLost = true;
+            mLostCount++;
+            return -1;
+        }
+        mTrackedFrames++;
+        return mCount;
+    }
+
+    public int getFaceCount() {
+        return mCount;
+    }
+
+    /** Current boxes, four values per face; owned by the tracker. */
+    public float[] getBoxes() {
+        return mBoxes;
+    }
+
+    /** Lowest match quality of the last tracked frame, 0..1. */
+    public float getConfidence() {
+        return mConfidence;
+    }
+
+    /** Frames from one detection to the next at the moment. */
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public long getDetections() {
+        return mDetections;
+    }
+
+    /** Frames served by tracking instead of detection. */
+    public long getTrackedFrames() {
+        return mTrackedFrames;
+    }
+
+    /** Times tracking gave up and asked for an early detection. */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    /** Mean distance between tracked and detected centres, as a fraction of the face width. */
+    public double getMeanDrift() {
+        return mDriftSamples == 0 ? 0 : mDriftSum / mDriftSamples;
+    }
+
+    public float getMaxDrift() {
+        return mMaxDriftSeen;
+    }
+
+    @Override
+    public String toString() {
+        return "FaceTracker{detect every " + mInterval + ", detections=" + mDetections
+                + ", tracked=" + mTrackedFrames + ", lost=" + mLostCount
+                + ", drift mean/max=" + Math.round(getMeanDrift() * 100) + "/" + Math.round(mMaxDriftSeen * 100) + "%}";
+    }
+
+    /**
+     * Records how far each tracked box is from the detected box it overlaps most, and returns
+     * whether tracking got every face right.
+     */
+    private boolean agrees(float[] detected, int count) {
+        boolean agrees = count == mCount;
+        for (int face = 0; face < mCount; face++) {
+            final int t = face * 4;
+            int best = -1;
+            float bestOverlap = 0;
+            for (int other = 0; other < count; other++) {
+                float overlap = intersectionOverUnion(mBoxes, t, detected, other * 4);
+                if (overlap > bestOverlap) {
+                    bestOverlap = overlap;
+                    best = other;
+                }
+            }
+            if (best < 0) {
+                agrees = false;
+                continue;
+            }
+            final int d = best * 4;
+            final float dx = (mBoxes[t] + mBoxes[t + 2] / 2) - (detected[d] + detected[d + 2] / 2);
+            final float dy = (mBoxes[t + 1] + mBoxes[t + 3] / 2) - (detected[d + 1] + detected[d + 3] / 2);
+            final float drift = (float) Math.sqrt(dx * dx + dy * dy) / Math.max(1f, detected[d + 2]);
+            mDriftSum += drift;
+            mDriftSamples++;
+            mMaxDriftSeen = Math.max(mMaxDriftSeen, drift);
+            if (drift > mMaxDrift) {
+                agrees = false;
+            }
+        }
+        return agrees;
+    }
+
+    static float intersectionOverUnion(float[] a, int i, float[] b, int j) {
+        final float width = Math.min(a[i] + a[i + 2], b[j] + b[j + 2]) - Math.max(a[i], b[j]);
+        final float height = Math.min(a[i + 1] + a[i + 3], b[j + 1] + b[j + 3]) - Math.max(a[i + 1], b[j + 1]);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        final float intersection = width * height;
+        return intersection / (a[i + 2] * a[i + 3] + b[j + 2] * b[j + 3] - intersection);
+    }
+
+    /** Image coordinates of the template samples for box {@code face}, without offset. */
+    private void sampleGrid(LumaImage luma, int face) {
+        final float scale = luma.getScale();
+        final int b = face * 4;
+        final float stepX = mBoxes[b + 2] / TEMPLATE_SIZE;
+        final float stepY = mBoxes[b + 3] / TEMPLATE_SIZE;
+        for (int i = 0; i < TEMPLATE_SIZE; i++) {
+            mXs[i] = (int) Math.floor((mBoxes[b] + (i + 0.5f) * stepX) / scale);
+            mYs[i] = (int) Math.floor((mBoxes[b + 1] + (i + 0.5f) * stepY) / scale);
+        }
+    }
+
+    private void sampleTemplate(LumaImage luma, int face) {
+        sampleGrid(luma, face);
+        final int base = face * SAMPLES;
+        final int sum = gather(luma, 0, 0, mTemplates, base);
+        int contrast = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            contrast += Math.abs(mTemplates[base + i] * SAMPLES - sum);
+        }
+        mTemplateSums[face] = sum;
+        mTemplateContrast[face] = Math.max(contrast, MIN_TEMPLATE_CONTRAST * SAMPLES * SAMPLES);
+    }
+
+    /** Reads the samples shifted by ({@code dx}, {@code dy}) into {@code out}, repeating the border; returns their sum. */
+    private int gather(LumaImage luma, int dx, int dy, int[] out, int offset) {
+        final byte[] pixels = luma.getPixels();
+        final int width = luma.getWidth();
+        final int maxX = width - 1;
+        final int maxY = luma.getHeight() - 1;
+        int sum = 0;
+        int index = offset;
+        for (int j = 0; j < TEMPLATE_SIZE; j++) {
+            final int row = Math.max(0, Math.min(maxY, mYs[j] + dy)) * width;
+            for (int i = 0; i < TEMPLATE_SIZE; i++) {
+                final int value = pixels[row + Math.max(0, Math.min(maxX, mXs[i] + dx))] & 0xFF;
+                out[index++] = value;
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    /** Moves box {@code face} to its best match and returns the match quality. */
+    private float trackFace(LumaImage luma, int face) {
+        sampleGrid(luma, face);
+        final int base = face * SAMPLES;
+        final int templateSum = mTemplateSums[face];
+        final int radius = Math.max(MIN_SEARCH_RADIUS, Math.min(MAX_SEARCH_RADIUS,
+                Math.round(mBoxes[face * 4 + 2] * SEARCH_FRACTION / luma.getScale())));
+        int best = Integer.MAX_VALUE;
+        int bestDx = 0;
+        int bestDy = 0;
+        // Rows are visited from the centre outwards, so a good match is found early and most
+        // later candidates are abandoned after a few samples.
+        for (int step = 0; step <= 2 * radius; step++) {
+            final int dy = (step & 1) == 0 ? step / 2 : -(step + 1) / 2;
+            for (int dx = -radius; dx <= radius; dx++) {
+                final int candidateSum = gather(luma, dx, dy, mCandidate, 0);
+                // Zero-mean differences, scaled by the sample count to stay in integers.
+                int sad = 0;
+                int i = 0;
+                for (; i < SAMPLES && sad <= best; i++) {
+                    sad += Math.abs((mCandidate[i] * SAMPLES - candidateSum) - (mTemplates[base + i] * SAMPLES - templateSum));
+                }
+                if (i < SAMPLES) {
+                    continue;
+                }
+                // Ties go to the smaller move, so flat regions don't make boxes wander.
+                if (sad < best || (sad == best && Math.abs(dx) + Math.abs(dy) < Math.abs(bestDx) + Math.abs(bestDy))) {
+                    best = sad;
+                    bestDx = dx;
+                    bestDy = dy;
+                }
+            }
+        }
+        mBoxes[face * 4] += bestDx * luma.getScale();
+        mBoxes[face * 4 + 1] += bestDy * luma.getScale();
+        // 1 for a perfect match, 0.5 when the best match differs from the template by as much
+        // as the template differs from its own mean, as it would from an unrelated patch.
+        return Math.max(0f, 1f - 0.5f * best / mTemplateContrast[face]);
+    }
+}
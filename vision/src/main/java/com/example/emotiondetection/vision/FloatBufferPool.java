@@ -0,0 +1,183 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded pool of direct, native-order {@link FloatBuffer}s keyed by tensor shape.
+ * <p>
+ * Inference code checks a {@link Lease} out per forward pass and hands it back afterwards,
+ * so a steady camera session stops allocating input memory after the first frames. Each
+ * lease can carry a tag (typically the framework tensor wrapping its buffer) that stays
+ * attached while the buffer is pooled.
+ * <p>
+ * With leak detection enabled (debug builds) every checkout records where it happened, and
+ * holding more leases of one shape than the leak threshold throws, pointing at the oldest
+ * outstanding checkout. The threshold is separate from how many buffers are retained: callers
+ * legitimately hold more leases at once than are worth keeping idle.
+ */
+public final class FloatBufferPool {
+
+    public static final class Lease {
+        private final long[] mShape;
+        private final FloatBuffer mBuffer;
+        private Object mTag;
+        private boolean mCheckedOut;
+        private Throwable mAcquiredAt;
+
+        private Lease(long[] shape, FloatBuffer buffer) {
+            mShape = shape;
+            mBuffer = buffer;
+        }
+
+        public long[] getShape() {
+            return mShape;
+        }
+
+        public FloatBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        public Object getTag() {
+            return mTag;
+        }
+
+        public void setTag(Object tag) {
+            mTag = tag;
+        }
+    }
+
+    private static final class Slot {
+        final long[] shape;
+        final int elements;
+        final ArrayDeque<Lease> idle = new ArrayDeque<>();
+        final List<Lease> outstanding = new ArrayList<>();
+
+        Slot(long[] shape) {
+            this.shape = shape;
+            long count = 1;
+            for (long dim : shape) {
+                count *= dim;
+            }
+            if (count <= 0 || count > Integer.MAX_VALUE / 4) {
+                throw new IllegalArgumentException("Unsupported shape " + Arrays.toString(shape));
+            }
+            this.elements = (int) count;
+        }
+    }
+
+    private final int mMaxPerShape;
+    private final List<Slot> mSlots = new ArrayList<>();
+    /** Outstanding leases of one shape that count as a leak; 0 when leak detection is off. */
+    private int mLeakThreshold;
+    private long mHits;
+    private long mMisses;
+    private long mDropped;
+
+    /** @param maxPerShape how many buffers of one shape are kept for reuse */
+    public FloatBufferPool(int maxPerShape) {
+        if (maxPerShape <= 0) {
+            throw new IllegalArgumentException("maxPerShape must be positive");
+        }
+        mMaxPerShape = maxPerShape;
+    }
+
+    /**
+     * Turns on leak detection: checking out a buffer while {@code maxOutstanding} of its shape
+     * are already out throws. 0 turns it off.
+     */
+    public synchronized void setLeakDetection(int maxOutstanding) {
+        if (maxOutstanding < 0) {
+            throw new IllegalArgumentException("maxOutstanding must not be negative");
+        }
+        mLeakThreshold = maxOutstanding;
+    }
+
+    /** Checks out a zero-position buffer with room for every element of {@code shape}. */
+    public synchronized Lease acquire(long[] shape) {
+        Slot slot = slotFor(shape);
+        // Before taking a buffer, so the one that would have been handed out stays pooled.
+        if (mLeakThreshold > 0 && slot.outstanding.size() >= mLeakThreshold) {
+            Throwable oldest = slot.outstanding.get(0).mAcquiredAt;
+            throw new IllegalStateException("More than " + mLeakThreshold + " buffers of shape "
+                    + Arrays.toString(shape) + " checked out; probable leak", oldest);
+        }
+        Lease lease = slot.idle.pollFirst();
+        if (lease != null) {
+            mHits++;
+        } else {
+            mMisses++;
+            FloatBuffer buffer = ByteBuffer.allocateDirect(slot.elements * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            lease = new Lease(slot.shape, buffer);
+        }
+        lease.mCheckedOut = true;
+        lease.mBuffer.clear();
+        if (mLeakThreshold > 0) {
+            lease.mAcquiredAt = new Throwable("Buffer acquired here");
+            slot.outstanding.add(lease);
+        }
+        return lease;
+    }
+
+    /** Returns a lease to the pool. The buffer must not be touched afterwards. */
+    public synchronized void release(Lease lease) {
+        if (!lease.mCheckedOut) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        lease.mCheckedOut = false;
+        lease.mAcquiredAt = null;
+        Slot slot = slotFor(lease.mShape);
+        slot.outstanding.remove(lease);
+        if (slot.idle.size() < mMaxPerShape) {
+            slot.idle.addFirst(lease);
+        } else {
+            mDropped++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /** Buffers handed back while the pool was already full, and left to the GC. */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /** Leases currently checked out; only tracked with leak detection on. */
+    public synchronized int getOutstanding() {
+        int count = 0;
+        for (Slot slot : mSlots) {
+            count += slot.outstanding.size();
+        }
+        return count;
+    }
+
+    private Slot slotFor(long[] shape) {
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            if (Arrays.equals(slot.shape, shape)) {
+                return slot;
+            }
+        }
+        Slot slot = new Slot(shape.clone());
+        mSlots.add(slot);
+        return slot;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FloatBufferPool{hits=" + mHits + ", misses=" + mMisses + ", dropped=" + mDropped + "}";
+    }
+}
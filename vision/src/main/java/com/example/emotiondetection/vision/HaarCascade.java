@@ -0,0 +1,407 @@
+package com.example.emotiondetection.vision;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A boosted cascade of Haar-feature stumps, as evaluated by {@link HaarCascadeDetector}.
+ * <p>
+ * Each feature is a weighted sum of up to three rectangle sums inside the detection window,
+ * with weights summing to zero over their areas. A stump votes {@code left} when the feature
+ * is below its threshold times the window's contrast, {@code sqrt(area * sumOfSquares - sum^2)}
+ * over the window minus a one-pixel border, and {@code right} otherwise. A window passes a stage
+ * when its votes add up to at least the stage threshold, and is a face when it passes every
+ * stage. These are the semantics of OpenCV's Haar cascades, which {@link #readOpenCv} imports.
+ * <p>
+ * Cascades are built with {@link Builder} or read from a cascade file ({@code *.cascade}), a
+ * big-endian stream of:
+ * <pre>
+ * int magic 'EHAC', int version 1, int windowWidth, int windowHeight, int stageCount
+ * per stage: float threshold, int featureCount
+ *   per feature: float threshold, float left, float right, int rectCount,
+ *                per rect: int x, int y, int width, int height, float weight
+ * </pre>
+ */
+public final class HaarCascade {
+    public static final String EXTENSION = ".cascade";
+    /** Rectangles per feature at most, as in trained Haar cascades. */
+    public static final int MAX_RECTS = 3;
+
+    private static final int MAGIC = 0x45484143;
+    private static final int VERSION = 1;
+
+    // Flat tables read by HaarCascadeDetector.
+    final int mWindowWidth;
+    final int mWindowHeight;
+    /** Index of the first feature of the next stage, per stage. */
+    final int[] mStageEnds;
+    final float[] mStageThresholds;
+    /** Index of the first rectangle of the next feature, per feature. */
+    final int[] mRectEnds;
+    final float[] mThresholds;
+    final float[] mLeft;
+    final float[] mRight;
+    /** x, y, width and height per rectangle, in window pixels. */
+    final int[] mRects;
+    final float[] mWeights;
+
+    private HaarCascade(Builder builder) {
+        mWindowWidth = builder.mWindowWidth;
+        mWindowHeight = builder.mWindowHeight;
+        mStageEnds = toIntArray(builder.mStageEnds);
+        mStageThresholds = toFloatArray(builder.mStageThresholds);
+        mRectEnds = toIntArray(builder.mRectEnds);
+        mThresholds = toFloatArray(builder.mThresholds);
+        mLeft = toFloatArray(builder.mLeft);
+        mRight = toFloatArray(builder.mRight);
+        mRects = toIntArray(builder.mRects);
+        mWeights = toFloatArray(builder.mWeights);
+    }
+
+    public int getWindowWidth() {
+        return mWindowWidth;
+    }
+
+    public int getWindowHeight() {
+        return mWindowHeight;
+    }
+
+    public int getStageCount() {
+        return mStageEnds.length;
+    }
+
+    public int getFeatureCount() {
+        return mThresholds.length;
+    }
+
+    /** Reads a cascade from a cascade file. */
+    public static HaarCascade read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a Haar cascade file");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cascade file version " + version);
+        }
+        try {
+            Builder builder = new Builder(data.readInt(), data.readInt());
+            int stages = data.readInt();
+            for (int s = 0; s < stages; s++) {
+                builder.stage(data.readFloat());
+                int features = data.readInt();
+                for (int f = 0; f < features; f++) {
+                    float threshold = data.readFloat();
+                    float left = data.readFloat();
+                    float right = data.readFloat();
+                    float[] rects = new float[data.readInt() * 5];
+                    for (int r = 0; r < rects.length; r += 5) {
+                        rects[r] = data.readInt();
+                        rects[r + 1] = data.readInt();
+                        rects[r + 2] = data.readInt();
+                        rects[r + 3] = data.readInt();
+                        rects[r + 4] = data.readFloat();
+                    }
+                    builder.feature(threshold, left, right, rects);
+                }
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cascade: " + e.getMessage(), e);
+        }
+    }
+
+    /** Writes the cascade in the format {@link #read} expects. */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mWindowWidth);
+        data.writeInt(mWindowHeight);
+        data.writeInt(mStageEnds.length);
+        int feature = 0;
+        int rect = 0;
+        for (int s = 0; s < mStageEnds.length; s++) {
+            data.writeFloat(mStageThresholds[s]);
+            data.writeInt(mStageEnds[s] - feature);
+            for (; feature < mStageEnds[s]; feature++) {
+                data.writeFloat(mThresholds[feature]);
+                data.writeFloat(mLeft[feature]);
+                data.writeFloat(mRight[feature]);
+                data.writeInt(mRectEnds[feature] - rect);
+                for (; rect < mRectEnds[feature]; rect++) {
+                    for (int i = 0; i < 4; i++) {
+                        data.writeInt(mRects[rect * 4 + i]);
+                    }
+                    data.writeFloat(mWeights[rect]);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a Haar cascade saved by OpenCV's {@code opencv_traincascade}, such as
+     * {@code haarcascade_frontalface_default.xml}. Only stump classifiers over upright features
+     * are supported, which is what those cascades use; the older {@code <trees>} format is not.
+     */
+    public static HaarCascade readOpenCv(InputStream in) throws IOException {
+        Element cascade;
+        try {
+            Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in).getDocumentElement();
+            cascade = child(root, "cascade");
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Not an OpenCV cascade: " + e.getMessage(), e);
+        }
+        try {
+            Element featureType = optionalChild(cascade, "featureType");
+            if (featureType != null && !"HAAR".equals(featureType.getTextContent().trim())) {
+                throw new IOException("Unsupported feature type " + featureType.getTextContent().trim());
+            }
+            List<Element> features = items(child(cascade, "features"));
+            Builder builder = new Builder(intValue(child(cascade, "width")), intValue(child(cascade, "height")));
+            for (Element stage : items(child(cascade, "stages"))) {
+                builder.stage(floatValues(child(stage, "stageThreshold"), 1)[0]);
+                for (Element weak : items(child(stage, "weakClassifiers"))) {
+                    float[] node = floatValues(child(weak, "internalNodes"));
+                    if (node.length != 4) {
+                        throw new IOException("Only stump classifiers are supported");
+                    }
+                    float[] leaves = floatValues(child(weak, "leafValues"), 2);
+                    int index = (int) node[2];
+                    if (index < 0 || index >= features.size()) {
+                        throw new IOException("Feature index " + index + " out of range");
+                    }
+                    Element feature = features.get(index);
+                    Element tilted = optionalChild(feature, "tilted");
+                    if (tilted != null && intValue(tilted) != 0) {
+                        throw new IOException("Tilted features are not supported");
+                    }
+                    List<Element> rects = items(child(feature, "rects"));
+                    float[] values = new float[rects.size() * 5];
+                    for (int r = 0; r < rects.size(); r++) {
+                        System.arraycopy(floatValues(rects.get(r), 5), 0, values, r * 5, 5);
+                    }
+                    builder.feature(node[3], leaves[0], leaves[1], values);
+                }
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cascade: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A hand-built frontal face cascade for schematic faces: dark eyes, below a brighter forehead
+     * and above brighter cheeks, either side of a bright nose bridge, a dark mouth, even cheeks and
+     * left-right symmetry, each symmetry test being a pair of mirrored stumps. Its thresholds were set on
+     * drawn faces over random textures, not on photographs, so it finds the faces tests and
+     * benchmarks draw and not real ones. It has the shape and cost profile of a trained cascade,
+     * with nearly every window rejected by the first stage, which is what they need. Real use
+     * needs a trained cascade, e.g. one imported with {@link #readOpenCv}.
+     */
+    public static HaarCascade synthetic() {
+        return new Builder(24, 24)
+                // Forehead brighter than the eyes; nose bridge brighter than the eyes.
+                .stage(1.5f)
+                .feature(0.05f, -1, 1, 6, 1, 12, 4, 1, 6, 7, 12, 4, -1)
+                .feature(0.04f, -1, 1, 4, 7, 6, 4, -1, 10, 7, 4, 4, 3, 14, 7, 6, 4, -1)
+                // Eyes, then cheeks, alike on both sides.
+                .stage(3.5f)
+                .feature(0.04f, 1, -1, 4, 7, 6, 4, 1, 14, 7, 6, 4, -1)
+                .feature(0.04f, 1, -1, 4, 7, 6, 4, -1, 14, 7, 6, 4, 1)
+                .feature(0.05f, 1, -1, 3, 11, 7, 6, 1, 14, 11, 7, 6, -1)
+                .feature(0.05f, 1, -1, 3, 11, 7, 6, -1, 14, 11, 7, 6, 1)
+                // Forehead, then mouth, alike on both sides.
+                .stage(3.5f)
+                .feature(0.05f, 1, -1, 6, 1, 6, 4, 1, 12, 1, 6, 4, -1)
+                .feature(0.05f, 1, -1, 6, 1, 6, 4, -1, 12, 1, 6, 4, 1)
+                .feature(0.05f, 1, -1, 7, 15, 5, 5, 1, 12, 15, 5, 5, -1)
+                .feature(0.05f, 1, -1, 7, 15, 5, 5, -1, 12, 15, 5, 5, 1)
+                // Outer cheeks even from top to bottom, on each side.
+                .stage(3.5f)
+                .feature(0.02f, 1, -1, 2, 12, 5, 3, 1, 2, 15, 5, 3, -1)
+                .feature(0.02f, 1, -1, 2, 12, 5, 3, -1, 2, 15, 5, 3, 1)
+                .feature(0.02f, 1, -1, 17, 12, 5, 3, 1, 17, 15, 5, 3, -1)
+                .feature(0.02f, 1, -1, 17, 12, 5, 3, -1, 17, 15, 5, 3, 1)
+                // Eye band darker than the cheeks, and each eye darker than the cheek below it.
+                .stage(2.5f)
+                .feature(0.06f, -1, 1, 3, 7, 18, 8, -1, 3, 11, 18, 4, 2)
+                .feature(0.055f, -1, 1, 4, 7, 6, 4, -1, 4, 12, 6, 4, 1)
+                .feature(0.055f, -1, 1, 14, 7, 6, 4, -1, 14, 12, 6, 4, 1)
+                // Mouth darker than the lip above it and the chin below it.
+                .stage(1.5f)
+                .feature(0.025f, -1, 1, 7, 13, 10, 3, 1, 7, 16, 10, 3, -1)
+                .feature(0.01f, -1, 1, 8, 16, 8, 3, -1, 8, 20, 8, 2, 1.5f)
+                .build();
+    }
+
+    private static Element child(Element parent, String name) throws IOException {
+        Element child = optionalChild(parent, name);
+        if (child == null) {
+            throw new IOException("Missing <" + name + "> in <" + parent.getTagName() + ">");
+        }
+        return child;
+    }
+
+    private static Element optionalChild(Element parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /** Entries of an OpenCV sequence, which are all named {@code _}. */
+    private static List<Element> items(Element sequence) {
+        List<Element> items = new ArrayList<>();
+        for (Node node = sequence.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && "_".equals(node.getNodeName())) {
+                items.add((Element) node);
+            }
+        }
+        return items;
+    }
+
+    private static int intValue(Element element) throws IOException {
+        return (int) floatValues(element, 1)[0];
+    }
+
+    private static float[] floatValues(Element element, int count) throws IOException {
+        float[] values = floatValues(element);
+        if (values.length != count) {
+            throw new IOException("Expected " + count + " values in <" + element.getTagName() + ">, got " + values.length);
+        }
+        return values;
+    }
+
+    private static float[] floatValues(Element element) throws IOException {
+        String[] tokens = element.getTextContent().trim().split("\\s+");
+        float[] values = new float[tokens.length];
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                values[i] = Float.parseFloat(tokens[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number in <" + element.getTagName() + ">", e);
+        }
+        return values;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static float[] toFloatArray(List<Float> values) {
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /** Assembles a cascade stage by stage. */
+    public static final class Builder {
+        private final int mWindowWidth;
+        private final int mWindowHeight;
+        private final List<Integer> mStageEnds = new ArrayList<>();
+        private final List<Float> mStageThresholds = new ArrayList<>();
+        private final List<Integer> mRectEnds = new ArrayList<>();
+        private final List<Float> mThresholds = new ArrayList<>();
+        private final List<Float> mLeft = new ArrayList<>();
+        private final List<Float> mRight = new ArrayList<>();
+        private final List<Integer> mRects = new ArrayList<>();
+        private final List<Float> mWeights = new ArrayList<>();
+
+        public Builder(int windowWidth, int windowHeight) {
+            if (windowWidth < 3 || windowHeight < 3) {
+                throw new IllegalArgumentException("Window too small: " + windowWidth + "x" + windowHeight);
+            }
+            mWindowWidth = windowWidth;
+            mWindowHeight = windowHeight;
+        }
+
+        /** Starts a stage passed by windows whose votes reach {@code threshold}. */
+        public Builder stage(float threshold) {
+            mStageEnds.add(mThresholds.size());
+            mStageThresholds.add(threshold);
+            return this;
+        }
+
+        /**
+         * Adds a stump to the current stage over the feature given by {@code rects}, five values
+         * per rectangle: x, y, width, height and weight, in window pixels.
+         */
+        public Builder feature(float threshold, float left, float right, float... rects) {
+            if (mStageEnds.isEmpty()) {
+                throw new IllegalArgumentException("Feature added before the first stage");
+            }
+            if (rects.length == 0 || rects.length % 5 != 0 || rects.length / 5 > MAX_RECTS) {
+                throw new IllegalArgumentException("A feature needs 1 to " + MAX_RECTS + " rectangles");
+            }
+            float balance = 0;
+            float magnitude = 0;
+            for (int r = 0; r < rects.length; r += 5) {
+                int x = (int) rects[r];
+                int y = (int) rects[r + 1];
+                int width = (int) rects[r + 2];
+                int height = (int) rects[r + 3];
+                if (x < 0 || y < 0 || width < 1 || height < 1
+                        || x + width > mWindowWidth || y + height > mWindowHeight) {
+                    throw new IllegalArgumentException("Rectangle " + x + "," + y + " " + width + "x" + height
+                            + " outside the " + mWindowWidth + "x" + mWindowHeight + " window");
+                }
+                balance += rects[r + 4] * width * height;
+                magnitude += Math.abs(rects[r + 4]) * width * height;
+            }
+            // Scaled features re-balance their first weight, which assumes they sum to zero.
+            if (Math.abs(balance) > 1e-3f * magnitude) {
+                throw new IllegalArgumentException("Feature weights don't sum to zero over their areas");
+            }
+            for (int r = 0; r < rects.length; r += 5) {
+                mRects.add((int) rects[r]);
+                mRects.add((int) rects[r + 1]);
+                mRects.add((int) rects[r + 2]);
+                mRects.add((int) rects[r + 3]);
+                mWeights.add(rects[r + 4]);
+            }
+            mRectEnds.add(mWeights.size());
+            mThresholds.add(threshold);
+            mLeft.add(left);
+            mRight.add(right);
+            mStageEnds.set(mStageEnds.size() - 1, mThresholds.size());
+            return this;
+        }
+
+        public HaarCascade build() {
+            if (mStageEnds.isEmpty()) {
+                throw new IllegalArgumentException("Cascade has no stages");
+            }
+            int previous = 0;
+            for (int end : mStageEnds) {
+                if (end == previous) {
+                    throw new IllegalArgumentException("Cascade has an empty stage");
+                }
+                previous = end;
+            }
+            return new HaarCascade(this);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package com.example.emotiondetection.vision;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Face detector evaluating a {@link HaarCascade} over every window position and scale of a
+ * {@link LumaImage}, in plain Java.
+ * <p>
+ * The image is turned into {@link IntegralImage} tables once per frame, and the cascade is scaled
+ * instead of the image: each scale keeps its feature rectangles as offsets into the tables, so a
+ * rectangle sum is four lookups at any size. Scales are scanned in parallel, each worker taking
+ * the next unscanned scale, smallest windows (most positions) first so the work evens out. Hits
+ * are kept per scale and grouped in scale order, so the result doesn't depend on the thread
+ * count. Overlapping hits are merged, and groups with fewer than {@link #MIN_NEIGHBORS} hits or
+ * lying inside a stronger face are dropped. Tables, scales and hit buffers are reused across
+ * frames of the same size. {@link #detect} is synchronized.
+ */
+public final class HaarCascadeDetector implements LumaFaceDetector {
+    public static final String NAME = "haar-cascade";
+    /** Window growth between two scales. */
+    public static final float SCALE_FACTOR = 1.2f;
+    /** Overlapping hits a face needs; single hits are mostly noise. */
+    public static final int MIN_NEIGHBORS = 4;
+    /** Windows move by this fraction of their width between positions, at least one pixel. */
+    private static final float STEP_FRACTION = 1 / 16f;
+    /** Hits are grouped when their edges are within this fraction of their size. */
+    private static final float GROUP_TOLERANCE = 0.2f;
+
+    private final HaarCascade mCascade;
+    private final float mMinFaceSize;
+    private final int mThreads;
+    private final ExecutorService mWorkers;
+    private final Runnable[] mLaneRunners;
+    private final IntegralImage mIntegral = new IntegralImage();
+    private final AtomicInteger mNextScale = new AtomicInteger();
+    private CountDownLatch mPending;
+    private volatile Throwable mFailure;
+    private boolean mClosed;
+
+    private Scale[] mScales = new Scale[0];
+    private int mScaleCount;
+    private int mScaledWidth = -1;
+    private int mScaledHeight = -1;
+    private float mScaledFirst = -1;
+
+    /** Hits of all scales as left, top, width and height, and their union-find parents. */
+    private int[] mHitBoxes = new int[0];
+    private int[] mParents = new int[0];
+    /** Hit groups: summed, then averaged, left, top, width and height, and hit count. */
+    private float[] mGroupSums = new float[0];
+    private int[] mGroupHits = new int[0];
+    private int mGroupCount;
+    private long mWindowCount;
+
+    /**
+     * @param minFaceSize smallest face detected, as a fraction of the image width; never below
+     *                    the cascade window
+     * @param threads     threads scanning scales, caller included
+     */
+    public HaarCascadeDetector(HaarCascade cascade, float minFaceSize, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        mCascade = cascade;
+        mMinFaceSize = minFaceSize;
+        mThreads = threads;
+        mWorkers = threads > 1 ? Executors.newFixedThreadPool(threads - 1, new WorkerFactory()) : null;
+        mLaneRunners = new Runnable[threads];
+        for (int i = 1; i < threads; i++) {
+            mLaneRunners[i] = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scanScales();
+                    } catch (Throwable t) {
+                        mFailure = t;
+                    } finally {
+                        mPending.countDown();
+                    }
+                }
+            };
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /** Windows the cascade was evaluated on in the last detection, over all scales. */
+    public synchronized long getWindowCount() {
+        return mWindowCount;
+    }
+
+    @Override
+    public int detect(LumaImage image, float[] boxes, int maxFaces) {
+        return detect(image, 0, boxes, maxFaces);
+    }
+
+    @Override
+    public synchronized int detect(LumaImage image, float minFaceWidth, float[] boxes, int maxFaces) {
+        if (mClosed) {
+            return 0;
+        }
+        mIntegral.compute(image);
+        final float first = Math.max(Math.max(1f, mMinFaceSize * image.getWidth() / mCascade.mWindowWidth),
+                minFaceWidth / image.getScale() / mCascade.mWindowWidth);
+        prepareScales(image.getWidth(), image.getHeight(), first);
+        runScales();
+        mWindowCount = 0;
+        for (int i = 0; i < mScaleCount; i++) {
+            mWindowCount += mScales[i].mWindows;
+        }
+        return group(boxes, maxFaces, image.getScale());
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+        }
+    }
+
+    /**
+     * Lays out the scales for a {@code width x height} image, from windows {@code first} times
+     * the cascade's up, unless they already are.
+     */
+    private void prepareScales(int width, int height, float first) {
+        if (width == mScaledWidth && height == mScaledHeight && first == mScaledFirst) {
+            return;
+        }
+        final int windowWidth = mCascade.mWindowWidth;
+        final int windowHeight = mCascade.mWindowHeight;
+        int count = 0;
+        for (float s = first; Math.round(windowWidth * s) <= width && Math.round(windowHeight * s) <= height;
+             s *= SCALE_FACTOR) {
+            if (count == mScales.length) {
+                Scale[] grown = new Scale[Math.max(8, count * 2)];
+                System.arraycopy(mScales, 0, grown, 0, count);
+                mScales = grown;
+            }
+            if (mScales[count] == null) {
+                mScales[count] = new Scale(mCascade);
+            }
+            mScales[count++].layOut(mCascade, s, width + 1);
+        }
+        mScaleCount = count;
+        mScaledWidth = width;
+        mScaledHeight = height;
+        mScaledFirst = first;
+    }
+
+    /** Scans every scale, on the workers and the calling thread, and returns once all are done. */
+    private void runScales() {
+        mNextScale.set(0);
+        final int lanes = mWorkers == null ? 1 : Math.min(mThreads, mScaleCount);
+        if (lanes <= 1) {
+            scanScales();
+            return;
+        }
+        mFailure = null;
+        mPending = new CountDownLatch(lanes - 1);
+        int submitted = 1;
+        try {
+            for (; submitted < lanes; submitted++) {
+                mWorkers.execute(mLaneRunners[submitted]);
+            }
+            scanScales();
+        } finally {
+            // Lanes already running still use the integral image; lanes never handed out
+            // don't count down by themselves.
+            for (int i = submitted; i < lanes; i++) {
+                mPending.countDown();
+            }
+            awaitUninterruptibly(mPending);
+        }
+
+        Throwable failure = mFailure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private void scanScales() {
+        int index;
+        while ((index = mNextScale.getAndIncrement()) < mScaleCount) {
+            scan(mScales[index]);
+        }
+    }
+
+    /** Evaluates the cascade on every window position of one scale, recording the hits. */
+    private void scan(Scale scale) {
+        final HaarCascade cascade = mCascade;
+        final int[] sums = mIntegral.getSums();
+        final long[] squares = mIntegral.getSquares();
+        final int stride = mIntegral.getStride();
+        final int lastX = mIntegral.getWidth() - scale.mWidth;
+        final int lastY = mIntegral.getHeight() - scale.mHeight;
+        final int step = scale.mStep;
+        final int[] corners = scale.mCorners;
+        final float[] weights = scale.mWeights;
+        final int[] normCorners = scale.mNormCorners;
+        final double normArea = scale.mNormArea;
+        final int[] stageEnds = cascade.mStageEnds;
+        final float[] stageThresholds = cascade.mStageThresholds;
+        final int[] rectEnds = cascade.mRectEnds;
+        final float[] thresholds = cascade.mThresholds;
+        final float[] left = cascade.mLeft;
+        final float[] right = cascade.mRight;
+        scale.mHitCount = 0;
+        scale.mWindows = 0;
+
+        for (int y = 0; y <= lastY; y += step) {
+            for (int x = 0; x <= lastX; x += step) {
+                final int base = y * stride + x;
+                final int sum = sums[base + normCorners[3]] - sums[base + normCorners[1]]
+                        - sums[base + normCorners[2]] + sums[base + normCorners[0]];
+                final long square = squares[base + normCorners[3]] - squares[base + normCorners[1]]
+                        - squares[base + normCorners[2]] + squares[base + normCorners[0]];
+                final double variance = normArea * square - (double) sum * sum;
+                final float norm = variance > 0 ? (float) Math.sqrt(variance) : 1f;
+                scale.mWindows++;
+
+                boolean face = true;
+                int feature = 0;
+                int rect = 0;
+                for (int stage = 0; stage < stageEnds.length && face; stage++) {
+                    float votes = 0;
+                    for (; feature < stageEnds[stage]; feature++) {
+                        float value = 0;
+                        for (; rect < rectEnds[feature]; rect++) {
+                            final int c = rect * 4;
+                            value += weights[rect] * (sums[base + corners[c + 3]] - sums[base + corners[c + 1]]
+                                    - sums[base + corners[c + 2]] + sums[base + corners[c]]);
+                        }
+                        votes += value < thresholds[feature] * norm ? left[feature] : right[feature];
+                    }
+                    face = votes >= stageThresholds[stage];
+                }
+                if (face) {
+                    scale.addHit(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the hits of all scales into faces and writes the {@code maxFaces} largest into
+     * {@code boxes}, scaled to frame pixels. Hits are grouped transitively: two hits whose edges
+     * are within {@link #GROUP_TOLERANCE} of their size join the same group.
+     */
+    private int group(float[] boxes, int maxFaces, int frameScale) {
+        int hitCount = 0;
+        for (int i = 0; i < mScaleCount; i++) {
+            hitCount += mScales[i].mHitCount;
+        }
+        if (mHitBoxes.length < hitCount * 4) {
+            mHitBoxes = new int[hitCount * 8];
+            mParents = new int[hitCount * 2];
+        }
+        final int[] hits = mHitBoxes;
+        final int[] parents = mParents;
+        int n = 0;
+        for (int i = 0; i < mScaleCount; i++) {
+            final Scale scale = mScales[i];
+            for (int h = 0; h < scale.mHitCount; h++, n++) {
+                hits[n * 4] = scale.mHits[h * 2];
+                hits[n * 4 + 1] = scale.mHits[h * 2 + 1];
+                hits[n * 4 + 2] = scale.mWidth;
+                hits[n * 4 + 3] = scale.mHeight;
+                parents[n] = n;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (similar(hits, i, j)) {
+                    final int a = root(parents, i);
+                    final int b = root(parents, j);
+                    if (a != b) {
+                        parents[Math.max(a, b)] = Math.min(a, b);
+                    }
+                }
+            }
+        }
+
+        // One group per root, in order of first hit. Roots are the first hit of their group, so
+        // once every hit points straight at its root, each root can be replaced by its group
+        // index (stored as -1 - index) before its members look it up.
+        for (int i = 0; i < n; i++) {
+            parents[i] = root(parents, i);
+        }
+        if (mGroupHits.length < n) {
+            mGroupHits = new int[n];
+            mGroupSums = new float[n * 4];
+        }
+        mGroupCount = 0;
+        for (int i = 0; i < n; i++) {
+            final int g;
+            if (parents[i] == i) {
+                g = mGroupCount++;
+                mGroupHits[g] = 0;
+                Arrays.fill(mGroupSums, g * 4, g * 4 + 4, 0f);
+            } else {
+                g = -1 - parents[parents[i]];
+            }
+            mGroupHits[g]++;
+            for (int k = 0; k < 4; k++) {
+                mGroupSums[g * 4 + k] += hits[i * 4 + k];
+            }
+            if (parents[i] == i) {
+                parents[i] = -1 - g;
+            }
+        }
+
+        // Averages in place; dropped groups get a zero hit count.
+        for (int g = 0; g < mGroupCount; g++) {
+            final int count = mGroupHits[g];
+            for (int k = 0; k < 4; k++) {
+                mGroupSums[g * 4 + k] /= count;
+            }
+            if (count < MIN_NEIGHBORS) {
+                mGroupHits[g] = 0;
+            }
+        }
+        for (int g = 0; g < mGroupCount; g++) {
+            for (int other = 0; other < mGroupCount && mGroupHits[g] > 0; other++) {
+                if (other != g && mGroupHits[other] >= mGroupHits[g] && inside(g, other)) {
+                    mGroupHits[g] = 0;
+                }
+            }
+        }
+
+        // Largest first, by insertion; the smallest face falls off the end.
+        int count = 0;
+        for (int g = 0; g < mGroupCount; g++) {
+            if (mGroupHits[g] == 0) {
+                continue;
+            }
+            final float area = mGroupSums[g * 4 + 2] * mGroupSums[g * 4 + 3] * frameScale * frameScale;
+            int pos = count < maxFaces ? count++ : maxFaces;
+            while (pos > 0 && area > boxes[pos * 4 - 2] * boxes[pos * 4 - 1]) {
+                if (pos < maxFaces) {
+                    System.arraycopy(boxes, (pos - 1) * 4, boxes, pos * 4, 4);
+                }
+                pos--;
+            }
+            if (pos < maxFaces) {
+                for (int k = 0; k < 4; k++) {
+                    boxes[pos * 4 + k] = mGroupSums[g * 4 + k] * frameScale;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Whether hits {@code i} and {@code j} have all four edges within the grouping tolerance. */
+    private static boolean similar(int[] hits, int i, int j) {
+        final int a = i * 4;
+        final int b = j * 4;
+        final float tolerance = GROUP_TOLERANCE
+                * (Math.min(hits[a + 2], hits[b + 2]) + Math.min(hits[a + 3], hits[b + 3])) / 2;
+        return Math.abs(hits[a] - hits[b]) <= tolerance
+                && Math.abs(hits[a + 1] - hits[b + 1]) <= tolerance
+                && Math.abs(hits[a] + hits[a + 2] - hits[b] - hits[b + 2]) <= tolerance
+                && Math.abs(hits[a + 1] + hits[a + 3] - hits[b + 1] - hits[b + 3]) <= tolerance;
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /** Whether averaged group {@code g} lies within group {@code outer}, give or take a fifth of its size. */
+    private boolean inside(int g, int outer) {
+        final float[] s = mGroupSums;
+        final float marginX = GROUP_TOLERANCE * s[outer * 4 + 2];
+        final float marginY = GROUP_TOLERANCE * s[outer * 4 + 3];
+        return s[g * 4] >= s[outer * 4] - marginX
+                && s[g * 4 + 1] >= s[outer * 4 + 1] - marginY
+                && s[g * 4] + s[g * 4 + 2] <= s[outer * 4] + s[outer * 4 + 2] + marginX
+                && s[g * 4 + 1] + s[g * 4 + 3] <= s[outer * 4 + 1] + s[outer * 4 + 3] + marginY
+                && s[g * 4 + 2] * s[g * 4 + 3] < s[outer * 4 + 2] * s[outer * 4 + 3];
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The cascade laid out for one window size, and the hits found at that size. */
+    private static final class Scale {
+        int mWidth;
+        int mHeight;
+        int mStep;
+        /** Per rectangle: top-left, top-right, bottom-left and bottom-right offsets into the tables. */
+        final int[] mCorners;
+        final float[] mWeights;
+        /** The window minus a border, over which its contrast is measured. */
+        final int[] mNormCorners = new int[4];
+        double mNormArea;
+
+        /** x and y of each window found to be a face. */
+        int[] mHits = new int[32];
+        int mHitCount;
+        long mWindows;
+
+        Scale(HaarCascade cascade) {
+            mCorners = new int[cascade.mWeights.length * 4];
+            mWeights = new float[cascade.mWeights.length];
+        }
+
+        void layOut(HaarCascade cascade, float scale, int stride) {
+            mWidth = Math.round(cascade.mWindowWidth * scale);
+            mHeight = Math.round(cascade.mWindowHeight * scale);
+            mStep = Math.max(1, Math.round(mWidth * STEP_FRACTION));
+            final int border = Math.round(scale);
+            final int normWidth = mWidth - 2 * border;
+            final int normHeight = mHeight - 2 * border;
+            corners(mNormCorners, 0, border, border, normWidth, normHeight, stride);
+            mNormArea = (double) normWidth * normHeight;
+
+            int rect = 0;
+            for (int feature = 0; feature < cascade.mRectEnds.length; feature++) {
+                final int first = rect;
+                float balance = 0;
+                int firstArea = 1;
+                for (; rect < cascade.mRectEnds[feature]; rect++) {
+                    final int x = Math.round(cascade.mRects[rect * 4] * scale);
+                    final int y = Math.round(cascade.mRects[rect * 4 + 1] * scale);
+                    final int width = Math.min(Math.round(cascade.mRects[rect * 4 + 2] * scale), mWidth - x);
+                    final int height = Math.min(Math.round(cascade.mRects[rect * 4 + 3] * scale), mHeight - y);
+                    corners(mCorners, rect * 4, x, y, width, height, stride);
+                    mWeights[rect] = cascade.mWeights[rect];
+                    if (rect == first) {
+                        firstArea = width * height;
+                    } else {
+                        balance += mWeights[rect] * width * height;
+                    }
+                }
+                // Rounding changes the rectangle areas; the first weight keeps the feature zero-sum.
+                mWeights[first] = -balance / firstArea;
+            }
+        }
+
+        private static void corners(int[] out, int offset, int x, int y, int width, int height, int stride) {
+            out[offset] = y * stride + x;
+            out[offset + 1] = y * stride + x + width;
+            out[offset + 2] = (y + height) * stride + x;
+            out[offset + 3] = (y + height) * stride + x + width;
+        }
+
+        void addHit(int x, int y) {
+            if (mHitCount * 2 == mHits.length) {
+                mHits = Arrays.copyOf(mHits, mHits.length * 2);
+            }
+            mHits[mHitCount * 2] = x;
+            mHits[mHitCount * 2 + 1] = y;
+            mHitCount++;
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HaarScan-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * Runs a classification model on a batch of preprocessed faces.
+ * <p>
+ * The analysis code only talks to this interface, so the PyTorch runtime used on devices can be
+ * swapped for {@link ReferenceCnnBackend}, which runs anywhere a JVM does: in unit tests, in
+ * benchmarks, or on a device where the native library failed to load.
+ */
+public interface InferenceBackend {
+
+    /** Short name for logs, e.g. {@code pytorch-lite} or {@code reference-cnn}. */
+    String getName();
+
+    /**
+     * Classifies the {@code N x C x H x W} input held by {@code input} and returns the raw class
+     * scores, {@code numClasses} per face starting at index 0. The returned array may be reused
+     * by the next call.
+     */
+    float[] forward(FloatBufferPool.Lease input);
+
+    /** Frees native or cached resources; the backend is unusable afterwards. */
+    void close();
+}
@@ -0,0 +1,348 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of model instances, each owned by its own worker thread, serving inference
+ * requests from any number of callers.
+ * <p>
+ * Each worker creates its instance through the {@link Factory} when it starts, so instances
+ * load in parallel, and only ever runs that instance: backends don't need to be thread-safe.
+ * Workers take requests from one shared queue, so whichever instance is free runs the next
+ * request. {@link #submit} queues a whole batch and returns a future; {@link #classify} splits
+ * a batch of faces across the workers and waits for all parts. Busy time is tracked per
+ * worker for {@link #getUtilization(int)}.
+ */
+public final class InferencePool {
+
+    /** Creates the instance of one worker; called on that worker's thread. */
+    public interface Factory {
+        InferenceBackend create(int worker) throws Exception;
+    }
+
+    private final String mName;
+    private final Worker[] mWorkers;
+    private final LinkedBlockingQueue<Task> mQueue = new LinkedBlockingQueue<>();
+    private final CountDownLatch mStarted;
+    private final AtomicInteger mAlive;
+    private final long mStartNanos = System.nanoTime();
+    private volatile boolean mShutdown;
+
+    /**
+     * Starts {@code workers} threads named {@code <name>-<index>}, each creating its instance
+     * with {@code factory}.
+     */
+    public InferencePool(String name, int workers, Factory factory) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker: " + workers);
+        }
+        mName = name;
+        mWorkers = new Worker[workers];
+        mStarted = new CountDownLatch(workers);
+        mAlive = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            mWorkers[i] = new Worker(i, factory);
+        }
+        for (Worker worker : mWorkers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Workers worth running: one per {@code intraOpThreads} cores, as many as
+     * {@code memoryBudgetBytes} holds at {@code bytesPerInstance} each, at least one.
+     */
+    public static int recommendedWorkers(int cpus, int intraOpThreads, long memoryBudgetBytes, long bytesPerInstance) {
+        int byCpu = cpus / Math.max(1, intraOpThreads);
+        long byMemory = bytesPerInstance <= 0 ? byCpu : memoryBudgetBytes / bytesPerInstance;
+        return (int) Math.max(1, Math.min(byCpu, byMemory));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /** Workers whose instance was created successfully so far. */
+    public int getReadyWorkers() {
+        int ready = 0;
+        for (Worker worker : mWorkers) {
+            if (worker.mBackend != null) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Waits until every worker has created its instance or failed to, and returns how many
+     * are ready.
+     */
+    public int awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+        mStarted.await(timeout, unit);
+        return getReadyWorkers();
+    }
+
+    /**
+     * Queues the faces packed in {@code input} ({@code N x C x H x W}) for one forward pass on
+     * the next free instance. Their probabilities go to faces {@code firstFace..firstFace+N-1}
+     * of {@code out}; {@code input} and {@code out} must not be touched until the future is done.
+     */
+    public Future<Recognition> submit(FloatBufferPool.Lease input, Recognition out, int firstFace) {
+        Task task = new Task(new Job(input, out, firstFace));
+        // Checked and queued under the lock shutdown takes, so no task lands behind the
+        // workers' POISONs, or after the last worker drained the queue.
+        synchronized (mQueue) {
+            if (mShutdown) {
+                throw new RejectedExecutionException(mName + " is shut down");
+            }
+            mQueue.add(task);
+        }
+        return task;
+    }
+
+    /**
+     * Classifies every face in {@code input} into {@code out}, spreading the faces over as many
+     * ready instances as there are faces. Each part is copied into a buffer from
+     * {@code buffers}; with a single part {@code input} is used as is.
+     */
+    public Recognition classify(FloatBufferPool.Lease input, Recognition out, FloatBufferPool buffers)
+            throws InterruptedException, ExecutionException {
+        return classify(input, (int) input.getShape()[0], out, buffers);
+    }
+
+    /**
+     * Like {@link #classify(FloatBufferPool.Lease, Recognition, FloatBufferPool)}, for the first
+     * {@code faces} faces of {@code input} only, so a partly filled batch needn't be copied into
+     * a buffer of its own first. {@code input} is used as is when it holds exactly {@code faces}
+     * and a single part runs.
+     */
+    public Recognition classify(FloatBufferPool.Lease input, int faces, Recognition out, FloatBufferPool buffers)
+            throws InterruptedException, ExecutionException {
+        final long[] shape = input.getShape();
+        if (faces < 1 || faces > shape[0]) {
+            throw new IllegalArgumentException(faces + " faces in a batch of " + shape[0]);
+        }
+        final int parts = Math.min(faces, Math.max(1, getReadyWorkers()));
+        if (parts <= 1 && faces == shape[0]) {
+            submit(input, out, 0).get();
+            out.setFaceCount(faces);
+            return out;
+        }
+
+        final int faceSize = (int) (shape[1] * shape[2] * shape[3]);
+        final FloatBufferPool.Lease[] leases = new FloatBufferPool.Lease[parts];
+        final Future<?>[] futures = new Future<?>[parts];
+        final FloatBuffer source = input.getBuffer().duplicate();
+        try {
+            for (int part = 0; part < parts; part++) {
+                final int first = part * faces / parts;
+                final int count = (part + 1) * faces / parts - first;
+                leases[part] = buffers.acquire(new long[]{count, shape[1], shape[2], shape[3]});
+                source.limit((first + count) * faceSize).position(first * faceSize);
+                FloatBuffer target = leases[part].getBuffer();
+                target.clear();
+                target.put(source);
+                target.rewind();
+                futures[part] = submit(leases[part], out, first);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            for (int part = 0; part < parts; part++) {
+                if (futures[part] != null && !futures[part].isDone()) {
+                    // Let a part still running finish before its buffer goes back to the pool.
+                    try {
+                        futures[part].get();
+                    } catch (ExecutionException ignored) {
+                    }
+                }
+                if (leases[part] != null) {
+                    buffers.release(leases[part]);
+                }
+            }
+        }
+        out.setFaceCount(faces);
+        return out;
+    }
+
+    /** Share of wall time worker {@code worker} spent running inference since the pool started, 0..1. */
+    public double getUtilization(int worker) {
+        long elapsed = System.nanoTime() - mStartNanos;
+        return elapsed <= 0 ? 0 : (double) mWorkers[worker].mBusyNanos / elapsed;
+    }
+
+    /** Requests run by worker {@code worker}. */
+    public long getCompleted(int worker) {
+        return mWorkers[worker].mCompleted;
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Stops the workers once the queued requests are done and closes their instances. Later
+     * submissions are rejected.
+     */
+    public void shutdown() {
+        synchronized (mQueue) {
+            if (mShutdown) {
+                return;
+            }
+            mShutdown = true;
+            for (int i = 0; i < mWorkers.length; i++) {
+                mQueue.add(Task.POISON);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(mName).append('{');
+        for (int i = 0; i < mWorkers.length; i++) {
+            Worker worker = mWorkers[i];
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('#').append(i).append(' ');
+            if (worker.mFailure != null) {
+                sb.append("failed");
+            } else if (worker.mBackend == null) {
+                sb.append("starting");
+            } else {
+                sb.append(Math.round(getUtilization(i) * 100)).append("% of ")
+                        .append(worker.mCompleted).append(" runs");
+            }
+        }
+        return sb.append(", queued=").append(mQueue.size()).append('}').toString();
+    }
+
+    private static final class Job implements Callable<Recognition> {
+        final FloatBufferPool.Lease mInput;
+        final Recognition mOut;
+        final int mFirstFace;
+        Worker mWorker;
+
+        Job(FloatBufferPool.Lease input, Recognition out, int firstFace) {
+            mInput = input;
+            mOut = out;
+            mFirstFace = firstFace;
+        }
+
+        @Override
+        public Recognition call() {
+            final long start = System.nanoTime();
+            try {
+                final float[] logits = mWorker.mBackend.forward(mInput);
+                final int faces = (int) mInput.getShape()[0];
+                final int numClasses = mOut.getNumClasses();
+                mOut.checkLogits(logits, faces);
+                for (int face = 0; face < faces; face++) {
+                    mOut.setFaceLogits(mFirstFace + face, logits, face * numClasses);
+                }
+                return mOut;
+            } finally {
+                // Counted before the future completes, so callers see their own run.
+                mWorker.mBusyNanos += System.nanoTime() - start;
+                mWorker.mCompleted++;
+            }
+        }
+    }
+
+    private static final class Task extends FutureTask<Recognition> {
+        /** Tells a worker to exit. */
+        static final Task POISON = new Task(new Job(null, null, 0));
+
+        final Job mJob;
+
+        Task(Job job) {
+            super(job);
+            mJob = job;
+        }
+
+        void fail(Throwable error) {
+            setException(error);
+        }
+    }
+
+    /**
+     * Fails everything still queued once no worker is left to run it: because none could
+     * create its instance ({@code error} is the last failure), or because the last one exited.
+     */
+    private void onWorkerExited(Throwable error) {
+        if (mAlive.decrementAndGet() > 0) {
+            return;
+        }
+        synchronized (mQueue) {
+            mShutdown = true;
+        }
+        final String reason = error != null ? "No instance of " + mName + " could be created" : mName + " is shut down";
+        Task task;
+        while ((task = mQueue.poll()) != null) {
+            if (task != Task.POISON) {
+                task.fail(new RejectedExecutionException(reason, error));
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int mIndex;
+        private final Factory mFactory;
+        volatile InferenceBackend mBackend;
+        volatile Throwable mFailure;
+        volatile long mBusyNanos;
+        volatile long mCompleted;
+
+        Worker(int index, Factory factory) {
+            super(mName + "-" + index);
+            setDaemon(true);
+            mIndex = index;
+            mFactory = factory;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mBackend = mFactory.create(mIndex);
+            } catch (Throwable t) {
+                mFailure = t;
+            } finally {
+                mStarted.countDown();
+            }
+            final InferenceBackend backend = mBackend;
+            if (backend == null) {
+                onWorkerExited(mFailure);
+                return;
+            }
+            try {
+                while (true) {
+                    Task task = mQueue.take();
+                    if (task == Task.POISON) {
+                        break;
+                    }
+                    task.mJob.mWorker = this;
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                backend.close();
+                onWorkerExited(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.emotiondetection.vision;
+
+import java.util.Arrays;
+
+/**
+ * Summed-area tables of a {@link LumaImage}: the sum and the sum of squares of any rectangle in
+ * four lookups each.
+ * <p>
+ * Entry {@code (x, y)} holds the total of the pixels above and left of it, so the tables are one
+ * row and one column larger than the image; {@link #getStride()} entries per row. Sums stay
+ * within an int for any camera frame (255 x 2^23 pixels), squares are longs since a white patch
+ * a few hundred pixels wide would already overflow one. The arrays are reused across images.
+ * Not thread-safe.
+ */
+public final class IntegralImage {
+    private int[] mSums = new int[0];
+    private long[] mSquares = new long[0];
+    private int mWidth;
+    private int mHeight;
+
+    /** Fills the tables from {@code image}. */
+    public IntegralImage compute(LumaImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int stride = width + 1;
+        final int size = stride * (height + 1);
+        if (mSums.length < size) {
+            mSums = new int[size];
+            mSquares = new long[size];
+        }
+        mWidth = width;
+        mHeight = height;
+
+        final byte[] pixels = image.getPixels();
+        final int[] sums = mSums;
+        final long[] squares = mSquares;
+        Arrays.fill(sums, 0, stride, 0);
+        Arrays.fill(squares, 0, stride, 0L);
+        for (int y = 0; y < height; y++) {
+            final int in = y * width;
+            final int above = y * stride;
+            final int out = above + stride;
+            sums[out] = 0;
+            squares[out] = 0;
+            int rowSum = 0;
+            int rowSquares = 0;
+            for (int x = 0; x < width; x++) {
+                final int value = pixels[in + x] & 0xFF;
+                rowSum += value;
+                rowSquares += value * value;
+                sums[out + x + 1] = sums[above + x + 1] + rowSum;
+                squares[out + x + 1] = squares[above + x + 1] + rowSquares;
+            }
+        }
+        return this;
+    }
+
+    /** Sum of the pixels in the rectangle at ({@code x}, {@code y}). */
+    public int sum(int x, int y, int width, int height) {
+        final int stride = mWidth + 1;
+        final int top = y * stride + x;
+        final int bottom = (y + height) * stride + x;
+        return mSums[bottom + width] - mSums[bottom] - mSums[top + width] + mSums[top];
+    }
+
+    /** Sum of the squared pixels in the rectangle at ({@code x}, {@code y}). */
+    public long squareSum(int x, int y, int width, int height) {
+        final int stride = mWidth + 1;
+        final int top = y * stride + x;
+        final int bottom = (y + height) * stride + x;
+        return mSquares[bottom + width] - mSquares[bottom] - mSquares[top + width] + mSquares[top];
+    }
+
+    /** Pixel sums table, {@link #getStride()} entries per row; owned by the image. */
+    public int[] getSums() {
+        return mSums;
+    }
+
+    /** Squared pixel sums table, laid out like {@link #getSums()}; owned by the image. */
+    public long[] getSquares() {
+        return mSquares;
+    }
+
+    public int getStride() {
+        return mWidth + 1;
+    }
+
+    /** Width of the image the tables were computed from. */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** Height of the image the tables were computed from. */
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.emotiondetection.vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of nanosecond durations over a sliding time window.
+ * <p>
+ * Values go into log-linear buckets: exact below 16 ns, then 16 buckets per power of two, so
+ * a reported percentile is within 1/16 (6.25%) of the true value. The window is split into
+ * {@code slices} intervals of equal length, each with its own buckets; a slice is cleared
+ * when time wraps back onto it, so snapshots cover between {@code slices - 1} and
+ * {@code slices} intervals of history. Recording is a bucket computation, an atomic
+ * increment and a compare-and-set on the maximum; it never blocks or allocates.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Largest tracked value is about 2^40 ns (18 minutes); anything longer goes to the top bucket. */
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+    /** Epoch of a slice that has never been written. */
+    private static final long UNUSED = Long.MIN_VALUE;
+
+    private final long mSliceNanos;
+    private final Slice[] mSlices;
+
+    /**
+     * @param windowNanos length of history kept
+     * @param slices      intervals the window is split into; more means smoother expiry
+     */
+    public LatencyHistogram(long windowNanos, int slices) {
+        if (slices < 2 || windowNanos < slices) {
+            throw new IllegalArgumentException("Bad window " + windowNanos + "ns / " + slices);
+        }
+        mSliceNanos = windowNanos / slices;
+        mSlices = new Slice[slices];
+        for (int i = 0; i < slices; i++) {
+            mSlices[i] = new Slice();
+        }
+    }
+
+    /** Records one duration, at the current time. */
+    public void record(long valueNanos) {
+        record(valueNanos, System.nanoTime());
+    }
+
+    /**
+     * Records the time since {@code startNanos} and returns the current time, so consecutive
+     * steps can be timed with one {@code nanoTime} call each.
+     */
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos, now);
+        return now;
+    }
+
+    public void record(long valueNanos, long nowNanos) {
+        final long epoch = Math.floorDiv(nowNanos, mSliceNanos);
+        final Slice slice = mSlices[(int) Math.floorMod(epoch, (long) mSlices.length)];
+        long sliceEpoch = slice.mEpoch.get();
+        if (sliceEpoch != epoch) {
+            if (sliceEpoch > epoch) {
+                // A late value for a slice that has already moved on; drop it.
+                return;
+            }
+            if (slice.mEpoch.compareAndSet(sliceEpoch, epoch)) {
+                slice.reset();
+            }
+        }
+        final long value = Math.max(0, valueNanos);
+        slice.mBuckets.incrementAndGet(bucket(value));
+        long max = slice.mMax.get();
+        while (value > max && !slice.mMax.compareAndSet(max, value)) {
+            max = slice.mMax.get();
+        }
+    }
+
+    /** Merges the slices still inside the window as of now. */
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    public Snapshot snapshot(long nowNanos) {
+        final long epoch = Math.floorDiv(nowNanos, mSliceNanos);
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        long max = 0;
+        for (Slice slice : mSlices) {
+            final long sliceEpoch = slice.mEpoch.get();
+            if (sliceEpoch == UNUSED || epoch - sliceEpoch >= mSlices.length) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = slice.mBuckets.get(i);
+                counts[i] += count;
+                total += count;
+            }
+            max = Math.max(max, slice.mMax.get());
+        }
+        return new Snapshot(counts, total, max);
+    }
+
+    /** Bucket of a non-negative value. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        final int index = (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /** Smallest value falling into {@code bucket}. */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /** Merged bucket counts at one point in time. */
+    public static final class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mMax;
+
+        Snapshot(long[] counts, long count, long max) {
+            mCounts = counts;
+            mCount = count;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMax;
+        }
+
+        /**
+         * Value at percentile {@code p} (0..100), as the middle of its bucket and never above
+         * the maximum; 0 when empty.
+         */
+        public long getPercentileNanos(double p) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(p / 100.0 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    final long low = lowerBound(i);
+                    final long high = i + 1 < BUCKETS ? lowerBound(i + 1) : low;
+                    return Math.min(mMax, (low + high) / 2);
+                }
+            }
+            return mMax;
+        }
+    }
+
+    private static final class Slice {
+        final AtomicLong mEpoch = new AtomicLong(UNUSED);
+        final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong mMax = new AtomicLong();
+
+        /**
+         * Clears the slice for a new interval. Values recorded concurrently by a thread that
+         * saw the old epoch may be lost or kept; either is fine for statistics.
+         */
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mMax.set(0);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.emotiondetection.vision;
+
+import java.util.Arrays;
+
+/**
+ * Latency samples over a sliding window of the most recent {@code capacity} measurements,
+ * with percentiles computed on demand. Recording never allocates.
+ */
+public final class LatencyWindow {
+    private final long[] mSamples;
+    private final long[] mScratch;
+    private int mNext;
+    private int mCount;
+
+    public LatencyWindow(int capacity) {
+        mSamples = new long[capacity];
+        mScratch = new long[capacity];
+    }
+
+    public synchronized void record(long value) {
+        mSamples[mNext] = value;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mCount < mSamples.length) {
+            mCount++;
+        }
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /** Nearest-rank percentile of the window, {@code p} in 0..100; 0 when empty. */
+    public synchronized long percentile(double p) {
+        if (mCount == 0) {
+            return 0;
+        }
+        System.arraycopy(mSamples, 0, mScratch, 0, mCount);
+        Arrays.sort(mScratch, 0, mCount);
+        int rank = (int) Math.ceil(p / 100.0 * mCount);
+        return mScratch[Math.max(0, Math.min(mCount - 1, rank - 1))];
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.emotiondetection.vision;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Finds faces in an upright grayscale image.
+ * <p>
+ * Detectors take a {@link LumaImage} rather than a camera frame, so the same downscaled
+ * luminance the trackers use serves detection too, and a crop of it lets
+ * {@link RegionOfInterestSearch} look for faces only where they were last seen. Boxes come back
+ * in frame pixels whatever the image's scale or crop.
+ */
+public interface LumaFaceDetector {
+
+    /** Short name for logs, e.g. {@code play-services} or {@code haar-cascade}. */
+    String getName();
+
+    /**
+     * Finds faces in {@code image} and writes the {@code maxFaces} largest, largest first, into
+     * {@code boxes} as left, top, width and height in frame pixels (image pixels times
+     * {@link LumaImage#getScale()}). Returns how many were written.
+     */
+    int detect(LumaImage image, float[] boxes, int maxFaces) throws InterruptedException, ExecutionException;
+
+    /**
+     * Like {@link #detect(LumaImage, float[], int)}, but only faces at least
+     * {@code minFaceWidth} frame pixels wide need to be found, which lets detectors that search
+     * size by size skip the smaller ones. By default all sizes are searched.
+     */
+    default int detect(LumaImage image, float minFaceWidth, float[] boxes, int maxFaces)
+            throws InterruptedException, ExecutionException {
+        return detect(image, boxes, maxFaces);
+    }
+
+    /** Frees the detector; later detections find nothing. */
+    void close();
+}
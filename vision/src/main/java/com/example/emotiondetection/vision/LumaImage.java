@@ -0,0 +1,182 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Upright, downscaled grayscale copy of a frame, as a plain byte array.
+ * <p>
+ * Each pixel is the average luminance of a {@code 2^shift x 2^shift} block of the upright
+ * frame, so one image pixel covers {@link #getScale()} frame pixels in each direction. Cheap
+ * enough to rebuild on every frame, and small enough for the pure-Java trackers and
+ * detectors working on it to stay fast. The array is reused across frames. Not thread-safe.
+ */
+public final class LumaImage {
+    private byte[] mPixels = new byte[0];
+    private byte[] mRow = new byte[0];
+    private int[] mSums = new int[0];
+    private int mWidth;
+    private int mHeight;
+    private int mShift;
+
+    /**
+     * Fills the image from the Y plane of {@code frame}, turned upright by
+     * {@code rotationDegrees} and shrunk by {@code 2^shift}. Rows and columns left over at
+     * the bottom and right edge of the camera frame are dropped.
+     */
+    public LumaImage sample(YuvFrame frame, int rotationDegrees, int shift) {
+        final int rotation = YuvConverter.normalizeRotation(rotationDegrees);
+        if (shift < 0 || shift > 4) {
+            throw new IllegalArgumentException("Unsupported shift " + shift);
+        }
+        final int frameWidth = frame.getWidth();
+        final int frameHeight = frame.getHeight();
+        final int block = 1 << shift;
+        final int gridWidth = frameWidth >> shift;
+        final int gridHeight = frameHeight >> shift;
+        final boolean quarterTurn = rotation == 90 || rotation == 270;
+        resize(quarterTurn ? gridHeight : gridWidth, quarterTurn ? gridWidth : gridHeight, shift);
+
+        final ByteBuffer yPlane = frame.getYPlane().duplicate();
+        final int rowStride = frame.getYRowStride();
+        final int pixelStride = frame.getYPixelStride();
+        final int rowLength = (gridWidth * block - 1) * pixelStride + 1;
+        if (mRow.length < rowLength) {
+            mRow = new byte[rowLength];
+        }
+        if (mSums.length < gridWidth) {
+            mSums = new int[gridWidth];
+        }
+        final byte[] row = mRow;
+        final int[] sums = mSums;
+        final byte[] pixels = mPixels;
+
+        for (int gy = 0; gy < gridHeight; gy++) {
+            for (int gx = 0; gx < gridWidth; gx++) {
+                sums[gx] = 0;
+            }
+            for (int r = 0; r < block; r++) {
+                yPlane.limit((gy * block + r) * rowStride + rowLength).position((gy * block + r) * rowStride);
+                yPlane.get(row, 0, rowLength);
+                int index = 0;
+                for (int gx = 0; gx < gridWidth; gx++) {
+                    int sum = 0;
+                    for (int c = 0; c < block; c++) {
+                        sum += row[index] & 0xFF;
+                        index += pixelStride;
+                    }
+                    sums[gx] += sum;
+                }
+            }
+            for (int gx = 0; gx < gridWidth; gx++) {
+                final int value = sums[gx] >> (2 * shift);
+                final int destination;
+                switch (rotation) {
+                    case 90:
+                        destination = gx * gridHeight + (gridHeight - 1 - gy);
+                        break;
+                    case 180:
+                        destination = (gridHeight - 1 - gy) * gridWidth + (gridWidth - 1 - gx);
+                        break;
+                    case 270:
+                        destination = (gridWidth - 1 - gx) * gridHeight + gy;
+                        break;
+                    default:
+                        destination = gy * gridWidth + gx;
+                        break;
+                }
+                pixels[destination] = (byte) value;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Largest shift, up to {@code maxShift}, at which a face {@code minFacePixels} wide in the
+     * frame is still {@code detectorMinFacePixels} wide in the image; 0 when even the full
+     * resolution falls short.
+     */
+    public static int shiftFor(int minFacePixels, int detectorMinFacePixels, int maxShift) {
+        int shift = 0;
+        while (shift < maxShift && (minFacePixels >> (shift + 1)) >= detectorMinFacePixels) {
+            shift++;
+        }
+        return shift;
+    }
+
+    /** Copies the pixels, tightly packed, into {@code out} from index 0, e.g. as the Y plane of an NV21 buffer. */
+    public void copyTo(ByteBuffer out) {
+        if (out.capacity() < mWidth * mHeight) {
+            throw new IllegalArgumentException("Output buffer too small for " + mWidth + "x" + mHeight + " luma");
+        }
+        ByteBuffer target = out.duplicate();
+        target.clear();
+        target.put(mPixels, 0, mWidth * mHeight);
+    }
+
+    /** Points the image at {@code pixels}, already upright and downscaled by {@code 2^shift}. */
+    public LumaImage wrap(byte[] pixels, int width, int height, int shift) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+        }
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        mShift = shift;
+        return this;
+    }
+
+    /**
+     * Fills the image with the {@code width x height} rectangle of {@code source} at
+     * ({@code left}, {@code top}), in source pixels. Keeps the source's shift, so
+     * {@link #getScale()} still maps to frame pixels; add the rectangle's corner times the scale
+     * to get back to frame coordinates.
+     */
+    public LumaImage crop(LumaImage source, int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width < 0 || height < 0
+                || left + width > source.mWidth || top + height > source.mHeight) {
+            throw new IllegalArgumentException("Crop " + width + "x" + height + " at " + left + "," + top
+                    + " outside " + source.mWidth + "x" + source.mHeight + " image");
+        }
+        resize(width, height, source.mShift);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(source.mPixels, (top + y) * source.mWidth + left, mPixels, y * width, width);
+        }
+        return this;
+    }
+
+    private void resize(int width, int height, int shift) {
+        if (mPixels.length < width * height) {
+            mPixels = new byte[width * height];
+        }
+        mWidth = width;
+        mHeight = height;
+        mShift = shift;
+    }
+
+    /** Row-major pixels, {@link #getWidth()} per row; owned by the image. */
+    public byte[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getShift() {
+        return mShift;
+    }
+
+    /** Frame pixels per image pixel, in each direction. */
+    public int getScale() {
+        return 1 << mShift;
+    }
+
+    /** Luminance at ({@code x}, {@code y}), 0..255. */
+    public int get(int x, int y) {
+        return mPixels[y * mWidth + x] & 0xFF;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Grayscale fast path: samples face crops from the luminance plane only.
+ * <p>
+ * Small FER-style models take a single-channel 48x48 or 64x64 input, which needs nothing but
+ * the Y plane; the chroma planes are never read, and neither an RGB frame nor a bitmap is
+ * produced along the way.
+ */
+public final class LumaSampler {
+
+    private LumaSampler() {
+    }
+
+    /**
+     * Bilinearly samples the rectangle ({@code left}, {@code top}, {@code width}, {@code height}),
+     * given in upright frame coordinates, into a {@code outHeight x outWidth} plane of
+     * {@code out} starting at {@code offset}. Each sample goes through {@code lut}, a 256-entry
+     * normalisation table such as {@link PixelNormalizer#table}.
+     */
+    public static void sample(YuvFrame frame, int rotationDegrees,
+                              float left, float top, float width, float height,
+                              int outWidth, int outHeight, float[] lut, FloatBuffer out, int offset) {
+        final int rotation = YuvConverter.normalizeRotation(rotationDegrees);
+        final int frameWidth = frame.getWidth();
+        final int frameHeight = frame.getHeight();
+        if (out.limit() < offset + outWidth * outHeight) {
+            throw new IllegalArgumentException("Output buffer too small for " + outWidth + "x" + outHeight + " crop");
+        }
+
+        final ByteBuffer yPlane = frame.getYPlane();
+        final int yRowStride = frame.getYRowStride();
+        final int yPixelStride = frame.getYPixelStride();
+        final float stepX = width / outWidth;
+        final float stepY = height / outHeight;
+
+        for (int oy = 0; oy < outHeight; oy++) {
+            final float uprightY = top + (oy + 0.5f) * stepY - 0.5f;
+            final int row = offset + oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                final float uprightX = left + (ox + 0.5f) * stepX - 0.5f;
+
+                final float sx = YuvConverter.frameX(rotation, frameWidth, uprightX, uprightY);
+                final float sy = YuvConverter.frameY(rotation, frameHeight, uprightX, uprightY);
+
+                final int y = FaceCropSampler.bilinear(yPlane, yRowStride, yPixelStride,
+                        frameWidth, frameHeight, sx, sy);
+                out.put(row + ox, lut[y]);
+            }
+        }
+    }
+
+    /**
+     * Copies the luminance plane, tightly packed ({@code width * height} bytes, no row padding),
+     * into {@code out} from its position 0. Used to hand a detector a grayscale frame without
+     * touching chroma.
+     */
+    public static void packLuma(YuvFrame frame, ByteBuffer out) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        if (out.capacity() < width * height) {
+            throw new IllegalArgumentException("Output buffer too small for " + width + "x" + height + " luma");
+        }
+        final ByteBuffer yPlane = frame.getYPlane().duplicate();
+        final int yRowStride = frame.getYRowStride();
+        final int yPixelStride = frame.getYPixelStride();
+        if (yPixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                yPlane.limit(row * yRowStride + width).position(row * yRowStride);
+                out.position(row * width);
+                out.put(yPlane);
+            }
+            out.position(0);
+            return;
+        }
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                out.put(row * width + col, yPlane.get(row * yRowStride + col * yPixelStride));
+            }
+        }
+    }
+}
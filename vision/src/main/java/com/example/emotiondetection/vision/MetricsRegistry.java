@@ -0,0 +1,105 @@
+package com.example.emotiondetection.vision;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named {@link LatencyHistogram}s sharing one window, created on first use.
+ * <p>
+ * Look a histogram up once and keep it; {@link #histogram(String)} is a map lookup, the
+ * histogram itself is what's cheap to record into. Summaries report p50/p95/p99/max in
+ * microseconds, in the order the histograms were created.
+ */
+public final class MetricsRegistry {
+    /** A minute of history in six ten-second slices. */
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(60);
+    public static final int DEFAULT_SLICES = 6;
+
+    public static final String CSV_HEADER = "time_ms,metric,count,p50_us,p95_us,p99_us,max_us";
+
+    private final long mWindowNanos;
+    private final int mSlices;
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+    private final List<String> mNames = new CopyOnWriteArrayList<>();
+
+    public MetricsRegistry() {
+        this(DEFAULT_WINDOW_NANOS, DEFAULT_SLICES);
+    }
+
+    public MetricsRegistry(long windowNanos, int slices) {
+        mWindowNanos = windowNanos;
+        mSlices = slices;
+    }
+
+    /** The histogram called {@code name}, created empty the first time. */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        synchronized (mNames) {
+            histogram = mHistograms.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram(mWindowNanos, mSlices);
+                mHistograms.put(name, histogram);
+                mNames.add(name);
+            }
+            return histogram;
+        }
+    }
+
+    /** Histogram names in creation order. */
+    public List<String> getNames() {
+        return new ArrayList<>(mNames);
+    }
+
+    /**
+     * Appends one CSV row per histogram, stamped with {@code timeMs}; write
+     * {@link #CSV_HEADER} first when starting a file.
+     */
+    public void writeCsv(Writer out, long timeMs) throws IOException {
+        final long now = System.nanoTime();
+        StringBuilder row = new StringBuilder(96);
+        for (String name : mNames) {
+            LatencyHistogram.Snapshot snapshot = mHistograms.get(name).snapshot(now);
+            row.setLength(0);
+            row.append(timeMs).append(',').append(name).append(',').append(snapshot.getCount());
+            appendMicros(row.append(','), snapshot.getPercentileNanos(50));
+            appendMicros(row.append(','), snapshot.getPercentileNanos(95));
+            appendMicros(row.append(','), snapshot.getPercentileNanos(99));
+            appendMicros(row.append(','), snapshot.getMaxNanos());
+            out.append(row).append('\n');
+        }
+    }
+
+    /** One line per histogram: {@code name n=.. p50/p95/p99/max=a/b/c/dus}. */
+    @Override
+    public String toString() {
+        final long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        for (String name : mNames) {
+            LatencyHistogram.Snapshot snapshot = mHistograms.get(name).snapshot(now);
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(name).append(" n=").append(snapshot.getCount()).append(" p50/p95/p99/max=");
+            appendMicros(sb, snapshot.getPercentileNanos(50));
+            appendMicros(sb.append('/'), snapshot.getPercentileNanos(95));
+            appendMicros(sb.append('/'), snapshot.getPercentileNanos(99));
+            appendMicros(sb.append('/'), snapshot.getMaxNanos());
+            sb.append("us");
+        }
+        return sb.toString();
+    }
+
+    /** Microseconds with one decimal, without String.format. */
+    private static void appendMicros(StringBuilder sb, long nanos) {
+        long tenths = (nanos + 50) / 100;
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+    }
+}
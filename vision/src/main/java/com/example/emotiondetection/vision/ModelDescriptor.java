@@ -0,0 +1,168 @@
+package com.example.emotiondetection.vision;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+/**
+ * Sidecar description shipped next to a model file ({@code foo.ptl} -> {@code foo.properties}).
+ * <p>
+ * Declares everything the app needs to feed and read the model, so a lighter or differently
+ * trained model can be dropped into {@code assets} without touching code:
+ * <pre>
+ * input.layout=BGR            # BGR, RGB or GRAY, planar
+ * input.width=224
+ * input.height=224
+ * input.mean=0.485,0.456,0.406  # R,G,B order for colour layouts
+ * input.std=0.229,0.224,0.225
+ * input.maxBatch=8            # optional, faces per forward pass, at most ModelInputSpec.MAX_BATCH_SIZE
+ * labels=ANGRY,DISGUST,FEAR,HAPPY,NEUTRAL,SAD,SURPRISE
+ * </pre>
+ * {@code labels} may be replaced by {@code output.classes=N}, in which case classes are shown
+ * as letters ({@code A}, {@code B}, ...); when both are given they must agree.
+ */
+public final class ModelDescriptor {
+    public static final String EXTENSION = ".properties";
+    /** Faces per forward pass when the descriptor doesn't set {@code input.maxBatch}. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+
+    /**
+     * Labels of the bundled emotion model. Parsed labels are interned too, so they can be
+     * compared to these with {@code ==}.
+     */
+    public static final String ANGRY = "ANGRY";
+    public static final String DISGUST = "DISGUST";
+    public static final String FEAR = "FEAR";
+    public static final String HAPPY = "HAPPY";
+    public static final String NEUTRAL = "NEUTRAL";
+    public static final String SAD = "SAD";
+    public static final String SURPRISE = "SURPRISE";
+
+    private final ModelInputSpec mInputSpec;
+    private final String[] mLabels;
+    private final int mMaxBatchSize;
+
+    public ModelDescriptor(ModelInputSpec inputSpec, String[] labels) {
+        this(inputSpec, labels, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public ModelDescriptor(ModelInputSpec inputSpec, String[] labels, int maxBatchSize) {
+        if (labels.length == 0) {
+            throw new IllegalArgumentException("A model needs at least one class");
+        }
+        if (maxBatchSize < 1 || maxBatchSize > ModelInputSpec.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be in 1.." + ModelInputSpec.MAX_BATCH_SIZE
+                    + ": " + maxBatchSize);
+        }
+        mInputSpec = inputSpec;
+        mLabels = labels.clone();
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /** Descriptor of the bundled ImageNet-normalised emotion model. */
+    public static ModelDescriptor defaultEmotionModel(int size) {
+        return new ModelDescriptor(ModelInputSpec.imagenetBgr(size),
+                new String[]{ANGRY, DISGUST, FEAR, HAPPY, NEUTRAL, SAD, SURPRISE});
+    }
+
+    /** Sidecar file name for a model file name, e.g. {@code model.ptl -> model.properties}. */
+    public static String sidecarName(String modelName) {
+        int dot = modelName.lastIndexOf('.');
+        return (dot > 0 ? modelName.substring(0, dot) : modelName) + EXTENSION;
+    }
+
+    public static ModelDescriptor parse(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new InputStreamReader(in, Charset.forName("UTF-8")));
+
+        ModelInputSpec.Layout layout;
+        try {
+            layout = ModelInputSpec.Layout.valueOf(require(properties, "input.layout").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown input.layout " + properties.getProperty("input.layout"), e);
+        }
+        int width = parseInt(properties, "input.width");
+        int height = parseInt(properties, "input.height");
+        double[] mean = parseDoubles(properties, "input.mean");
+        double[] std = parseDoubles(properties, "input.std");
+        int maxBatchSize = properties.getProperty("input.maxBatch") == null
+                ? DEFAULT_MAX_BATCH_SIZE : parseInt(properties, "input.maxBatch");
+
+        String[] labels;
+        String labelList = properties.getProperty("labels");
+        if (labelList != null && !labelList.trim().isEmpty()) {
+            labels = labelList.split(",");
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = labels[i].trim().intern();
+            }
+            String classes = properties.getProperty("output.classes");
+            if (classes != null && parseInt(properties, "output.classes") != labels.length) {
+                throw new IOException("output.classes=" + classes.trim() + " but " + labels.length + " labels");
+            }
+        } else {
+            int classes = parseInt(properties, "output.classes");
+            labels = new String[classes];
+            for (int i = 0; i < classes; i++) {
+                labels[i] = String.valueOf((char) ('A' + i)).intern();
+            }
+        }
+
+        try {
+            return new ModelDescriptor(new ModelInputSpec(layout, width, height, mean, std), labels, maxBatchSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid model descriptor: " + e.getMessage(), e);
+        }
+    }
+
+    public ModelInputSpec getInputSpec() {
+        return mInputSpec;
+    }
+
+    /** Most faces classified in one forward pass; larger groups are cut, smallest faces first. */
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public int getNumClasses() {
+        return mLabels.length;
+    }
+
+    public String getLabel(int index) {
+        if (index >= 0 && index < mLabels.length) {
+            return mLabels[index];
+        }
+        return String.valueOf((char) ('A' + index));
+    }
+
+    private static String require(Properties properties, String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("Model descriptor is missing " + key);
+        }
+        return value;
+    }
+
+    private static int parseInt(Properties properties, String key) throws IOException {
+        String value = require(properties, key);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad integer for " + key + ": " + value, e);
+        }
+    }
+
+    private static double[] parseDoubles(Properties properties, String key) throws IOException {
+        String[] parts = require(properties, key).split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                values[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number for " + key + ": " + parts[i], e);
+            }
+        }
+        return values;
+    }
+}
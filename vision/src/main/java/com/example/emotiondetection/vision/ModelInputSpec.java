@@ -0,0 +1,119 @@
+package com.example.emotiondetection.vision;
+
+import java.util.Arrays;
+
+/**
+ * What an emotion model expects as input: pixel layout, spatial size and normalisation.
+ * <p>
+ * The analysis code picks its preprocessing path from this description, so a model trained
+ * on small grayscale crops gets the luminance-only path while the ImageNet-style models keep
+ * the colour path.
+ */
+public final class ModelInputSpec {
+
+    /** Channel layout of the input tensor, always planar (CHW). */
+    public enum Layout {
+        BGR(3),
+        RGB(3),
+        GRAY(1);
+
+        private final int mChannels;
+
+        Layout(int channels) {
+            mChannels = channels;
+        }
+
+        public int getChannels() {
+            return mChannels;
+        }
+    }
+
+    /**
+     * Largest batch the shape cache covers, and so the upper bound of every descriptor's
+     * {@link ModelDescriptor#getMaxBatchSize()}.
+     */
+    public static final int MAX_BATCH_SIZE = 16;
+
+    private final Layout mLayout;
+    private final int mWidth;
+    private final int mHeight;
+    private final double[] mMean;
+    private final double[] mStd;
+    private final long[][] mShapes = new long[MAX_BATCH_SIZE + 1][];
+
+    /**
+     * @param mean per-channel mean on the 0..1 scale, in the layout's channel order for colour
+     *             models ({@code R, G, B} for both colour layouts) or a single value for GRAY
+     * @param std  per-channel standard deviation, same order as {@code mean}
+     */
+    public ModelInputSpec(Layout layout, int width, int height, double[] mean, double[] std) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid input size " + width + "x" + height);
+        }
+        if (mean.length != layout.getChannels() || std.length != layout.getChannels()) {
+            throw new IllegalArgumentException(layout + " needs " + layout.getChannels() + " mean/std values");
+        }
+        mLayout = layout;
+        mWidth = width;
+        mHeight = height;
+        mMean = mean.clone();
+        mStd = std.clone();
+        for (int n = 1; n <= MAX_BATCH_SIZE; n++) {
+            mShapes[n] = new long[]{n, layout.getChannels(), height, width};
+        }
+    }
+
+    /** The ImageNet-normalised BGR input the bundled MobileNet models use. */
+    public static ModelInputSpec imagenetBgr(int size) {
+        return new ModelInputSpec(Layout.BGR, size, size,
+                new double[]{0.485, 0.456, 0.406},
+                new double[]{0.229, 0.224, 0.225});
+    }
+
+    public Layout getLayout() {
+        return mLayout;
+    }
+
+    public boolean isGrayscale() {
+        return mLayout == Layout.GRAY;
+    }
+
+    public int getChannels() {
+        return mLayout.getChannels();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public double[] getMean() {
+        return mMean.clone();
+    }
+
+    public double[] getStd() {
+        return mStd.clone();
+    }
+
+    /** Number of floats one face occupies in the input tensor. */
+    public int getElementsPerFace() {
+        return getChannels() * mWidth * mHeight;
+    }
+
+    /** Cached {@code [batchSize, C, H, W]} shape; callers must not modify it. */
+    public long[] getShape(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be in 1.." + MAX_BATCH_SIZE + ": " + batchSize);
+        }
+        return mShapes[batchSize];
+    }
+
+    @Override
+    public String toString() {
+        return "ModelInputSpec{" + mLayout + " " + mWidth + "x" + mHeight
+                + ", mean=" + Arrays.toString(mMean) + ", std=" + Arrays.toString(mStd) + "}";
+    }
+}
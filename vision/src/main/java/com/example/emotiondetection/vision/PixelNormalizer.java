@@ -0,0 +1,78 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Per-channel mean/std normalisation backed by 256-entry lookup tables.
+ * <p>
+ * Each table entry is computed once with the exact double-precision expression
+ * {@code (float) ((value / 255.0 - mean) / std)} the per-pixel code used to evaluate, so the
+ * lookups are bit-for-bit identical to it while costing a single array read.
+ */
+public final class PixelNormalizer {
+
+    /** ImageNet statistics the bundled emotion models were trained with. */
+    public static final PixelNormalizer IMAGENET = new PixelNormalizer(
+            new double[]{0.485, 0.456, 0.406},
+            new double[]{0.229, 0.224, 0.225});
+
+    private final float[] mRed;
+    private final float[] mGreen;
+    private final float[] mBlue;
+
+    /**
+     * @param meanRgb per-channel mean in R, G, B order, on the 0..1 scale
+     * @param stdRgb  per-channel standard deviation in R, G, B order
+     */
+    public PixelNormalizer(double[] meanRgb, double[] stdRgb) {
+        if (meanRgb.length != 3 || stdRgb.length != 3) {
+            throw new IllegalArgumentException("Expected 3 mean and 3 std values");
+        }
+        mRed = table(meanRgb[0], stdRgb[0]);
+        mGreen = table(meanRgb[1], stdRgb[1]);
+        mBlue = table(meanRgb[2], stdRgb[2]);
+    }
+
+    /** Lookup table mapping an 8-bit sample to {@code (value / 255 - mean) / std}. */
+    public static float[] table(double mean, double std) {
+        float[] table = new float[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = (float) ((value / 255.0 - mean) / std);
+        }
+        return table;
+    }
+
+    public float red(int value) {
+        return mRed[value];
+    }
+
+    public float green(int value) {
+        return mGreen[value];
+    }
+
+    public float blue(int value) {
+        return mBlue[value];
+    }
+
+    /**
+     * Normalises row-major ARGB_8888 pixels into a B, G, R planar (CHW) tensor starting at
+     * {@code offset}, walking the pixels in memory order.
+     */
+    public void argbToBgrChw(int[] pixels, int width, int height, FloatBuffer out, int offset) {
+        final int planeSize = width * height;
+        if (pixels.length < planeSize) {
+            throw new IllegalArgumentException("Pixel buffer too small: " + pixels.length + " < " + planeSize);
+        }
+        final float[] red = mRed;
+        final float[] green = mGreen;
+        final float[] blue = mBlue;
+        final int greenOffset = offset + planeSize;
+        final int redOffset = offset + 2 * planeSize;
+        for (int i = 0; i < planeSize; i++) {
+            final int colour = pixels[i];
+            out.put(offset + i, blue[colour & 0xFF]);
+            out.put(greenOffset + i, green[(colour >> 8) & 0xFF]);
+            out.put(redOffset + i, red[(colour >> 16) & 0xFF]);
+        }
+    }
+}
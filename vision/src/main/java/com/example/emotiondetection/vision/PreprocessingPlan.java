@@ -0,0 +1,127 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A {@link ModelDescriptor} compiled for the analysis loop.
+ * <p>
+ * Built once when a model is loaded: the normalisation lookup tables are computed, the
+ * sampling path (colour or luminance-only) is chosen, the per-frame {@link Recognition} is
+ * allocated and the input pool is primed, so the per-frame code only reads from it.
+ */
+public final class PreprocessingPlan {
+    /** Classes ranked per face in {@link #getRecognition()}. */
+    public static final int TOP_K = 3;
+
+    private final ModelDescriptor mDescriptor;
+    private final ModelInputSpec mSpec;
+    private final FloatBufferPool mPool;
+    private final int mMaxBatchSize;
+    private final PixelNormalizer mColourNormalizer;
+    private final float[] mLumaTable;
+    private final boolean mBgr;
+    private final Recognition mRecognition;
+    private final StripedExecutor mExecutor;
+
+    /** Plan batching up to the descriptor's {@link ModelDescriptor#getMaxBatchSize()} faces. */
+    public PreprocessingPlan(ModelDescriptor descriptor, FloatBufferPool pool, StripedExecutor executor) {
+        this(descriptor, pool, descriptor.getMaxBatchSize(), executor);
+    }
+
+    /** Plan batching at most {@code maxBatchSize} faces, and never more than the descriptor allows. */
+    public PreprocessingPlan(ModelDescriptor descriptor, FloatBufferPool pool, int maxBatchSize) {
+        this(descriptor, pool, maxBatchSize, null);
+    }
+
+    /** @param executor splits large colour crops across threads; null keeps them on the caller */
+    public PreprocessingPlan(ModelDescriptor descriptor, FloatBufferPool pool, int maxBatchSize,
+                             StripedExecutor executor) {
+        mDescriptor = descriptor;
+        mSpec = descriptor.getInputSpec();
+        mPool = pool;
+        mMaxBatchSize = Math.min(maxBatchSize, descriptor.getMaxBatchSize());
+        mExecutor = executor;
+
+        double[] mean = mSpec.getMean();
+        double[] std = mSpec.getStd();
+        if (mSpec.isGrayscale()) {
+            mLumaTable = PixelNormalizer.table(mean[0], std[0]);
+            mColourNormalizer = null;
+        } else {
+            mLumaTable = null;
+            mColourNormalizer = new PixelNormalizer(mean, std);
+        }
+        mBgr = mSpec.getLayout() == ModelInputSpec.Layout.BGR;
+
+        mRecognition = new Recognition(mMaxBatchSize, descriptor.getNumClasses(),
+                Math.min(TOP_K, descriptor.getNumClasses()));
+
+        // Allocate the single-face input up front so the first frame doesn't pay for it.
+        pool.release(pool.acquire(mSpec.getShape(1)));
+    }
+
+    public ModelDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    public ModelInputSpec getInputSpec() {
+        return mSpec;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /** Result of the last batch, reused for every frame; owned by the plan. */
+    public Recognition getRecognition() {
+        return mRecognition;
+    }
+
+    public FloatBufferPool.Lease acquire(int batchSize) {
+        if (batchSize > mMaxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + batchSize + " exceeds " + mMaxBatchSize);
+        }
+        return mPool.acquire(mSpec.getShape(batchSize));
+    }
+
+    public void release(FloatBufferPool.Lease lease) {
+        mPool.release(lease);
+    }
+
+    /**
+     * Samples one face, given in upright frame coordinates, into slot {@code faceIndex} of a
+     * batched input tensor.
+     */
+    public void sampleFace(YuvFrame frame, int rotationDegrees,
+                           float left, float top, float width, float height,
+                           FloatBuffer out, int faceIndex) {
+        final int offset = faceIndex * mSpec.getElementsPerFace();
+        if (mLumaTable != null) {
+            LumaSampler.sample(frame, rotationDegrees, left, top, width, height,
+                    mSpec.getWidth(), mSpec.getHeight(), mLumaTable, out, offset);
+        } else if (mExecutor != null) {
+            FaceCropSampler.sample(frame, rotationDegrees, left, top, width, height,
+                    mSpec.getWidth(), mSpec.getHeight(), mColourNormalizer, mBgr, out, offset, mExecutor);
+        } else {
+            FaceCropSampler.sample(frame, rotationDegrees, left, top, width, height,
+                    mSpec.getWidth(), mSpec.getHeight(), mColourNormalizer, mBgr, out, offset);
+        }
+    }
+
+    /**
+     * Samples one face from an upright {@code width x height} ARGB image, such as a decoded
+     * video frame, into slot {@code faceIndex} of a batched input tensor.
+     */
+    public void sampleFace(int[] argb, int imageWidth, int imageHeight,
+                           float left, float top, float width, float height,
+                           FloatBuffer out, int faceIndex) {
+        final int offset = faceIndex * mSpec.getElementsPerFace();
+        if (mLumaTable != null) {
+            ArgbCropSampler.sampleLuma(argb, imageWidth, imageHeight, left, top, width, height,
+                    mSpec.getWidth(), mSpec.getHeight(), mLumaTable, out, offset);
+        } else {
+            ArgbCropSampler.sample(argb, imageWidth, imageHeight, left, top, width, height,
+                    mSpec.getWidth(), mSpec.getHeight(), mColourNormalizer, mBgr, out, offset);
+        }
+    }
+}
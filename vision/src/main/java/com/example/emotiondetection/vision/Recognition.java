@@ -0,0 +1,194 @@
+package com.example.emotiondetection.vision;
+
+/**
+ * Reusable result of classifying a batch of faces: softmax probabilities for every class,
+ * the {@code k} most likely classes per face, and how long each step took.
+ * <p>
+ * All arrays are allocated once for {@code maxFaces x numClasses}; filling a result with
+ * {@link #setLogits} allocates nothing, so one instance can be kept per model and reused for
+ * every frame. Not thread-safe.
+ */
+public final class Recognition {
+
+    /** Steps timed for each result. */
+    public enum Step {
+        PREPROCESS,
+        INFERENCE,
+        POSTPROCESS
+    }
+
+    private static final int STEP_COUNT = 3;
+
+    private final int mMaxFaces;
+    private final int mNumClasses;
+    private final int mK;
+    private final float[] mProbabilities;
+    private final int[] mTopClasses;
+    private final float[] mTopProbabilities;
+    private final long[] mStepNanos = new long[STEP_COUNT];
+    private int mFaceCount;
+
+    public Recognition(int maxFaces, int numClasses, int k) {
+        if (k < 1 || k > numClasses) {
+            throw new IllegalArgumentException("k must be in 1.." + numClasses + ": " + k);
+        }
+        mMaxFaces = maxFaces;
+        mNumClasses = numClasses;
+        mK = k;
+        mProbabilities = new float[maxFaces * numClasses];
+        mTopClasses = new int[maxFaces * k];
+        mTopProbabilities = new float[maxFaces * k];
+    }
+
+    public int getMaxFaces() {
+        return mMaxFaces;
+    }
+
+    public int getNumClasses() {
+        return mNumClasses;
+    }
+
+    public int getK() {
+        return mK;
+    }
+
+    public int getFaceCount() {
+        return mFaceCount;
+    }
+
+    /**
+     * Fills the result from raw model output: {@code faces} rows of {@code numClasses} logits
+     * starting at {@code offset}. Probabilities and top-k are computed for each face.
+     */
+    public void setLogits(float[] logits, int offset, int faces) {
+        checkFaces(faces);
+        mFaceCount = faces;
+        for (int face = 0; face < faces; face++) {
+            softmax(logits, offset + face * mNumClasses, mProbabilities, face * mNumClasses, mNumClasses);
+            updateTopK(face);
+        }
+    }
+
+    /**
+     * Fills face {@code face} alone from {@code numClasses} logits at {@code offset}, leaving
+     * the face count unchanged. Different faces may be filled from different threads.
+     */
+    public void setFaceLogits(int face, float[] logits, int offset) {
+        checkFaces(face + 1);
+        softmax(logits, offset, mProbabilities, face * mNumClasses, mNumClasses);
+        updateTopK(face);
+    }
+
+    /**
+     * Checks that a forward pass over {@code faces} faces returned exactly {@code numClasses}
+     * logits per face, i.e. that the model matches its descriptor.
+     */
+    public void checkLogits(float[] logits, int faces) {
+        if (logits.length != faces * mNumClasses) {
+            throw new IllegalArgumentException("Model returned " + logits.length + " logits for " + faces
+                    + " faces, its descriptor declares " + mNumClasses + " classes");
+        }
+    }
+
+    /** Sets the number of faces when probabilities are written directly into {@link #getProbabilities()}. */
+    public void setFaceCount(int faces) {
+        checkFaces(faces);
+        mFaceCount = faces;
+    }
+
+    /**
+     * Probabilities of face {@code i} at {@code [i * numClasses, (i + 1) * numClasses)}; owned
+     * by the result. Call {@link #updateTopK(int)} after writing into it.
+     */
+    public float[] getProbabilities() {
+        return mProbabilities;
+    }
+
+    public float getProbability(int face, int classIndex) {
+        return mProbabilities[face * mNumClasses + classIndex];
+    }
+
+    /** Most likely class of {@code face}. */
+    public int getBestClass(int face) {
+        return mTopClasses[face * mK];
+    }
+
+    /** Class at {@code rank} (0 = most likely) for {@code face}. */
+    public int getTopClass(int face, int rank) {
+        return mTopClasses[face * mK + rank];
+    }
+
+    public float getTopProbability(int face, int rank) {
+        return mTopProbabilities[face * mK + rank];
+    }
+
+    /** Recomputes the top-k of {@code face} from its probabilities. */
+    public void updateTopK(int face) {
+        final int base = face * mNumClasses;
+        final int top = face * mK;
+        int filled = 0;
+        for (int c = 0; c < mNumClasses; c++) {
+            final float p = mProbabilities[base + c];
+            if (filled == mK && p <= mTopProbabilities[top + mK - 1]) {
+                continue;
+            }
+            // Insertion into the descending top-k list; ties keep the lower class first.
+            int pos = filled < mK ? filled++ : mK - 1;
+            while (pos > 0 && p > mTopProbabilities[top + pos - 1]) {
+                mTopProbabilities[top + pos] = mTopProbabilities[top + pos - 1];
+                mTopClasses[top + pos] = mTopClasses[top + pos - 1];
+                pos--;
+            }
+            mTopProbabilities[top + pos] = p;
+            mTopClasses[top + pos] = c;
+        }
+    }
+
+    public void setStepNanos(Step step, long nanos) {
+        mStepNanos[step.ordinal()] = nanos;
+    }
+
+    public long getStepNanos(Step step) {
+        return mStepNanos[step.ordinal()];
+    }
+
+    public long getStepMs(Step step) {
+        return mStepNanos[step.ordinal()] / 1000000;
+    }
+
+    /** Sum of all timed steps, in milliseconds. */
+    public long getTotalMs() {
+        long total = 0;
+        for (long nanos : mStepNanos) {
+            total += nanos;
+        }
+        return total / 1000000;
+    }
+
+    /**
+     * Numerically stable softmax of {@code count} values; {@code in} and {@code out} may be the
+     * same array.
+     */
+    public static void softmax(float[] in, int inOffset, float[] out, int outOffset, int count) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, in[inOffset + i]);
+        }
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            final float e = (float) Math.exp(in[inOffset + i] - max);
+            out[outOffset + i] = e;
+            sum += e;
+        }
+        final float scale = 1f / sum;
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] *= scale;
+        }
+    }
+
+    private void checkFaces(int faces) {
+        if (faces < 0 || faces > mMaxFaces) {
+            throw new IllegalArgumentException("Face count must be in 0.." + mMaxFaces + ": " + faces);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.example.emotiondetection.vision;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A small convolutional network evaluated in plain Java, with no native code.
+ * <p>
+ * Supports the layers a compact classifier needs: convolution (optionally followed by ReLU),
+ * max pooling, global average pooling and fully connected layers. Convolutions are lowered to
+ * a matrix product (im2col) computed in cache-sized tiles, so the weights and the unrolled
+ * patches being multiplied stay in L1/L2. All activations live in arrays allocated when the
+ * network is built; a forward pass allocates nothing.
+ * <p>
+ * Networks are built with {@link Builder} or read from a weights file ({@code *.cnn}), a
+ * big-endian stream of:
+ * <pre>
+ * int magic 'ECNN', int version 1, int channels, int height, int width, int layerCount
+ * per layer: int type, then
+ *   CONV:   int outChannels, int kernel, int stride, int padding, int relu,
+ *           float[outChannels * inChannels * kernel * kernel] weights, float[outChannels] bias
+ *   MAXPOOL: int kernel, int stride
+ *   GLOBAL_AVG_POOL: nothing
+ *   DENSE:  int outputs, int relu, float[outputs * inputs] weights, float[outputs] bias
+ * </pre>
+ * Not thread-safe; {@link #forward} is synchronized.
+ */
+public final class ReferenceCnnBackend implements InferenceBackend {
+    public static final String EXTENSION = ".cnn";
+    public static final String NAME = "reference-cnn";
+
+    private static final int MAGIC = 0x45434E4E;
+    private static final int VERSION = 1;
+    private static final int TYPE_CONV = 1;
+    private static final int TYPE_MAX_POOL = 2;
+    private static final int TYPE_GLOBAL_AVG_POOL = 3;
+    private static final int TYPE_DENSE = 4;
+
+    /** Tile sizes of the convolution product: output pixels and reduction depth per block. */
+    private static final int PIXEL_BLOCK = 256;
+    private static final int DEPTH_BLOCK = 64;
+
+    private final int mChannels;
+    private final int mHeight;
+    private final int mWidth;
+    private final Layer[] mLayers;
+    private final int mNumClasses;
+
+    private final float[] mPing;
+    private final float[] mPong;
+    private final float[] mColumns;
+    private float[] mOutput = new float[0];
+
+    private ReferenceCnnBackend(int channels, int height, int width, List<Layer> layers) {
+        mChannels = channels;
+        mHeight = height;
+        mWidth = width;
+        mLayers = layers.toArray(new Layer[0]);
+
+        int c = channels;
+        int h = height;
+        int w = width;
+        int maxActivation = c * h * w;
+        int maxColumns = 0;
+        for (Layer layer : mLayers) {
+            layer.bind(c, h, w);
+            maxColumns = Math.max(maxColumns, layer.columnsSize());
+            c = layer.mOutChannels;
+            h = layer.mOutHeight;
+            w = layer.mOutWidth;
+            maxActivation = Math.max(maxActivation, c * h * w);
+        }
+        if (h != 1 || w != 1) {
+            throw new IllegalArgumentException("Network must end in a vector, got " + c + "x" + h + "x" + w);
+        }
+        mNumClasses = c;
+        mPing = new float[maxActivation];
+        mPong = new float[maxActivation];
+        mColumns = new float[maxColumns];
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public int getNumClasses() {
+        return mNumClasses;
+    }
+
+    /** True when this network takes the input described by {@code spec}. */
+    public boolean accepts(ModelInputSpec spec) {
+        return spec.getChannels() == mChannels && spec.getHeight() == mHeight && spec.getWidth() == mWidth;
+    }
+
+    @Override
+    public synchronized float[] forward(FloatBufferPool.Lease input) {
+        final long[] shape = input.getShape();
+        if (shape.length != 4 || shape[1] != mChannels || shape[2] != mHeight || shape[3] != mWidth) {
+            throw new IllegalArgumentException("Input shape does not match the network");
+        }
+        final int batch = (int) shape[0];
+        if (mOutput.length < batch * mNumClasses) {
+            mOutput = new float[batch * mNumClasses];
+        }
+
+        final FloatBuffer buffer = input.getBuffer();
+        final int faceSize = mChannels * mHeight * mWidth;
+        final int position = buffer.position();
+        for (int face = 0; face < batch; face++) {
+            buffer.position(face * faceSize);
+            buffer.get(mPing, 0, faceSize);
+            float[] in = mPing;
+            float[] out = mPong;
+            for (Layer layer : mLayers) {
+                layer.forward(in, out, mColumns);
+                float[] swap = in;
+                in = out;
+                out = swap;
+            }
+            System.arraycopy(in, 0, mOutput, face * mNumClasses, mNumClasses);
+        }
+        buffer.position(position);
+        return mOutput;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** Name of the weights file shipped next to {@code modelName} as its pure-Java fallback. */
+    public static String weightsName(String modelName) {
+        int dot = modelName.lastIndexOf('.');
+        return (dot > 0 ? modelName.substring(0, dot) : modelName) + EXTENSION;
+    }
+
+    /** Reads a network from a weights file. */
+    public static ReferenceCnnBackend read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a reference CNN weights file");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported weights file version " + version);
+        }
+        Builder builder = new Builder(data.readInt(), data.readInt(), data.readInt());
+        int layers = data.readInt();
+        try {
+            for (int i = 0; i < layers; i++) {
+                int type = data.readInt();
+                switch (type) {
+                    case TYPE_CONV: {
+                        int outChannels = data.readInt();
+                        int kernel = data.readInt();
+                        int stride = data.readInt();
+                        int padding = data.readInt();
+                        boolean relu = data.readInt() != 0;
+                        float[] weights = readFloats(data, outChannels * builder.mChannels * kernel * kernel);
+                        float[] bias = readFloats(data, outChannels);
+                        builder.conv(outChannels, kernel, stride, padding, relu, weights, bias);
+                        break;
+                    }
+                    case TYPE_MAX_POOL:
+                        builder.maxPool(data.readInt(), data.readInt());
+                        break;
+                    case TYPE_GLOBAL_AVG_POOL:
+                        builder.globalAvgPool();
+                        break;
+                    case TYPE_DENSE: {
+                        int outputs = data.readInt();
+                        boolean relu = data.readInt() != 0;
+                        float[] weights = readFloats(data, outputs * builder.getFlattenedSize());
+                        float[] bias = readFloats(data, outputs);
+                        builder.dense(outputs, relu, weights, bias);
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown layer type " + type);
+                }
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid network: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * An untrained network for {@code spec} with He-initialised weights: three strided 3x3
+     * convolutions with pooling, global average pooling and a classifier. Its scores mean
+     * nothing, but its cost and shapes are those of a small real model, which is what tests
+     * and benchmarks need.
+     */
+    public static ReferenceCnnBackend random(ModelInputSpec spec, int numClasses, long seed) {
+        Random random = new Random(seed);
+        Builder builder = new Builder(spec.getChannels(), spec.getHeight(), spec.getWidth());
+        int[] widths = {16, 32, 64};
+        for (int i = 0; i < widths.length; i++) {
+            int fanIn = builder.getChannels() * 9;
+            builder.conv(widths[i], 3, 2, 1, true,
+                    gaussian(random, widths[i] * fanIn, fanIn), new float[widths[i]]);
+            if (i < widths.length - 1) {
+                builder.maxPool(2, 2);
+            }
+        }
+        builder.globalAvgPool();
+        int inputs = builder.getFlattenedSize();
+        return builder.dense(numClasses, false, gaussian(random, numClasses * inputs, inputs),
+                new float[numClasses]).build();
+    }
+
+    /** Writes the network in the format {@link #read} expects. */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(mChannels);
+        data.writeInt(mHeight);
+        data.writeInt(mWidth);
+        data.writeInt(mLayers.length);
+        for (Layer layer : mLayers) {
+            layer.write(data);
+        }
+        data.flush();
+    }
+
+    private static float[] readFloats(DataInputStream data, int count) throws IOException {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = data.readFloat();
+        }
+        return values;
+    }
+
+    private static float[] gaussian(Random random, int count, int fanIn) {
+        final double scale = Math.sqrt(2.0 / fanIn);
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (float) (random.nextGaussian() * scale);
+        }
+        return values;
+    }
+
+    private static void writeFloats(DataOutputStream data, float[] values) throws IOException {
+        for (float value : values) {
+            data.writeFloat(value);
+        }
+    }
+
+    /** Assembles a network layer by layer, tracking the activation shape. */
+    public static final class Builder {
+        private final int mInputChannels;
+        private final int mInputHeight;
+        private final int mInputWidth;
+        private final List<Layer> mLayers = new ArrayList<>();
+        private int mChannels;
+        private int mHeight;
+        private int mWidth;
+
+        public Builder(int channels, int height, int width) {
+            mInputChannels = channels;
+            mInputHeight = height;
+            mInputWidth = width;
+            mChannels = channels;
+            mHeight = height;
+            mWidth = width;
+        }
+
+        /** Convolution with {@code weights[out][in][ky][kx]} flattened in that order. */
+        public Builder conv(int outChannels, int kernel, int stride, int padding, boolean relu,
+                            float[] weights, float[] bias) {
+            return add(new Conv(outChannels, kernel, stride, padding, relu, weights, bias));
+        }
+
+        public Builder maxPool(int kernel, int stride) {
+            return add(new MaxPool(kernel, stride));
+        }
+
+        public Builder globalAvgPool() {
+            return add(new GlobalAvgPool());
+        }
+
+        /** Fully connected layer over the flattened activation, {@code weights[out][in]}. */
+        public Builder dense(int outputs, boolean relu, float[] weights, float[] bias) {
+            return add(new Dense(outputs, relu, weights, bias));
+        }
+
+        /** Channels of the activation the next layer receives. */
+        public int getChannels() {
+            return mChannels;
+        }
+
+        /** Inputs of a dense layer added next. */
+        public int getFlattenedSize() {
+            return mChannels * mHeight * mWidth;
+        }
+
+        public ReferenceCnnBackend build() {
+            return new ReferenceCnnBackend(mInputChannels, mInputHeight, mInputWidth, mLayers);
+        }
+
+        private Builder add(Layer layer) {
+            layer.bind(mChannels, mHeight, mWidth);
+            mLayers.add(layer);
+            mChannels = layer.mOutChannels;
+            mHeight = layer.mOutHeight;
+            mWidth = layer.mOutWidth;
+            return this;
+        }
+    }
+
+    private abstract static class Layer {
+        int mInChannels;
+        int mInHeight;
+        int mInWidth;
+        int mOutChannels;
+        int mOutHeight;
+        int mOutWidth;
+
+        /** Fixes the input shape and computes the output shape; throws if they don't fit. */
+        abstract void bind(int channels, int height, int width);
+
+        /** Reads a {@code C x H x W} activation from {@code in} and writes the output to {@code out}. */
+        abstract void forward(float[] in, float[] out, float[] columns);
+
+        abstract void write(DataOutputStream data) throws IOException;
+
+        int columnsSize() {
+            return 0;
+        }
+    }
+
+    private static final class Conv extends Layer {
+        final int mKernel;
+        final int mStride;
+        final int mPadding;
+        final boolean mRelu;
+        final float[] mWeights;
+        final float[] mBias;
+
+        Conv(int outChannels, int kernel, int stride, int padding, boolean relu, float[] weights, float[] bias) {
+            if (kernel < 1 || stride < 1 || padding < 0) {
+                throw new IllegalArgumentException("Bad convolution " + kernel + "/" + stride + "/" + padding);
+            }
+            mOutChannels = outChannels;
+            mKernel = kernel;
+            mStride = stride;
+            mPadding = padding;
+            mRelu = relu;
+            mWeights = weights;
+            mBias = bias;
+        }
+
+        @Override
+        void bind(int channels, int height, int width) {
+            mInChannels = channels;
+            mInHeight = height;
+            mInWidth = width;
+            mOutHeight = (height + 2 * mPadding - mKernel) / mStride + 1;
+            mOutWidth = (width + 2 * mPadding - mKernel) / mStride + 1;
+            if (mOutHeight < 1 || mOutWidth < 1) {
+                throw new IllegalArgumentException("Convolution larger than its " + height + "x" + width + " input");
+            }
+            if (mWeights.length != mOutChannels * channels * mKernel * mKernel || mBias.length != mOutChannels) {
+                throw new IllegalArgumentException("Convolution weights don't match " + channels + " -> " + mOutChannels);
+            }
+        }
+
+        @Override
+        int columnsSize() {
+            return mInChannels * mKernel * mKernel * mOutHeight * mOutWidth;
+        }
+
+        @Override
+        void forward(float[] in, float[] out, float[] columns) {
+            final int pixels = mOutHeight * mOutWidth;
+            final int depth = mInChannels * mKernel * mKernel;
+            im2col(in, columns);
+
+            for (int oc = 0; oc < mOutChannels; oc++) {
+                final float bias = mBias[oc];
+                final int row = oc * pixels;
+                for (int p = 0; p < pixels; p++) {
+                    out[row + p] = bias;
+                }
+            }
+
+            // out[oc][p] += weights[oc][d] * columns[d][p], tiled so a block of columns is
+            // reused by every output channel while it is still in cache.
+            for (int p0 = 0; p0 < pixels; p0 += PIXEL_BLOCK) {
+                final int p1 = Math.min(pixels, p0 + PIXEL_BLOCK);
+                for (int d0 = 0; d0 < depth; d0 += DEPTH_BLOCK) {
+                    final int d1 = Math.min(depth, d0 + DEPTH_BLOCK);
+                    for (int oc = 0; oc < mOutChannels; oc++) {
+                        final int weightRow = oc * depth;
+                        final int outRow = oc * pixels;
+                        for (int d = d0; d < d1; d++) {
+                            final float weight = mWeights[weightRow + d];
+                            if (weight == 0f) {
+                                continue;
+                            }
+                            final int columnRow = d * pixels;
+                            for (int p = p0; p < p1; p++) {
+                                out[outRow + p] += weight * columns[columnRow + p];
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (mRelu) {
+                final int size = mOutChannels * pixels;
+                for (int i = 0; i < size; i++) {
+                    if (out[i] < 0f) {
+                        out[i] = 0f;
+                    }
+                }
+            }
+        }
+
+        /** Unrolls every receptive field into a column: {@code columns[(c, ky, kx)][(oy, ox)]}. */
+        private void im2col(float[] in, float[] columns) {
+            final int pixels = mOutHeight * mOutWidth;
+            int d = 0;
+            for (int c = 0; c < mInChannels; c++) {
+                final int plane = c * mInHeight * mInWidth;
+                for (int ky = 0; ky < mKernel; ky++) {
+                    for (int kx = 0; kx < mKernel; kx++, d++) {
+                        int index = d * pixels;
+                        for (int oy = 0; oy < mOutHeight; oy++) {
+                            final int y = oy * mStride + ky - mPadding;
+                            if (y < 0 || y >= mInHeight) {
+                                for (int ox = 0; ox < mOutWidth; ox++) {
+                                    columns[index++] = 0f;
+                                }
+                                continue;
+                            }
+                            final int row = plane + y * mInWidth;
+                            for (int ox = 0; ox < mOutWidth; ox++) {
+                                final int x = ox * mStride + kx - mPadding;
+                                columns[index++] = x < 0 || x >= mInWidth ? 0f : in[row + x];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(TYPE_CONV);
+            data.writeInt(mOutChannels);
+            data.writeInt(mKernel);
+            data.writeInt(mStride);
+            data.writeInt(mPadding);
+            data.writeInt(mRelu ? 1 : 0);
+            writeFloats(data, mWeights);
+            writeFloats(data, mBias);
+        }
+    }
+
+    private static final class MaxPool extends Layer {
+        final int mKernel;
+        final int mStride;
+
+        MaxPool(int kernel, int stride) {
+            if (kernel < 1 || stride < 1) {
+                throw new IllegalArgumentException("Bad pooling " + kernel + "/" + stride);
+            }
+            mKernel = kernel;
+            mStride = stride;
+        }
+
+        @Override
+        void bind(int channels, int height, int width) {
+            mInChannels = channels;
+            mInHeight = height;
+            mInWidth = width;
+            mOutChannels = channels;
+            mOutHeight = (height - mKernel) / mStride + 1;
+            mOutWidth = (width - mKernel) / mStride + 1;
+            if (mOutHeight < 1 || mOutWidth < 1) {
+                throw new IllegalArgumentException("Pooling larger than its " + height + "x" + width + " input");
+            }
+        }
+
+        @Override
+        void forward(float[] in, float[] out, float[] columns) {
+            int index = 0;
+            for (int c = 0; c < mInChannels; c++) {
+                final int plane = c * mInHeight * mInWidth;
+                for (int oy = 0; oy < mOutHeight; oy++) {
+                    for (int ox = 0; ox < mOutWidth; ox++) {
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (int ky = 0; ky < mKernel; ky++) {
+                            final int row = plane + (oy * mStride + ky) * mInWidth + ox * mStride;
+                            for (int kx = 0; kx < mKernel; kx++) {
+                                max = Math.max(max, in[row + kx]);
+                            }
+                        }
+                        out[index++] = max;
+                    }
+                }
+            }
+        }
+
+        @Override
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(TYPE_MAX_POOL);
+            data.writeInt(mKernel);
+            data.writeInt(mStride);
+        }
+    }
+
+    private static final class GlobalAvgPool extends Layer {
+        @Override
+        void bind(int channels, int height, int width) {
+            mInChannels = channels;
+            mInHeight = height;
+            mInWidth = width;
+            mOutChannels = channels;
+            mOutHeight = 1;
+            mOutWidth = 1;
+        }
+
+        @Override
+        void forward(float[] in, float[] out, float[] columns) {
+            final int plane = mInHeight * mInWidth;
+            for (int c = 0; c < mInChannels; c++) {
+                float sum = 0f;
+                for (int i = c * plane, end = i + plane; i < end; i++) {
+                    sum += in[i];
+                }
+                out[c] = sum / plane;
+            }
+        }
+
+        @Override
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(TYPE_GLOBAL_AVG_POOL);
+        }
+    }
+
+    private static final class Dense extends Layer {
+        final boolean mRelu;
+        final float[] mWeights;
+        final float[] mBias;
+
+        Dense(int outputs, boolean relu, float[] weights, float[] bias) {
+            mOutChannels = outputs;
+            mRelu = relu;
+            mWeights = weights;
+            mBias = bias;
+        }
+
+        @Override
+        void bind(int channels, int height, int width) {
+            mInChannels = channels;
+            mInHeight = height;
+            mInWidth = width;
+            mOutHeight = 1;
+            mOutWidth = 1;
+            if (mWeights.length != mOutChannels * channels * height * width || mBias.length != mOutChannels) {
+                throw new IllegalArgumentException("Dense weights don't match " + channels * height * width
+                        + " -> " + mOutChannels);
+            }
+        }
+
+        @Override
+        void forward(float[] in, float[] out, float[] columns) {
+            final int inputs = mInChannels * mInHeight * mInWidth;
+            for (int o = 0; o < mOutChannels; o++) {
+                float sum = mBias[o];
+                final int row = o * inputs;
+                for (int i = 0; i < inputs; i++) {
+                    sum += mWeights[row + i] * in[i];
+                }
+                out[o] = mRelu && sum < 0f ? 0f : sum;
+            }
+        }
+
+        @Override
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(TYPE_DENSE);
+            data.writeInt(mOutChannels);
+            data.writeInt(mRelu ? 1 : 0);
+            writeFloats(data, mWeights);
+            writeFloats(data, mBias);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.emotiondetection.vision;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Searches for faces around where they were last found before searching the whole image.
+ * <p>
+ * The region of interest is the bounding box of the last faces found, grown on every side by
+ * {@code margin} times their size. {@link #search} crops it out of the {@link LumaImage} and
+ * runs the detector on the crop alone, for faces at least {@link #MIN_FACE_RATIO} of the
+ * smallest one found last time; when it finds at least as many faces as before, they
+ * are the result. Otherwise it returns -1 and the caller scans the full image, then reports
+ * the faces with {@link #onFullScan}. A full scan is also asked for when no face was found
+ * last time, and every {@code fullScanInterval} detections, so faces entering the frame away
+ * from the others are picked up.
+ * <p>
+ * Hits, misses and full scans are counted, with the time saved: the last full scan's duration
+ * minus each hit's, less the time spent on misses. Not thread-safe.
+ */
+public final class RegionOfInterestSearch {
+    /**
+     * Smallest face searched for in the region, relative to the smallest last found. Faces
+     * don't halve in size between two detections, and the crop being smaller than the image
+     * would otherwise make detectors sized to the image search even smaller faces.
+     */
+    public static final float MIN_FACE_RATIO = 0.5f;
+
+    private final int mMaxFaces;
+    private final float mMargin;
+    private final int mFullScanInterval;
+
+    private final float[] mBoxes;
+    private final LumaImage mRegion = new LumaImage();
+    private int mCount;
+    private int mSinceFullScan;
+    private boolean mMissed;
+    private long mFullScanNanos;
+
+    private long mHits;
+    private long mMisses;
+    private long mFullScans;
+    private long mSavedNanos;
+    private double mSearchedFractionSum;
+
+    /**
+     * @param margin           added on every side of the last faces' bounding box, as a
+     *                         fraction of its width and height
+     * @param fullScanInterval most detections from one full scan to the next, at least 1
+     */
+    public RegionOfInterestSearch(int maxFaces, float margin, int fullScanInterval) {
+        if (fullScanInterval < 1) {
+            throw new IllegalArgumentException("fullScanInterval must be at least 1");
+        }
+        mMaxFaces = maxFaces;
+        mMargin = margin;
+        mFullScanInterval = fullScanInterval;
+        mBoxes = new float[maxFaces * 4];
+    }
+
+    /** Whether the next detection should scan the full image rather than call {@link #search}. */
+    public boolean needsFullScan() {
+        return mCount == 0 || mMissed || mSinceFullScan >= mFullScanInterval;
+    }
+
+    /**
+     * Runs {@code detector} on the region of interest of {@code image} and writes the faces it
+     * finds into {@code boxes} in frame pixels, like {@link LumaFaceDetector#detect}. Returns
+     * their count, or -1 when fewer faces were found than last time; {@code boxes} is then
+     * undefined and the full image should be scanned.
+     */
+    public int search(LumaFaceDetector detector, LumaImage image, float[] boxes, int maxFaces)
+            throws InterruptedException, ExecutionException {
+        if (needsFullScan()) {
+            throw new IllegalStateException("Full scan due");
+        }
+        final long start = System.nanoTime();
+        final float scale = image.getScale();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        float minWidth = Float.MAX_VALUE;
+        for (int face = 0; face < mCount; face++) {
+            final int b = face * 4;
+            minX = Math.min(minX, mBoxes[b]);
+            minY = Math.min(minY, mBoxes[b + 1]);
+            maxX = Math.max(maxX, mBoxes[b] + mBoxes[b + 2]);
+            maxY = Math.max(maxY, mBoxes[b + 1] + mBoxes[b + 3]);
+            minWidth = Math.min(minWidth, mBoxes[b + 2]);
+        }
+        final float marginX = mMargin * (maxX - minX);
+        final float marginY = mMargin * (maxY - minY);
+        final int left = Math.max(0, (int) Math.floor((minX - marginX) / scale));
+        final int top = Math.max(0, (int) Math.floor((minY - marginY) / scale));
+        final int right = Math.min(image.getWidth(), (int) Math.ceil((maxX + marginX) / scale));
+        final int bottom = Math.min(image.getHeight(), (int) Math.ceil((maxY + marginY) / scale));
+
+        int count = 0;
+        if (right > left && bottom > top) {
+            mRegion.crop(image, left, top, right - left, bottom - top);
+            count = detector.detect(mRegion, MIN_FACE_RATIO * minWidth, boxes, maxFaces);
+            mSearchedFractionSum += (double) (right - left) * (bottom - top) / (image.getWidth() * image.getHeight());
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (count < Math.min(mCount, maxFaces)) {
+            mMisses++;
+            mMissed = true;
+            mSavedNanos -= elapsed;
+            return -1;
+        }
+        for (int face = 0; face < count; face++) {
+            boxes[face * 4] += left * scale;
+            boxes[face * 4 + 1] += top * scale;
+        }
+        remember(boxes, count);
+        mSinceFullScan++;
+        mHits++;
+        mSavedNanos += mFullScanNanos - elapsed;
+        return count;
+    }
+
+    /** Records the {@code count} faces a full scan found, and how long it took. */
+    public void onFullScan(float[] boxes, int count, long nanos) {
+        remember(boxes, count);
+        mSinceFullScan = 0;
+        mMissed = false;
+        mFullScanNanos = nanos;
+        mFullScans++;
+    }
+
+    private void remember(float[] boxes, int count) {
+        mCount = Math.min(count, mMaxFaces);
+        System.arraycopy(boxes, 0, mBoxes, 0, mCount * 4);
+    }
+
+    /** Region searches that found the faces. */
+    public long getHits() {
+        return mHits;
+    }
+
+    /** Region searches that fell short and were followed by a full scan. */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    public long getFullScans() {
+        return mFullScans;
+    }
+
+    /** Estimated detection time saved by region searches, net of misses; negative if they cost more. */
+    public long getSavedNanos() {
+        return mSavedNanos;
+    }
+
+    /** Mean fraction of the image's pixels a region search covered. */
+    public double getMeanSearchedFraction() {
+        final long searches = mHits + mMisses;
+        return searches == 0 ? 0 : mSearchedFractionSum / searches;
+    }
+
+    @Override
+    public String toString() {
+        return "RegionOfInterestSearch{hits=" + mHits + ", misses=" + mMisses + ", full=" + mFullScans
+                + ", searched=" + Math.round(getMeanSearchedFraction() * 100) + "%"
+                + ", saved=" + mSavedNanos / 1000000 + "ms}";
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.emotiondetection.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a chain of stages over a stream of items, each stage on its own thread, connected by
+ * {@link DropOldestSlot}s. While the last stage works on item N the earlier stages already
+ * work on N+1, so throughput is set by the slowest stage rather than the sum of all of them.
+ * <p>
+ * Items are meant to be reused: every item leaving the pipeline, whether completed, failed or
+ * dropped by a slot, is handed to the {@link Recycler}. A stage that returns false finishes
+ * the item early; it skips the remaining stages and goes straight to the {@link Listener}.
+ */
+public final class StagePipeline<T> {
+    /**
+     * A stage that hasn't processed any of the last this many items the first stage did no
+     * longer counts towards {@link #getBottleneckNanos()}: items finish before reaching it, so
+     * its recent time is stale.
+     */
+    public static final int STALE_ITEMS = 16;
+
+    public interface Stage<T> {
+        /** Processes {@code item} in place; false skips the remaining stages. */
+        boolean process(T item) throws Exception;
+    }
+
+    /** Called on the thread of the stage that finished the item, before it is recycled. */
+    public interface Listener<T> {
+        void onComplete(T item);
+
+        void onError(T item, Throwable error);
+    }
+
+    public interface Recycler<T> {
+        void recycle(T item);
+    }
+
+    private final String mName;
+    private final Listener<T> mListener;
+    private final Recycler<T> mRecycler;
+    private final List<StageRunner> mStages = new ArrayList<>();
+    private volatile boolean mStarted;
+
+    public StagePipeline(String name, Listener<T> listener, Recycler<T> recycler) {
+        mName = name;
+        mListener = listener;
+        mRecycler = recycler;
+    }
+
+    /** Appends a stage; only before {@link #start()}. */
+    public StagePipeline<T> addStage(String name, Stage<T> stage) {
+        if (mStarted) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        mStages.add(new StageRunner(mStages.size(), name, stage));
+        return this;
+    }
+
+    /**
+     * Records every stage's processing time into {@code metrics}, as {@code <pipeline>.<stage>};
+     * only before {@link #start()}.
+     */
+    public StagePipeline<T> recordTo(MetricsRegistry metrics) {
+        if (mStarted) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        for (StageRunner stage : mStages) {
+            stage.mHistogram = metrics.histogram(mName + "." + stage.mName);
+        }
+        return this;
+    }
+
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        if (mStages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        mStarted = true;
+        for (StageRunner stage : mStages) {
+            stage.mThread.start();
+        }
+    }
+
+    /**
+     * Queues {@code item} for the first stage without blocking. If the first stage hasn't
+     * picked up the previous item yet, that one is dropped and recycled.
+     */
+    public void submit(T item) {
+        if (!mStarted) {
+            throw new IllegalStateException("Pipeline not started");
+        }
+        recycle(mStages.get(0).mInput.offer(item));
+    }
+
+    /** Stops every stage thread and recycles the items still queued. */
+    public synchronized void shutdown() {
+        for (StageRunner stage : mStages) {
+            recycle(stage.mInput.close());
+            stage.mThread.interrupt();
+        }
+    }
+
+    public int getStageCount() {
+        return mStages.size();
+    }
+
+    public String getStageName(int stage) {
+        return mStages.get(stage).mName;
+    }
+
+    /** Items waiting in front of {@code stage}, 0 or 1. */
+    public int getQueueDepth(int stage) {
+        return mStages.get(stage).mInput.getDepth();
+    }
+
+    /** Items dropped in front of {@code stage} because it was still busy. */
+    public long getDropped(int stage) {
+        return mStages.get(stage).mInput.getDropped();
+    }
+
+    public long getProcessed(int stage) {
+        return mStages.get(stage).mProcessed;
+    }
+
+    /** Total time {@code stage} spent processing items, in nanoseconds. */
+    public long getBusyNanos(int stage) {
+        return mStages.get(stage).mBusyNanos;
+    }
+
+    /** Recent time per item of {@code stage}, in nanoseconds, smoothed over about 8 items. */
+    public long getRecentNanos(int stage) {
+        return mStages.get(stage).mRecentNanos;
+    }
+
+    /**
+     * Recent time per item of the slowest stage still reached by items. Once the stages overlap,
+     * this rather than the end-to-end latency is what bounds throughput. Stages skipped for the
+     * last {@link #STALE_ITEMS} items, e.g. inference while no face is found, are left out.
+     */
+    public long getBottleneckNanos() {
+        final long entered = mStages.get(0).mProcessed;
+        long slowest = 0;
+        for (StageRunner stage : mStages) {
+            if (stage.mProcessed > 0 && entered - stage.mEnteredAtLast <= STALE_ITEMS) {
+                slowest = Math.max(slowest, stage.mRecentNanos);
+            }
+        }
+        return slowest;
+    }
+
+    /** Per stage: {@code name(depth/dropped/processed, avg ms)}. */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(mName).append(':');
+        for (StageRunner stage : mStages) {
+            long processed = stage.mProcessed;
+            long avgMicros = processed == 0 ? 0 : stage.mBusyNanos / processed / 1000;
+            text.append(' ').append(stage.mName)
+                    .append('(').append(stage.mInput.getDepth())
+                    .append('/').append(stage.mInput.getDropped())
+                    .append('/').append(processed)
+                    .append(", ").append(avgMicros / 1000).append('.').append(avgMicros / 100 % 10)
+                    .append("ms)");
+        }
+        return text.toString();
+    }
+
+    private void recycle(T item) {
+        if (item != null) {
+            mRecycler.recycle(item);
+        }
+    }
+
+    private void finish(T item, Throwable error) {
+        try {
+            if (error == null) {
+                mListener.onComplete(item);
+            } else {
+                mListener.onError(item, error);
+            }
+        } finally {
+            mRecycler.recycle(item);
+        }
+    }
+
+    private final class StageRunner implements Runnable {
+        final int mIndex;
+        final String mName;
+        final Stage<T> mStage;
+        final DropOldestSlot<T> mInput = new DropOldestSlot<>();
+        final Thread mThread;
+        volatile long mProcessed;
+        volatile long mBusyNanos;
+        volatile long mRecentNanos;
+        /** Items the first stage had processed when this one last finished one. */
+        volatile long mEnteredAtLast;
+        LatencyHistogram mHistogram;
+
+        StageRunner(int index, String name, Stage<T> stage) {
+            mIndex = index;
+            mName = name;
+            mStage = stage;
+            mThread = new Thread(this, StagePipeline.this.mName + "-" + name);
+            mThread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                T item;
+                try {
+                    item = mInput.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item == null) {
+                    return;
+                }
+
+                long start = System.nanoTime();
+                boolean proceed;
+                try {
+                    proceed = mStage.process(item);
+                } catch (Throwable t) {
+                    finish(item, t);
+                    continue;
+                } finally {
+                    long end = System.nanoTime();
+                    long elapsed = end - start;
+                    if (mHistogram != null) {
+                        mHistogram.record(elapsed, end);
+                    }
+                    mBusyNanos += elapsed;
+                    mRecentNanos = mProcessed == 0 ? elapsed : mRecentNanos + (elapsed - mRecentNanos) / 8;
+                    mProcessed++;
+                    mEnteredAtLast = mStages.get(0).mProcessed;
+                }
+
+                if (proceed && mIndex + 1 < mStages.size()) {
+                    recycle(mStages.get(mIndex + 1).mInput.offer(item));
+                } else {
+                    finish(item, null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.emotiondetection.vision;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits per-row image work into horizontal stripes processed on a fixed worker pool.
+ * <p>
+ * The calling thread always processes the first stripe itself, so with {@code n} threads only
+ * {@code n - 1} workers are created. Stripes cover disjoint row ranges and every row is
+ * computed exactly as in the single-threaded case, so the output does not depend on the
+ * thread count. Jobs smaller than {@code minParallelPixels} run inline, where handing work
+ * to other threads would cost more than it saves.
+ */
+public final class StripedExecutor {
+
+    /** Work over rows {@code [rowStart, rowEnd)}; must only write rows in that range. */
+    public interface RowTask {
+        void run(int rowStart, int rowEnd);
+    }
+
+    /** Below roughly a VGA frame, dispatch overhead outweighs the parallel speed-up. */
+    public static final int DEFAULT_MIN_PARALLEL_PIXELS = 640 * 480;
+    private static final int MIN_ROWS_PER_STRIPE = 16;
+
+    private final int mThreads;
+    private final int mMinParallelPixels;
+    private final ExecutorService mWorkers;
+    private final Runnable[] mStripeRunners;
+
+    private RowTask mTask;
+    private int mRows;
+    private int mStripes;
+    private CountDownLatch mPending;
+    private volatile Throwable mFailure;
+
+    /**
+     * @param threads           total threads working on a job, caller included
+     * @param minParallelPixels jobs with fewer pixels than this run on the caller only
+     */
+    public StripedExecutor(int threads, int minParallelPixels) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        mThreads = threads;
+        mMinParallelPixels = minParallelPixels;
+        mWorkers = threads > 1 ? Executors.newFixedThreadPool(threads - 1, new WorkerFactory()) : null;
+        mStripeRunners = new Runnable[threads];
+        for (int i = 1; i < threads; i++) {
+            final int stripe = i;
+            mStripeRunners[i] = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runStripe(stripe);
+                    } catch (Throwable t) {
+                        mFailure = t;
+                    } finally {
+                        mPending.countDown();
+                    }
+                }
+            };
+        }
+    }
+
+    /** One thread per available core. */
+    public static StripedExecutor forAvailableProcessors() {
+        return new StripedExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_MIN_PARALLEL_PIXELS);
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /** Number of stripes a job of {@code rows x pixelsPerRow} is split into. */
+    public int stripeCount(int rows, int pixelsPerRow) {
+        if (mWorkers == null || (long) rows * pixelsPerRow < mMinParallelPixels) {
+            return 1;
+        }
+        return Math.max(1, Math.min(mThreads, rows / MIN_ROWS_PER_STRIPE));
+    }
+
+    /**
+     * Runs {@code task} over {@code rows} rows, split into stripes, and returns once every
+     * stripe is done, failed or not. A failure in any stripe is rethrown on the caller, as is
+     * the rejection of stripes after {@link #shutdown}.
+     */
+    public synchronized void forEachStripe(int rows, int pixelsPerRow, RowTask task) {
+        final int stripes = stripeCount(rows, pixelsPerRow);
+        if (stripes <= 1) {
+            task.run(0, rows);
+            return;
+        }
+
+        mTask = task;
+        mRows = rows;
+        mStripes = stripes;
+        mFailure = null;
+        mPending = new CountDownLatch(stripes - 1);
+        int submitted = 1;
+        try {
+            for (; submitted < stripes; submitted++) {
+                mWorkers.execute(mStripeRunners[submitted]);
+            }
+            runStripe(0);
+        } finally {
+            // Even when the caller's stripe failed or a worker was refused (executor shut down),
+            // the stripes already running must finish before the task and its buffers are
+            // let go. Stripes never handed out don't count down by themselves.
+            for (int i = submitted; i < stripes; i++) {
+                mPending.countDown();
+            }
+            awaitUninterruptibly(mPending);
+            mTask = null;
+        }
+
+        Throwable failure = mFailure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private void runStripe(int stripe) {
+        final int start = (int) ((long) mRows * stripe / mStripes);
+        final int end = (int) ((long) mRows * (stripe + 1) / mStripes);
+        mTask.run(start, end);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shutdown() {
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Preprocess-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
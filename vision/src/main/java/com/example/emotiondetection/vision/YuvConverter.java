@@ -0,0 +1,195 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 frames straight to RGB, without going through an NV21 copy and a
+ * JPEG encode/decode.
+ * <p>
+ * Planes are read in place using their row and pixel strides, so both planar (I420) and
+ * semi-planar (NV12/NV21) chroma layouts work. The output is written already rotated by
+ * {@code rotationDegrees} (clockwise, like {@code Matrix.postRotate}), into buffers owned
+ * by the caller so nothing is allocated per frame.
+ * <p>
+ * Colour conversion uses the full-range BT.601 (JFIF) coefficients, the same ones the
+ * JPEG path applies, in 10-bit fixed point.
+ */
+public final class YuvConverter {
+
+    private YuvConverter() {
+    }
+
+    /** Width of the frame once rotated by {@code rotationDegrees}. */
+    public static int rotatedWidth(YuvFrame frame, int rotationDegrees) {
+        return isQuarterTurn(rotationDegrees) ? frame.getHeight() : frame.getWidth();
+    }
+
+    /** Height of the frame once rotated by {@code rotationDegrees}. */
+    public static int rotatedHeight(YuvFrame frame, int rotationDegrees) {
+        return isQuarterTurn(rotationDegrees) ? frame.getWidth() : frame.getHeight();
+    }
+
+    /**
+     * Writes the rotated frame as packed ARGB_8888 pixels (the layout
+     * {@code Bitmap.setPixels} expects) into {@code out}, row-major.
+     */
+    public static void toArgb(YuvFrame frame, int rotationDegrees, int[] out) {
+        checkCapacity(out.length, frame.getWidth() * frame.getHeight());
+        toArgbRows(frame, normalizeRotation(rotationDegrees), out, 0, frame.getHeight());
+    }
+
+    /**
+     * Same as {@link #toArgb(YuvFrame, int, int[])}, with source rows split into stripes run
+     * on {@code executor}. The output is identical whatever the number of threads.
+     */
+    public static void toArgb(final YuvFrame frame, int rotationDegrees, final int[] out,
+                              StripedExecutor executor) {
+        checkCapacity(out.length, frame.getWidth() * frame.getHeight());
+        final int rotation = normalizeRotation(rotationDegrees);
+        executor.forEachStripe(frame.getHeight(), frame.getWidth(), new StripedExecutor.RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                toArgbRows(frame, rotation, out, rowStart, rowEnd);
+            }
+        });
+    }
+
+    private static void toArgbRows(YuvFrame frame, int rotation, int[] out, int rowStart, int rowEnd) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final ByteBuffer yPlane = frame.getYPlane();
+        final ByteBuffer uPlane = frame.getUPlane();
+        final ByteBuffer vPlane = frame.getVPlane();
+        final int yRowStride = frame.getYRowStride();
+        final int yPixelStride = frame.getYPixelStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+
+        for (int sy = rowStart; sy < rowEnd; sy++) {
+            final int yRow = sy * yRowStride;
+            final int uvRow = (sy >> 1) * uvRowStride;
+            for (int sx = 0; sx < width; sx++) {
+                final int uvIndex = uvRow + (sx >> 1) * uvPixelStride;
+                final int y = yPlane.get(yRow + sx * yPixelStride) & 0xFF;
+                final int u = uPlane.get(uvIndex) & 0xFF;
+                final int v = vPlane.get(uvIndex) & 0xFF;
+                out[destinationIndex(sx, sy, width, height, rotation)] = yuvToArgb(y, u, v);
+            }
+        }
+    }
+
+    /**
+     * Writes the rotated frame as three row-major planes R, G, B (in that order) holding
+     * values in the 0..255 range into {@code out}.
+     */
+    public static void toRgbPlanes(YuvFrame frame, int rotationDegrees, float[] out) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int planeSize = width * height;
+        checkCapacity(out.length, 3 * planeSize);
+
+        final ByteBuffer yPlane = frame.getYPlane();
+        final ByteBuffer uPlane = frame.getUPlane();
+        final ByteBuffer vPlane = frame.getVPlane();
+        final int yRowStride = frame.getYRowStride();
+        final int yPixelStride = frame.getYPixelStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int rotation = normalizeRotation(rotationDegrees);
+
+        for (int sy = 0; sy < height; sy++) {
+            final int yRow = sy * yRowStride;
+            final int uvRow = (sy >> 1) * uvRowStride;
+            for (int sx = 0; sx < width; sx++) {
+                final int uvIndex = uvRow + (sx >> 1) * uvPixelStride;
+                final int argb = yuvToArgb(
+                        yPlane.get(yRow + sx * yPixelStride) & 0xFF,
+                        uPlane.get(uvIndex) & 0xFF,
+                        vPlane.get(uvIndex) & 0xFF);
+                final int dst = destinationIndex(sx, sy, width, height, rotation);
+                out[dst] = (argb >> 16) & 0xFF;
+                out[planeSize + dst] = (argb >> 8) & 0xFF;
+                out[2 * planeSize + dst] = argb & 0xFF;
+            }
+        }
+    }
+
+    /** Converts one full-range YUV sample to an opaque ARGB_8888 pixel. */
+    public static int yuvToArgb(int y, int u, int v) {
+        final int d = u - 128;
+        final int e = v - 128;
+        final int r = clamp(y + ((1436 * e) >> 10));
+        final int g = clamp(y - ((352 * d + 731 * e) >> 10));
+        final int b = clamp(y + ((1815 * d) >> 10));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    static int normalizeRotation(int rotationDegrees) {
+        final int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported rotation " + rotationDegrees);
+        }
+        return rotation;
+    }
+
+    /**
+     * Camera-frame x of the point ({@code uprightX}, {@code uprightY}) of the frame turned
+     * upright by {@code rotation}, a normalized clockwise rotation. Coordinates are pixel
+     * centres, so fractional points map exactly for bilinear sampling.
+     */
+    static float frameX(int rotation, int frameWidth, float uprightX, float uprightY) {
+        switch (rotation) {
+            case 90:
+                return uprightY;
+            case 180:
+                return frameWidth - 1 - uprightX;
+            case 270:
+                return frameWidth - 1 - uprightY;
+            default:
+                return uprightX;
+        }
+    }
+
+    /** Camera-frame y of an upright point, like {@link #frameX}. */
+    static float frameY(int rotation, int frameHeight, float uprightX, float uprightY) {
+        switch (rotation) {
+            case 90:
+                return frameHeight - 1 - uprightX;
+            case 180:
+                return frameHeight - 1 - uprightY;
+            case 270:
+                return uprightX;
+            default:
+                return uprightY;
+        }
+    }
+
+    private static boolean isQuarterTurn(int rotationDegrees) {
+        final int rotation = normalizeRotation(rotationDegrees);
+        return rotation == 90 || rotation == 270;
+    }
+
+    /** Index in the rotated, row-major output of source pixel (sx, sy). */
+    private static int destinationIndex(int sx, int sy, int width, int height, int rotation) {
+        switch (rotation) {
+            case 90:
+                return sx * height + (height - 1 - sy);
+            case 180:
+                return (height - 1 - sy) * width + (width - 1 - sx);
+            case 270:
+                return (width - 1 - sx) * height + sy;
+            default:
+                return sy * width + sx;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static void checkCapacity(int actual, int required) {
+        if (actual < required) {
+            throw new IllegalArgumentException("Output buffer too small: " + actual + " < " + required);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plain view over the three planes of a YUV_420_888 camera frame.
+ * <p>
+ * The planes are kept as they come from the camera (no copy), together with the row and
+ * pixel strides needed to address them, so the same instance can be re-pointed at every
+ * new frame with {@link #wrap}.
+ */
+public final class YuvFrame {
+    private int mWidth;
+    private int mHeight;
+
+    private ByteBuffer mYPlane;
+    private int mYRowStride;
+    private int mYPixelStride;
+
+    private ByteBuffer mUPlane;
+    private ByteBuffer mVPlane;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+
+    public YuvFrame wrap(int width, int height,
+                         ByteBuffer yPlane, int yRowStride, int yPixelStride,
+                         ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mYPlane = yPlane;
+        mYRowStride = yRowStride;
+        mYPixelStride = yPixelStride;
+        mUPlane = uPlane;
+        mVPlane = vPlane;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        return this;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public ByteBuffer getYPlane() {
+        return mYPlane;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getYPixelStride() {
+        return mYPixelStride;
+    }
+
+    public ByteBuffer getUPlane() {
+        return mUPlane;
+    }
+
+    public ByteBuffer getVPlane() {
+        return mVPlane;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    /** Luminance of source pixel (x, y), 0..255. */
+    public int luma(int x, int y) {
+        return mYPlane.get(y * mYRowStride + x * mYPixelStride) & 0xFF;
+    }
+
+    /** Offset of the chroma sample covering source pixel (x, y) inside the U and V planes. */
+    public int chromaIndex(int x, int y) {
+        return (y >> 1) * mUvRowStride + (x >> 1) * mUvPixelStride;
+    }
+}
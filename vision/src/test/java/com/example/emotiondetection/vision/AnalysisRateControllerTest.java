@@ -0,0 +1,72 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisRateControllerTest {
+
+    @Test
+    public void intervalFollowsTheSmoothedCost() {
+        AnalysisRateController rate = new AnalysisRateController(0.8, 0, 1000, 0.5);
+        rate.onResult(100, 0);
+        assertEquals(100, rate.getAverageCostMs());
+        assertEquals(125, rate.getIntervalMs());
+
+        // Halfway towards the new sample: (100 + 200) / 2.
+        rate.onResult(200, 100);
+        assertEquals(150, rate.getAverageCostMs());
+        assertEquals(188, rate.getIntervalMs());
+
+        rate.onResult(150, 200);
+        assertEquals(150, rate.getAverageCostMs());
+    }
+
+    @Test
+    public void intervalStaysWithinItsBounds() {
+        AnalysisRateController rate = new AnalysisRateController(1, 50, 300, 1);
+        assertEquals(50, rate.getIntervalMs());
+        rate.onResult(10, 0);
+        assertEquals(50, rate.getIntervalMs());
+        rate.onResult(1000, 10);
+        assertEquals(300, rate.getIntervalMs());
+        rate.onResult(120, 20);
+        assertEquals(120, rate.getIntervalMs());
+    }
+
+    @Test
+    public void framesAreTakenAtTheInterval() {
+        AnalysisRateController rate = new AnalysisRateController(1, 0, 1000, 1);
+        rate.onResult(100, 0);
+        assertTrue(rate.shouldAnalyze(1000));
+        assertFalse(rate.shouldAnalyze(1050));
+        assertFalse(rate.shouldAnalyze(1099));
+        assertTrue(rate.shouldAnalyze(1100));
+        assertFalse(rate.shouldAnalyze(1150));
+    }
+
+    @Test
+    public void fpsComesFromTheTimeBetweenResults() {
+        AnalysisRateController rate = new AnalysisRateController(0.8, 0, 1000, 0.5);
+        assertEquals(0, rate.getFps(), 0);
+        rate.onResult(10, 1000);
+        assertEquals(0, rate.getFps(), 0);
+        rate.onResult(10, 1100);
+        assertEquals(10, rate.getFps(), 1e-9);
+        // Mean interval (100 + 300) / 2 = 200 ms.
+        rate.onResult(10, 1400);
+        assertEquals(5, rate.getFps(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUtilizationAboveOne() {
+        new AnalysisRateController(1.5, 0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedBounds() {
+        new AnalysisRateController(0.8, 200, 100);
+    }
+}
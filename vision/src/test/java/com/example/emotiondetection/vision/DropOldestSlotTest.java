@@ -0,0 +1,88 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DropOldestSlotTest {
+
+    @Test
+    public void newerItemDisplacesTheWaitingOne() throws Exception {
+        DropOldestSlot<String> slot = new DropOldestSlot<>();
+        assertNull(slot.offer("a"));
+        assertEquals("a", slot.offer("b"));
+        assertEquals("b", slot.offer("c"));
+        assertEquals(1, slot.getDepth());
+        assertEquals(3, slot.getOffered());
+        assertEquals(2, slot.getDropped());
+
+        assertEquals("c", slot.take());
+        assertEquals(0, slot.getDepth());
+        assertNull(slot.offer("d"));
+        assertEquals(2, slot.getDropped());
+    }
+
+    @Test
+    public void takeWaitsForAnItem() throws Exception {
+        final DropOldestSlot<String> slot = new DropOldestSlot<>();
+        final AtomicReference<String> taken = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(slot.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        consumer.start();
+        assertEquals(1, done.getCount());
+        slot.offer("a");
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("a", taken.get());
+    }
+
+    @Test
+    public void closeHandsBackTheWaitingItemAndRefusesNewOnes() throws Exception {
+        DropOldestSlot<String> slot = new DropOldestSlot<>();
+        slot.offer("a");
+        assertEquals("a", slot.close());
+        assertNull(slot.take());
+
+        String late = "b";
+        assertSame(late, slot.offer(late));
+        assertEquals(0, slot.getDepth());
+        assertEquals(1, slot.getOffered());
+    }
+
+    @Test
+    public void closeWakesAWaitingConsumer() throws Exception {
+        final DropOldestSlot<String> slot = new DropOldestSlot<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (slot.take() == null) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+        assertNull(slot.close());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EmotionLogTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void resumeDropsRowsAfterLastCommit() throws IOException {
+        File video = mFolder.newFile("clip.mp4");
+        try (EmotionLog log = EmotionLog.open(video)) {
+            assertEquals(0, log.getNextTimeMs());
+            log.append(0, 0, 10.4f, 20f, 50f, 60f, "HAPPY", 0.9f);
+            log.commit(500);
+            log.append(500, 0, 11f, 21f, 50f, 60f, "SAD", 0.5f);
+            // Killed before the next commit.
+        }
+        try (FileOutputStream torn = new FileOutputStream(EmotionLog.logFileFor(video), true)) {
+            torn.write("1000,0,1".getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(EmotionLog.isPending(video));
+
+        try (EmotionLog log = EmotionLog.open(video)) {
+            assertEquals(500, log.getNextTimeMs());
+            log.append(500, 1, 0f, 0f, 8f, 8f, "FEAR", 0.05f);
+            log.finish(1000);
+        }
+        assertTrue(EmotionLog.isDone(video));
+        assertFalse(EmotionLog.isPending(video));
+
+        List<String> lines = Files.readAllLines(EmotionLog.logFileFor(video).toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals(EmotionLog.HEADER, lines.get(0));
+        assertEquals("0,0,10,20,50,60,HAPPY,0.900", lines.get(1));
+        assertEquals("500,1,0,0,8,8,FEAR,0.050", lines.get(2));
+    }
+
+    @Test
+    public void missingLogStartsOver() throws IOException {
+        File video = mFolder.newFile("clip.mp4");
+        try (EmotionLog log = EmotionLog.open(video)) {
+            log.append(0, 0, 0f, 0f, 1f, 1f, "HAPPY", 1f);
+            log.commit(500);
+        }
+        assertTrue(EmotionLog.logFileFor(video).delete());
+
+        try (EmotionLog log = EmotionLog.open(video)) {
+            assertEquals(0, log.getNextTimeMs());
+        }
+        List<String> lines = Files.readAllLines(EmotionLog.logFileFor(video).toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FaceCropSamplerTest {
+    private static final int WIDTH = 30;
+    private static final int HEIGHT = 22;
+    private static final int CHROMA_WIDTH = WIDTH / 2;
+    private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+    /** Y row stride, Y pixel stride, UV row stride, UV pixel stride. */
+    private static final int[][] LAYOUTS = {
+            {WIDTH, 1, CHROMA_WIDTH, 1},
+            // Odd row strides, semi-planar chroma.
+            {WIDTH + 1, 1, 2 * CHROMA_WIDTH + 5, 2},
+            // Every other luma byte, planar chroma with padded rows.
+            {2 * WIDTH + 1, 2, CHROMA_WIDTH + 2, 1},
+    };
+
+    /** Crops as left, top, width, height, output width and output height; some leave the frame. */
+    private static final float[][] CROPS = {
+            {-3.5f, 2.25f, 20.5f, 17f, 11, 9},
+            {4f, 5f, 6f, 6f, 24, 24},
+            {10.7f, -2f, 12f, 30f, 7, 13},
+    };
+
+    /** Writes the plain 0..255 values, so outputs compare in levels. */
+    private static final PixelNormalizer LEVELS = new PixelNormalizer(
+            new double[]{0, 0, 0}, new double[]{1 / 255.0, 1 / 255.0, 1 / 255.0});
+
+    /**
+     * Reference: the whole frame converted upright with {@link YuvConverter#toArgb}, then each
+     * channel cropped and resized bilinearly, in R, G, B planes.
+     */
+    private static int[] reference(YuvFrame frame, int rotation, float[] crop) {
+        int uprightWidth = YuvConverter.rotatedWidth(frame, rotation);
+        int uprightHeight = YuvConverter.rotatedHeight(frame, rotation);
+        int[] argb = new int[WIDTH * HEIGHT];
+        YuvConverter.toArgb(frame, rotation, argb);
+        int[][] channels = new int[3][argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            channels[0][i] = (argb[i] >> 16) & 0xFF;
+            channels[1][i] = (argb[i] >> 8) & 0xFF;
+            channels[2][i] = argb[i] & 0xFF;
+        }
+        int outWidth = (int) crop[4];
+        int outHeight = (int) crop[5];
+        int plane = outWidth * outHeight;
+        int[] out = new int[3 * plane];
+        for (int oy = 0; oy < outHeight; oy++) {
+            float y = crop[1] + (oy + 0.5f) * (crop[3] / outHeight) - 0.5f;
+            for (int ox = 0; ox < outWidth; ox++) {
+                float x = crop[0] + (ox + 0.5f) * (crop[2] / outWidth) - 0.5f;
+                for (int c = 0; c < 3; c++) {
+                    out[c * plane + oy * outWidth + ox] =
+                            TestFrames.bilinear(channels[c], uprightWidth, uprightHeight, x, y);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void assertMatchesReference(YuvFrame frame, float tolerance) {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (float[] crop : CROPS) {
+                int[] expected = reference(frame, rotation, crop);
+                int plane = expected.length / 3;
+                for (boolean bgr : new boolean[]{false, true}) {
+                    FloatBuffer out = FloatBuffer.allocate(1 + expected.length);
+                    FaceCropSampler.sample(frame, rotation, crop[0], crop[1], crop[2], crop[3],
+                            (int) crop[4], (int) crop[5], LEVELS, bgr, out, 1);
+                    for (int c = 0; c < 3; c++) {
+                        int channel = bgr ? 2 - c : c;
+                        for (int i = 0; i < plane; i++) {
+                            assertEquals("rotation=" + rotation + " bgr=" + bgr + " channel=" + c + " pixel=" + i,
+                                    expected[c * plane + i], out.get(1 + channel * plane + i), tolerance);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesConvertThenResizeForEveryRotationAndLayout() {
+        Random random = new Random(5);
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < luma.length; i++) {
+            // Kept clear of clipping for the chroma below, where converting then resizing and
+            // resizing then converting agree.
+            luma[i] = 40 + random.nextInt(181);
+        }
+        int[] u = TestFrames.constant(CHROMA_WIDTH, CHROMA_HEIGHT, 110);
+        int[] v = TestFrames.constant(CHROMA_WIDTH, CHROMA_HEIGHT, 150);
+        for (int[] layout : LAYOUTS) {
+            YuvFrame frame = TestFrames.wrap(WIDTH, HEIGHT, luma, u, v, layout[0], layout[1], layout[2], layout[3]);
+            assertMatchesReference(frame, 1.01f);
+        }
+    }
+
+    @Test
+    public void chromaFollowsTheRotation() {
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma[y * WIDTH + x] = 60 + 3 * x + 2 * y;
+            }
+        }
+        // Chroma ramps along both axes: a mirrored or transposed read is off by tens of levels,
+        // while interpolated and block-wise chroma only differ by a few.
+        int[] u = new int[CHROMA_WIDTH * CHROMA_HEIGHT];
+        int[] v = new int[CHROMA_WIDTH * CHROMA_HEIGHT];
+        for (int y = 0; y < CHROMA_HEIGHT; y++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                u[y * CHROMA_WIDTH + x] = 100 + 4 * x;
+                v[y * CHROMA_WIDTH + x] = 90 + 5 * y;
+            }
+        }
+        for (int[] layout : LAYOUTS) {
+            YuvFrame frame = TestFrames.wrap(WIDTH, HEIGHT, luma, u, v, layout[0], layout[1], layout[2], layout[3]);
+            assertMatchesReference(frame, 6f);
+        }
+    }
+
+    @Test
+    public void stripedSamplingIsIndependentOfThreadCount() {
+        Random random = new Random(6);
+        int[] luma = new int[WIDTH * HEIGHT];
+        int[] u = new int[CHROMA_WIDTH * CHROMA_HEIGHT];
+        int[] v = new int[CHROMA_WIDTH * CHROMA_HEIGHT];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = random.nextInt(256);
+        }
+        for (int i = 0; i < u.length; i++) {
+            u[i] = random.nextInt(256);
+            v[i] = random.nextInt(256);
+        }
+        YuvFrame frame = TestFrames.wrap(WIDTH, HEIGHT, luma, u, v, WIDTH + 1, 1, 2 * CHROMA_WIDTH + 5, 2);
+        FloatBuffer expected = FloatBuffer.allocate(3 * 32 * 32);
+        FaceCropSampler.sample(frame, 90, 1f, 2f, 18f, 18f, 32, 32, PixelNormalizer.IMAGENET, true, expected, 0);
+        for (int threads = 1; threads <= 4; threads++) {
+            StripedExecutor executor = new StripedExecutor(threads, 0);
+            try {
+                FloatBuffer actual = FloatBuffer.allocate(expected.capacity());
+                FaceCropSampler.sample(frame, 90, 1f, 2f, 18f, 18f, 32, 32, PixelNormalizer.IMAGENET, true,
+                        actual, 0, executor);
+                assertArrayEquals("threads=" + threads, expected.array(), actual.array(), 0f);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
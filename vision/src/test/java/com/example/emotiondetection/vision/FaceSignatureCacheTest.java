@@ -0,0 +1,148 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FaceSignatureCacheTest {
+    private static final int CLASSES = 3;
+    private static final long MAX_AGE_MS = 500;
+
+    private static FaceSignatureCache cache(int capacity) {
+        return new FaceSignatureCache(capacity, CLASSES, 2, MAX_AGE_MS);
+    }
+
+    private static float[] scores(float first) {
+        return new float[]{first, 1 - first, 0};
+    }
+
+    private static void put(FaceSignatureCache cache, long signature, long nowMs, float first) {
+        cache.put(signature, nowMs, scores(first), 0, 0);
+    }
+
+    /** Best class of the match, with its first score in {@code first[0]}, or -1. */
+    private static int lookup(FaceSignatureCache cache, long signature, long nowMs, float[] first) {
+        float[] out = new float[CLASSES];
+        int best = cache.lookup(signature, nowMs, out, 0);
+        first[0] = out[0];
+        return best;
+    }
+
+    @Test
+    public void signatureIgnoresBrightnessButNotContent() {
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(24);
+        int elements = spec.getElementsPerFace();
+        FloatBuffer input = FloatBuffer.allocate(3 * elements);
+        Random random = new Random(4);
+        for (int i = 0; i < elements; i++) {
+            float value = (float) random.nextGaussian();
+            input.put(i, value);
+            input.put(elements + i, value + 0.7f);
+            input.put(2 * elements + i, (float) random.nextGaussian());
+        }
+        FaceSignatureCache cache = cache(4);
+        long face = cache.signature(input, 0, spec);
+        assertEquals(face, cache.signature(input, 0, spec));
+        assertEquals(face, cache.signature(input, elements, spec));
+        assertNotEquals(face, cache.signature(input, 2 * elements, spec));
+    }
+
+    @Test
+    public void matchesWithinTheHammingDistanceAndPrefersTheClosest() {
+        FaceSignatureCache cache = cache(4);
+        float[] first = new float[1];
+        put(cache, 0b0000L, 0, 0.1f);
+        put(cache, 0b1111L, 0, 0.9f);
+
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 0b0011L, 10, first));
+        assertEquals(0.1f, first[0], 0);
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 0b0111L, 10, first));
+        assertEquals(0.9f, first[0], 0);
+        cache.startBatch();
+        assertEquals(-1, lookup(cache, 0b111L << 8, 10, first));
+    }
+
+    @Test
+    public void entriesExpireAfterMaxAge() {
+        FaceSignatureCache cache = cache(4);
+        float[] first = new float[1];
+        put(cache, 42L, 1000, 0.5f);
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 42L, 1000 + MAX_AGE_MS, first));
+        cache.startBatch();
+        assertEquals(-1, lookup(cache, 42L, 1001 + MAX_AGE_MS, first));
+
+        // A fresh put revives the face.
+        cache.startBatch();
+        put(cache, 42L, 2000, 0.6f);
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 42L, 2000, first));
+        assertEquals(0.6f, first[0], 0);
+    }
+
+    @Test
+    public void fullCacheEvictsTheOldestEntry() {
+        FaceSignatureCache cache = cache(2);
+        float[] first = new float[1];
+        put(cache, 0x00FFL, 0, 0.1f);
+        put(cache, 0xFF00L, 10, 0.2f);
+        cache.startBatch();
+        put(cache, 0xFFFF0000L, 20, 0.3f);
+
+        cache.startBatch();
+        assertEquals(-1, lookup(cache, 0x00FFL, 30, first));
+        assertEquals(0, lookup(cache, 0xFF00L, 30, first));
+        assertEquals(0, lookup(cache, 0xFFFF0000L, 30, first));
+    }
+
+    @Test
+    public void eachEntryMatchesOneFacePerBatch() {
+        FaceSignatureCache cache = cache(4);
+        float[] first = new float[1];
+        put(cache, 0b0000L, 0, 0.1f);
+
+        // Two similar faces in one frame: only one may take the cached scores.
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 0b0001L, 10, first));
+        assertEquals(-1, lookup(cache, 0b0010L, 10, first));
+
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 0b0010L, 10, first));
+    }
+
+    @Test
+    public void similarFacesInOneBatchGetTheirOwnEntries() {
+        FaceSignatureCache cache = cache(4);
+        float[] first = new float[1];
+        cache.startBatch();
+        put(cache, 0b0001L, 0, 0.1f);
+        put(cache, 0b0010L, 0, 0.2f);
+
+        cache.startBatch();
+        assertEquals(0, lookup(cache, 0b0001L, 10, first));
+        assertEquals(0.1f, first[0], 0);
+        assertEquals(0, lookup(cache, 0b0010L, 10, first));
+        assertEquals(0.2f, first[0], 0);
+    }
+
+    @Test
+    public void putReplacesTheMatchingEntry() {
+        FaceSignatureCache cache = cache(4);
+        float[] out = new float[CLASSES];
+        put(cache, 0b0000L, 0, 0.1f);
+        cache.startBatch();
+        put(cache, 0b0001L, 10, 0.4f);
+
+        cache.startBatch();
+        assertEquals(0, cache.lookup(0b0000L, 20, out, 0));
+        assertArrayEquals(scores(0.4f), out, 0);
+        assertEquals(-1, cache.lookup(0b0000L, 20, out, 0));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FaceTrackerTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FACE = 128;
+
+    /** Upright camera frame of the background with the face texture pasted at (left, top). */
+    private static YuvFrame frame(int[] background, int[] face, int left, int top) {
+        ByteBuffer y = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int fx = col - left;
+                int fy = row - top;
+                boolean inFace = fx >= 0 && fy >= 0 && fx < FACE && fy < FACE;
+                y.put(row * WIDTH + col, (byte) (inFace ? face[fy * FACE + fx] : background[row * WIDTH + col]));
+            }
+        }
+        ByteBuffer chroma = ByteBuffer.allocate(WIDTH * HEIGHT / 2);
+        return new YuvFrame().wrap(WIDTH, HEIGHT, y, WIDTH, 1, chroma, chroma, WIDTH, 2);
+    }
+
+    @Test
+    public void replayStaysOnGroundTruth() {
+        int[] background = SyntheticFaces.texture(WIDTH, HEIGHT, 1, 8);
+        int[] face = SyntheticFaces.texture(FACE, FACE, 2, 8);
+        FaceTracker tracker = new FaceTracker(1, 2, 10, 0.5f, 0.1f);
+        LumaImage luma = new LumaImage();
+        float[] truth = new float[4];
+        double driftSum = 0;
+        int tracked = 0;
+
+        for (int t = 0; t < 60; t++) {
+            int left = 100 + 3 * t;
+            int top = 80 + 2 * t;
+            luma.sample(frame(background, face, left, top), 0, 2);
+            truth[0] = left;
+            truth[1] = top;
+            truth[2] = FACE;
+            truth[3] = FACE;
+            if (tracker.needsDetection()) {
+                tracker.onDetected(luma, truth, 1);
+                continue;
+            }
+            assertEquals(1, tracker.track(luma));
+            float[] box = tracker.getBoxes();
+            driftSum += Math.hypot(box[0] - left, box[1] - top) / FACE;
+            tracked++;
+        }
+
+        assertTrue("tracked only " + tracked + " frames", tracked >= 40);
+        assertTrue("mean drift " + driftSum / tracked, driftSum / tracked < 0.03);
+        assertTrue(tracker.getMeanDrift() < 0.03);
+        assertEquals(10, tracker.getInterval());
+        assertEquals(0, tracker.getLostCount());
+    }
+
+    @Test
+    public void lostFaceAndWrongTrackShortenInterval() {
+        int[] background = SyntheticFaces.texture(WIDTH, HEIGHT, 3, 8);
+        int[] face = SyntheticFaces.texture(FACE, FACE, 4, 8);
+        FaceTracker tracker = new FaceTracker(2, 1, 8, 0.5f, 0.1f);
+        LumaImage luma = new LumaImage();
+        float[] box = {200, 150, FACE, FACE};
+
+        luma.sample(frame(background, face, 200, 150), 0, 2);
+        for (int i = 0; i < 6; i++) {
+            tracker.onDetected(luma, box, 1);
+            assertEquals(1, tracker.track(luma));
+        }
+        assertEquals(6, tracker.getInterval());
+
+        // The face jumps far outside the search window: tracking loses it.
+        luma.sample(frame(background, SyntheticFaces.texture(FACE, FACE, 5, 8), 20, 20), 0, 2);
+        assertEquals(-1, tracker.track(luma));
+        assertTrue(tracker.needsDetection());
+        tracker.onDetected(luma, new float[]{20, 20, FACE, FACE}, 1);
+        assertEquals(3, tracker.getInterval());
+        assertFalse(tracker.needsDetection());
+
+        // A second face appears at the next detection: the interval halves again.
+        assertEquals(1, tracker.track(luma));
+        tracker.onDetected(luma, new float[]{20, 20, FACE, FACE, 400, 300, 64, 64}, 2);
+        assertEquals(1, tracker.getInterval());
+    }
+
+    @Test
+    public void losingAFaceRestoresEveryBox() {
+        int[] face = SyntheticFaces.texture(FACE, FACE, 4, 8);
+        FaceTracker tracker = new FaceTracker(2, 1, 8, 0.5f, 0.1f);
+        LumaImage luma = new LumaImage();
+        float[] boxes = {200, 150, FACE, FACE, 400, 300, 64, 64};
+
+        luma.sample(frame(SyntheticFaces.texture(WIDTH, HEIGHT, 3, 8), face, 200, 150), 0, 2);
+        tracker.onDetected(luma, boxes, 2);
+
+        // The first face moves and is followed; the second box only held background, which changes.
+        luma.sample(frame(SyntheticFaces.texture(WIDTH, HEIGHT, 6, 8), face, 208, 150), 0, 2);
+        assertEquals(-1, tracker.track(luma));
+        assertArrayEquals(boxes, Arrays.copyOf(tracker.getBoxes(), 8), 0f);
+    }
+}
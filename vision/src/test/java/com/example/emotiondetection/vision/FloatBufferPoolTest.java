@@ -0,0 +1,95 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class FloatBufferPoolTest {
+    private static final long[] SHAPE = {1, 3, 4, 4};
+    private static final long[] OTHER_SHAPE = {2, 3, 4, 4};
+
+    @Test
+    public void reusesBuffersPerShapeAndDropsBeyondTheCap() {
+        FloatBufferPool pool = new FloatBufferPool(1);
+        FloatBufferPool.Lease first = pool.acquire(SHAPE);
+        assertEquals(48, first.getBuffer().capacity());
+        first.getBuffer().put(1f);
+        pool.release(first);
+
+        FloatBufferPool.Lease again = pool.acquire(SHAPE);
+        assertSame(first, again);
+        assertEquals(0, again.getBuffer().position());
+        FloatBufferPool.Lease second = pool.acquire(SHAPE);
+        assertNotSame(first, second);
+        FloatBufferPool.Lease other = pool.acquire(OTHER_SHAPE);
+        assertEquals(96, other.getBuffer().capacity());
+
+        pool.release(again);
+        pool.release(second);
+        pool.release(other);
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+        assertEquals(1, pool.getDropped());
+    }
+
+    @Test
+    public void releasingTwiceThrows() {
+        FloatBufferPool pool = new FloatBufferPool(1);
+        FloatBufferPool.Lease lease = pool.acquire(SHAPE);
+        pool.release(lease);
+        try {
+            pool.release(lease);
+            fail("Released a buffer twice");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void leakThresholdIsSeparateFromRetention() {
+        FloatBufferPool pool = new FloatBufferPool(1);
+        pool.setLeakDetection(3);
+        FloatBufferPool.Lease[] leases = new FloatBufferPool.Lease[3];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = pool.acquire(SHAPE);
+        }
+        assertEquals(3, pool.getOutstanding());
+        // Other shapes have their own count.
+        pool.release(pool.acquire(OTHER_SHAPE));
+
+        try {
+            pool.acquire(SHAPE);
+            fail("Fourth outstanding buffer not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("Buffer acquired here", e.getCause().getMessage());
+        }
+        assertEquals(3, pool.getOutstanding());
+    }
+
+    @Test
+    public void leakCheckTakesNothingOutOfThePool() {
+        FloatBufferPool pool = new FloatBufferPool(2);
+        pool.setLeakDetection(4);
+        FloatBufferPool.Lease[] leases = new FloatBufferPool.Lease[4];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = pool.acquire(SHAPE);
+        }
+        pool.release(leases[3]);
+        pool.setLeakDetection(3);
+        try {
+            pool.acquire(SHAPE);
+            fail("Fourth outstanding buffer not reported");
+        } catch (IllegalStateException expected) {
+        }
+
+        // The idle buffer is still there for the next checkout.
+        pool.release(leases[0]);
+        pool.setLeakDetection(4);
+        assertSame(leases[0], pool.acquire(SHAPE));
+        assertSame(leases[3], pool.acquire(SHAPE));
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HaarCascadeDetectorTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int SCENES = 40;
+
+    /**
+     * The image set: scene {@code index} has 0, 1 or 2 faces 32 to 121 pixels wide, under
+     * different lighting, over a texture with features from 4 to 15 pixels, with sensor noise.
+     * Writes the faces' left, top and size into {@code truth} and returns how many there are.
+     */
+    private static byte[] scene(int index, int[] truth) {
+        Random random = new Random(index);
+        int[] background = SyntheticFaces.texture(WIDTH, HEIGHT, 100 + index, 4 + index % 12);
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) SyntheticFaces.clamp(background[i] + random.nextInt(21) - 10);
+        }
+        int faces = index % 3;
+        for (int i = 0; i < faces; i++) {
+            int size = 32 + random.nextInt(90);
+            // One face per half of the image, so they never overlap.
+            int left = i * WIDTH / 2 + random.nextInt(Math.max(1, WIDTH / 2 - size));
+            int top = random.nextInt(HEIGHT - size);
+            SyntheticFaces.drawFace(pixels, WIDTH, left, top, size, 0.6f + 0.6f * random.nextFloat(), random.nextInt(60) - 30);
+            truth[i * 3] = left;
+            truth[i * 3 + 1] = top;
+            truth[i * 3 + 2] = size;
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) SyntheticFaces.clamp((pixels[i] & 0xFF) + random.nextInt(11) - 5);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void findsDrawnFacesAndLittleElse() {
+        HaarCascadeDetector detector = new HaarCascadeDetector(HaarCascade.synthetic(), 0.1f, 2);
+        LumaImage luma = new LumaImage();
+        int[] truth = new int[6];
+        float[] boxes = new float[4 * 8];
+        float[] expected = new float[4];
+        int faces = 0;
+        int found = 0;
+        int falsePositives = 0;
+        try {
+            for (int s = 0; s < SCENES; s++) {
+                luma.wrap(scene(s, truth), WIDTH, HEIGHT, 0);
+                int count = detector.detect(luma, boxes, 8);
+                boolean[] matched = new boolean[count];
+                for (int f = 0; f < s % 3; f++) {
+                    expected[0] = truth[f * 3];
+                    expected[1] = truth[f * 3 + 1];
+                    expected[2] = truth[f * 3 + 2];
+                    expected[3] = truth[f * 3 + 2];
+                    faces++;
+                    for (int d = 0; d < count; d++) {
+                        if (FaceTracker.intersectionOverUnion(boxes, d * 4, expected, 0) > 0.5f) {
+                            matched[d] = true;
+                            found++;
+                            break;
+                        }
+                    }
+                }
+                for (boolean m : matched) {
+                    falsePositives += m ? 0 : 1;
+                }
+            }
+        } finally {
+            detector.close();
+        }
+        assertTrue("found " + found + " of " + faces + " faces", found >= 0.85f * faces);
+        assertTrue(falsePositives + " false positives in " + SCENES + " scenes", falsePositives <= 2);
+    }
+
+    @Test
+    public void resultDoesNotDependOnThreadCount() {
+        HaarCascadeDetector serial = new HaarCascadeDetector(HaarCascade.synthetic(), 0.1f, 1);
+        HaarCascadeDetector parallel = new HaarCascadeDetector(HaarCascade.synthetic(), 0.1f, 4);
+        LumaImage luma = new LumaImage();
+        float[] serialBoxes = new float[4 * 8];
+        float[] parallelBoxes = new float[4 * 8];
+        try {
+            for (int s = 0; s < 6; s++) {
+                luma.wrap(scene(s, new int[6]), WIDTH, HEIGHT, 0);
+                int count = serial.detect(luma, serialBoxes, 8);
+                assertEquals(count, parallel.detect(luma, parallelBoxes, 8));
+                assertArrayEquals(Arrays.copyOf(serialBoxes, count * 4), Arrays.copyOf(parallelBoxes, count * 4), 0f);
+                assertEquals(serial.getWindowCount(), parallel.getWindowCount());
+            }
+        } finally {
+            serial.close();
+            parallel.close();
+        }
+    }
+
+    @Test
+    public void boxesAreInFramePixelsAndLargestFirst() {
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        Arrays.fill(pixels, (byte) 110);
+        SyntheticFaces.drawFace(pixels, WIDTH, 20, 40, 60, 1f, 0);
+        SyntheticFaces.drawFace(pixels, WIDTH, 180, 30, 120, 1f, 0);
+        HaarCascadeDetector detector = new HaarCascadeDetector(HaarCascade.synthetic(), 0.1f, 2);
+        float[] boxes = new float[4 * 2];
+        try {
+            // The image is the frame shrunk by 2, so boxes come back twice as large.
+            assertEquals(2, detector.detect(new LumaImage().wrap(pixels, WIDTH, HEIGHT, 1), boxes, 2));
+            assertTrue(FaceTracker.intersectionOverUnion(boxes, 0, new float[]{360, 60, 240, 240}, 0) > 0.7f);
+            assertTrue(FaceTracker.intersectionOverUnion(boxes, 4, new float[]{40, 80, 120, 120}, 0) > 0.7f);
+            assertEquals(1, detector.detect(new LumaImage().wrap(pixels, WIDTH, HEIGHT, 1), boxes, 1));
+            assertEquals(360, boxes[0], 24);
+            // Only faces at least 160 frame pixels wide: the small one isn't searched for.
+            long allWindows = detector.getWindowCount();
+            assertEquals(1, detector.detect(new LumaImage().wrap(pixels, WIDTH, HEIGHT, 1), 160, boxes, 2));
+            assertEquals(360, boxes[0], 24);
+            assertTrue(detector.getWindowCount() < allWindows / 4);
+            detector.close();
+            assertEquals(0, detector.detect(new LumaImage().wrap(pixels, WIDTH, HEIGHT, 1), boxes, 2));
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    public void integralImageMatchesDirectSums() {
+        Random random = new Random(9);
+        byte[] pixels = new byte[37 * 23];
+        random.nextBytes(pixels);
+        IntegralImage integral = new IntegralImage().compute(new LumaImage().wrap(pixels, 37, 23, 0));
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(37);
+            int y = random.nextInt(23);
+            int width = 1 + random.nextInt(37 - x);
+            int height = 1 + random.nextInt(23 - y);
+            int sum = 0;
+            long squares = 0;
+            for (int row = y; row < y + height; row++) {
+                for (int col = x; col < x + width; col++) {
+                    int value = pixels[row * 37 + col] & 0xFF;
+                    sum += value;
+                    squares += value * value;
+                }
+            }
+            assertEquals(sum, integral.sum(x, y, width, height));
+            assertEquals(squares, integral.squareSum(x, y, width, height));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HaarCascadeTest {
+
+    /** Two stages in the layout opencv_traincascade writes, trimmed to what the reader uses. */
+    private static final String OPENCV_XML = "<?xml version=\"1.0\"?>\n"
+            + "<opencv_storage>\n"
+            + "<cascade type_id=\"opencv-cascade-classifier\"><stageType>BOOST</stageType>\n"
+            + "  <featureType>HAAR</featureType>\n"
+            + "  <height>24</height>\n"
+            + "  <width>20</width>\n"
+            + "  <stageNum>2</stageNum>\n"
+            + "  <stages>\n"
+            + "    <_>\n"
+            + "      <maxWeakCount>2</maxWeakCount>\n"
+            + "      <stageThreshold>-8.2867056131362915e-01</stageThreshold>\n"
+            + "      <weakClassifiers>\n"
+            + "        <_>\n"
+            + "          <internalNodes>\n"
+            + "            0 -1 1 4.0337508916854858e-03</internalNodes>\n"
+            + "          <leafValues>\n"
+            + "            -8.3875155448913574e-01 7.7389335632324219e-01</leafValues></_>\n"
+            + "        <_>\n"
+            + "          <internalNodes>\n"
+            + "            0 -1 0 -1.5246000362094492e-04</internalNodes>\n"
+            + "          <leafValues>\n"
+            + "            6.2814491987228394e-01 -6.6036719083786011e-01</leafValues></_></weakClassifiers></_>\n"
+            + "    <_>\n"
+            + "      <maxWeakCount>1</maxWeakCount>\n"
+            + "      <stageThreshold>-1.1</stageThreshold>\n"
+            + "      <weakClassifiers>\n"
+            + "        <_>\n"
+            + "          <internalNodes>\n"
+            + "            0 -1 0 2.5e-02</internalNodes>\n"
+            + "          <leafValues>\n"
+            + "            -1. 1.</leafValues></_></weakClassifiers></_></stages>\n"
+            + "  <features>\n"
+            + "    <_>\n"
+            + "      <rects>\n"
+            + "        <_>\n"
+            + "          2 7 16 4 -1.</_>\n"
+            + "        <_>\n"
+            + "          2 9 16 2 2.</_></rects></_>\n"
+            + "    <_>\n"
+            + "      <rects>\n"
+            + "        <_>\n"
+            + "          4 3 12 9 -1.</_>\n"
+            + "        <_>\n"
+            + "          4 6 12 3 3.</_></rects>\n"
+            + "      <tilted>0</tilted></_></features></cascade>\n"
+            + "</opencv_storage>\n";
+
+    @Test
+    public void writeThenReadKeepsTheCascade() throws IOException {
+        HaarCascade cascade = HaarCascade.synthetic();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cascade.write(out);
+        HaarCascade read = HaarCascade.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(cascade.getWindowWidth(), read.getWindowWidth());
+        assertEquals(cascade.getWindowHeight(), read.getWindowHeight());
+        assertArrayEquals(cascade.mStageEnds, read.mStageEnds);
+        assertArrayEquals(cascade.mStageThresholds, read.mStageThresholds, 0f);
+        assertArrayEquals(cascade.mRectEnds, read.mRectEnds);
+        assertArrayEquals(cascade.mThresholds, read.mThresholds, 0f);
+        assertArrayEquals(cascade.mLeft, read.mLeft, 0f);
+        assertArrayEquals(cascade.mRight, read.mRight, 0f);
+        assertArrayEquals(cascade.mRects, read.mRects);
+        assertArrayEquals(cascade.mWeights, read.mWeights, 0f);
+    }
+
+    @Test
+    public void readsOpenCvCascades() throws IOException {
+        HaarCascade cascade = HaarCascade.readOpenCv(stream(OPENCV_XML));
+
+        assertEquals(20, cascade.getWindowWidth());
+        assertEquals(24, cascade.getWindowHeight());
+        assertEquals(2, cascade.getStageCount());
+        assertEquals(3, cascade.getFeatureCount());
+        assertArrayEquals(new int[]{2, 3}, cascade.mStageEnds);
+        assertArrayEquals(new float[]{-0.82867056f, -1.1f}, cascade.mStageThresholds, 1e-7f);
+        // The first stump of the first stage uses feature 1, the others feature 0.
+        assertArrayEquals(new int[]{4, 3, 12, 9, 4, 6, 12, 3, 2, 7, 16, 4, 2, 9, 16, 2, 2, 7, 16, 4, 2, 9, 16, 2},
+                cascade.mRects);
+        assertArrayEquals(new float[]{-1, 3, -1, 2, -1, 2}, cascade.mWeights, 0f);
+        assertArrayEquals(new float[]{0.0040337509f, -0.00015246f, 0.025f}, cascade.mThresholds, 1e-9f);
+        assertArrayEquals(new float[]{-0.83875155f, 0.6281449f, -1}, cascade.mLeft, 1e-7f);
+        assertArrayEquals(new float[]{0.77389336f, -0.6603672f, 1}, cascade.mRight, 1e-7f);
+    }
+
+    @Test
+    public void rejectsWhatItCannotEvaluate() {
+        assertUnreadable(OPENCV_XML.replace("<tilted>0</tilted>", "<tilted>1</tilted>"), "Tilted");
+        assertUnreadable(OPENCV_XML.replace("0 -1 0 2.5e-02", "1 -1 0 2.5e-02 0 -2 1 0.1"), "stump");
+        assertUnreadable(OPENCV_XML.replace("4 6 12 3 3.", "4 6 12 3 2."), "zero");
+        assertUnreadable("<opencv_storage><cascade><width>20</width></cascade></opencv_storage>", "features");
+    }
+
+    private static void assertUnreadable(String xml, String reason) {
+        try {
+            HaarCascade.readOpenCv(stream(xml));
+            fail("Read a cascade that should fail on: " + reason);
+        } catch (IOException e) {
+            if (!e.getMessage().contains(reason)) {
+                throw new AssertionError("Failed for another reason than " + reason + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
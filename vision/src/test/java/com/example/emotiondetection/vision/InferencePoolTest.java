@@ -0,0 +1,216 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InferencePoolTest {
+    private static final int CLASSES = 7;
+
+    private static InferencePool.Factory referenceFactory(final ModelInputSpec spec) {
+        return new InferencePool.Factory() {
+            @Override
+            public InferenceBackend create(int worker) {
+                // Same seed on every worker: all instances are the same model.
+                return ReferenceCnnBackend.random(spec, CLASSES, 9);
+            }
+        };
+    }
+
+    @Test
+    public void splitBatchMatchesSingleInstance() throws Exception {
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(24);
+        int faces = 5;
+        FloatBufferPool buffers = new FloatBufferPool(4);
+        FloatBufferPool.Lease input = buffers.acquire(spec.getShape(faces));
+        Random random = new Random(2);
+        for (int i = 0; i < input.getBuffer().capacity(); i++) {
+            input.getBuffer().put(i, (float) random.nextGaussian());
+        }
+
+        Recognition expected = new Recognition(faces, CLASSES, 3);
+        expected.setLogits(ReferenceCnnBackend.random(spec, CLASSES, 9).forward(input), 0, faces);
+
+        InferencePool pool = new InferencePool("Test", 3, referenceFactory(spec));
+        try {
+            assertEquals(3, pool.awaitStarted(10, TimeUnit.SECONDS));
+            Recognition actual = pool.classify(input, new Recognition(faces, CLASSES, 3), buffers);
+
+            assertEquals(faces, actual.getFaceCount());
+            for (int face = 0; face < faces; face++) {
+                assertEquals(expected.getBestClass(face), actual.getBestClass(face));
+                for (int c = 0; c < CLASSES; c++) {
+                    assertEquals(expected.getProbability(face, c), actual.getProbability(face, c), 1e-6f);
+                }
+            }
+            long runs = 0;
+            for (int worker = 0; worker < pool.getWorkerCount(); worker++) {
+                runs += pool.getCompleted(worker);
+            }
+            assertEquals(3, runs);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void classifiesTheFirstFacesOfALargerBatch() throws Exception {
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(24);
+        FloatBufferPool buffers = new FloatBufferPool(4);
+        FloatBufferPool.Lease input = buffers.acquire(spec.getShape(6));
+        Random random = new Random(3);
+        for (int i = 0; i < input.getBuffer().capacity(); i++) {
+            input.getBuffer().put(i, (float) random.nextGaussian());
+        }
+        Recognition expected = new Recognition(6, CLASSES, 1);
+        expected.setLogits(ReferenceCnnBackend.random(spec, CLASSES, 9).forward(input), 0, 6);
+
+        // One worker: a single part, which still has to leave the last faces out.
+        for (int workers : new int[]{1, 2}) {
+            InferencePool pool = new InferencePool("Test", workers, referenceFactory(spec));
+            try {
+                assertEquals(workers, pool.awaitStarted(10, TimeUnit.SECONDS));
+                Recognition actual = pool.classify(input, 4, new Recognition(6, CLASSES, 1), buffers);
+                assertEquals(4, actual.getFaceCount());
+                for (int face = 0; face < 4; face++) {
+                    for (int c = 0; c < CLASSES; c++) {
+                        assertEquals(expected.getProbability(face, c), actual.getProbability(face, c), 1e-6f);
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void failedInstancesFailQueuedRequests() throws Exception {
+        InferencePool pool = new InferencePool("Broken", 2, new InferencePool.Factory() {
+            @Override
+            public InferenceBackend create(int worker) throws Exception {
+                throw new IllegalStateException("no runtime");
+            }
+        });
+        assertEquals(0, pool.awaitStarted(10, TimeUnit.SECONDS));
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(8);
+        FloatBufferPool.Lease input = new FloatBufferPool(1).acquire(spec.getShape(1));
+        try {
+            pool.submit(input, new Recognition(1, CLASSES, 1), 0).get(10, TimeUnit.SECONDS);
+            fail("Expected the request to be rejected");
+        } catch (ExecutionException | RejectedExecutionException expected) {
+            // Either rejected up front or failed once the last worker gave up.
+        }
+    }
+
+    @Test
+    public void modelNotMatchingItsDescriptorFailsTheRequest() throws Exception {
+        InferencePool pool = new InferencePool("Mismatch", 1, new InferencePool.Factory() {
+            @Override
+            public InferenceBackend create(int worker) {
+                return new InferenceBackend() {
+                    @Override
+                    public String getName() {
+                        return "29 classes";
+                    }
+
+                    @Override
+                    public float[] forward(FloatBufferPool.Lease input) {
+                        return new float[(int) input.getShape()[0] * 29];
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(8);
+        FloatBufferPool.Lease input = new FloatBufferPool(1).acquire(spec.getShape(2));
+        try {
+            pool.submit(input, new Recognition(2, CLASSES, 1), 0).get(10, TimeUnit.SECONDS);
+            fail("Expected the logits count to be rejected");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void everyRequestAcceptedAroundShutdownCompletes() throws Exception {
+        final ModelInputSpec spec = ModelInputSpec.imagenetBgr(8);
+        final FloatBufferPool.Lease input = new FloatBufferPool(1).acquire(spec.getShape(1));
+        for (int round = 0; round < 200; round++) {
+            final InferencePool pool = new InferencePool("Race", 2, new InferencePool.Factory() {
+                @Override
+                public InferenceBackend create(int worker) {
+                    return new InferenceBackend() {
+                        private final float[] mLogits = new float[CLASSES];
+
+                        @Override
+                        public String getName() {
+                            return "zeros";
+                        }
+
+                        @Override
+                        public float[] forward(FloatBufferPool.Lease input) {
+                            return mLogits;
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                }
+            });
+            pool.awaitStarted(10, TimeUnit.SECONDS);
+            final List<Future<Recognition>> accepted = new ArrayList<>();
+            final CountDownLatch submitting = new CountDownLatch(1);
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    submitting.countDown();
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            accepted.add(pool.submit(input, new Recognition(1, CLASSES, 1), 0));
+                        }
+                    } catch (RejectedExecutionException expected) {
+                        // Shut down.
+                    }
+                }
+            });
+            caller.start();
+            submitting.await();
+            pool.shutdown();
+            caller.join(10000);
+            assertFalse(caller.isAlive());
+            for (Future<Recognition> future : accepted) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException ignored) {
+                    // Failed rather than left pending is fine too.
+                }
+            }
+        }
+    }
+
+    @Test
+    public void recommendedWorkersRespectsCpuAndMemory() {
+        assertEquals(8, InferencePool.recommendedWorkers(8, 1, 1L << 30, 10L << 20));
+        assertEquals(4, InferencePool.recommendedWorkers(8, 2, 1L << 30, 10L << 20));
+        assertEquals(3, InferencePool.recommendedWorkers(8, 1, 30L << 20, 10L << 20));
+        assertTrue(InferencePool.recommendedWorkers(1, 4, 0, 10L << 20) >= 1);
+    }
+}
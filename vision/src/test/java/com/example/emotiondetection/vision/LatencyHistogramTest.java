@@ -0,0 +1,104 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void bucketsAreContiguousAndBounded() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, 987654321012L}) {
+            int bucket = LatencyHistogram.bucket(value);
+            long low = LatencyHistogram.lowerBound(bucket);
+            long high = LatencyHistogram.lowerBound(bucket + 1);
+            assertTrue(value + " below bucket " + bucket, value >= low);
+            assertTrue(value + " above bucket " + bucket, value < high);
+            assertTrue((high - low) <= Math.max(1, low / 16));
+        }
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * SECOND, 6);
+        Random random = new Random(8);
+        long[] values = new long[20000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around 2 ms, like real stage times.
+            values[i] = (long) (2e6 * Math.exp(random.nextGaussian() * 0.7));
+            histogram.record(values[i], 5 * SECOND);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(5 * SECOND);
+
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMaxNanos());
+        for (double p : new double[]{50, 95, 99}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            assertEquals("p" + p, exact, snapshot.getPercentileNanos(p), exact / 16.0);
+        }
+    }
+
+    @Test
+    public void oldSlicesLeaveTheWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * SECOND, 6);
+        histogram.record(1000000, 1 * SECOND);
+        histogram.record(5000000, 31 * SECOND);
+
+        assertEquals(2, histogram.snapshot(59 * SECOND).getCount());
+        // The first slice (0-10 s) is out of the window once the 60-70 s slice starts.
+        LatencyHistogram.Snapshot later = histogram.snapshot(65 * SECOND);
+        assertEquals(1, later.getCount());
+        assertEquals(5000000, later.getMaxNanos());
+        // Recording into a reused slice starts it afresh.
+        histogram.record(2000000, 65 * SECOND);
+        assertEquals(2000000, histogram.snapshot(95 * SECOND).getMaxNanos());
+        assertEquals(1, histogram.snapshot(95 * SECOND).getCount());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(3600 * SECOND, 2);
+        final int perThread = 50000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = 1000 * (t + 1);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(value, 0);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(0);
+        assertEquals(perThread * threads.length, snapshot.getCount());
+        assertEquals(4000, snapshot.getMaxNanos());
+    }
+
+    @Test
+    public void registryWritesOneCsvRowPerHistogram() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.histogram("Analysis.Detect").record(2500000);
+        metrics.histogram("Analysis.Infer").record(40000000);
+        StringWriter out = new StringWriter();
+        metrics.writeCsv(out, 1234);
+
+        String[] rows = out.toString().split("\n");
+        assertEquals(2, rows.length);
+        assertTrue(rows[0].startsWith("1234,Analysis.Detect,1,"));
+        assertTrue(rows[1].endsWith(",40000.0"));
+        assertEquals(MetricsRegistry.CSV_HEADER.split(",").length, rows[0].split(",").length);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class LumaImageTest {
+
+    @Test
+    public void averagesBlocksAndRotates() {
+        // 4x2 frame, shift 1: two 2x2 blocks averaging 10 and 50.
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{0, 20, 40, 60, 10, 10, 50, 50});
+        YuvFrame frame = new YuvFrame().wrap(4, 2, y, 4, 1, y, y, 4, 2);
+        LumaImage image = new LumaImage().sample(frame, 0, 1);
+        assertEquals(2, image.getWidth());
+        assertEquals(1, image.getHeight());
+        assertEquals(10, image.get(0, 0));
+        assertEquals(50, image.get(1, 0));
+
+        image.sample(frame, 90, 1);
+        assertEquals(1, image.getWidth());
+        assertEquals(2, image.getHeight());
+        assertEquals(10, image.get(0, 0));
+        assertEquals(50, image.get(0, 1));
+        assertEquals(2, image.getScale());
+    }
+
+    @Test
+    public void shiftKeepsMinimumFaceDetectable() {
+        // A 48 pixel face stays at least 24 pixels wide up to a shift of 1.
+        assertEquals(1, LumaImage.shiftFor(48, 24, 3));
+        assertEquals(2, LumaImage.shiftFor(100, 24, 3));
+        assertEquals(3, LumaImage.shiftFor(1000, 24, 3));
+        assertEquals(0, LumaImage.shiftFor(20, 24, 3));
+    }
+
+    @Test
+    public void copyToPacksRows() {
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        YuvFrame frame = new YuvFrame().wrap(2, 3, y, 3, 1, y, y, 3, 2);
+        ByteBuffer out = ByteBuffer.allocateDirect(6);
+        new LumaImage().sample(frame, 180, 0).copyTo(out);
+        // Rows 1 2 / 4 5 / 7 8 turned half a circle.
+        byte[] expected = {8, 7, 5, 4, 2, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], out.get(i));
+        }
+    }
+
+    @Test
+    public void cropKeepsScale() {
+        byte[] pixels = new byte[4 * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) i;
+        }
+        LumaImage image = new LumaImage().crop(new LumaImage().wrap(pixels, 4, 3, 2), 1, 1, 2, 2);
+        assertEquals(2, image.getWidth());
+        assertEquals(2, image.getHeight());
+        assertEquals(4, image.getScale());
+        assertEquals(5, image.get(0, 0));
+        assertEquals(6, image.get(1, 0));
+        assertEquals(9, image.get(0, 1));
+        assertEquals(10, image.get(1, 1));
+    }
+}
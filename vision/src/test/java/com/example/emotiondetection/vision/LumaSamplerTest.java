@@ -0,0 +1,102 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LumaSamplerTest {
+    private static final int WIDTH = 30;
+    private static final int HEIGHT = 22;
+
+    /** Maps a level to itself, so outputs compare in levels. */
+    private static final float[] LEVELS = PixelNormalizer.table(0, 1 / 255.0);
+
+    private static int[] randomLuma(long seed) {
+        Random random = new Random(seed);
+        int[] luma = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = random.nextInt(256);
+        }
+        return luma;
+    }
+
+    /** The luma plane turned upright by {@code rotation}, clockwise. */
+    private static int[] upright(int[] luma, int rotation) {
+        int[] out = new int[luma.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int index;
+                switch (rotation) {
+                    case 90:
+                        index = x * HEIGHT + (HEIGHT - 1 - y);
+                        break;
+                    case 180:
+                        index = (HEIGHT - 1 - y) * WIDTH + (WIDTH - 1 - x);
+                        break;
+                    case 270:
+                        index = (WIDTH - 1 - x) * HEIGHT + y;
+                        break;
+                    default:
+                        index = y * WIDTH + x;
+                        break;
+                }
+                out[index] = luma[y * WIDTH + x];
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void matchesResizingTheUprightLumaPlane() {
+        int[] luma = randomLuma(7);
+        int[] chroma = TestFrames.constant(WIDTH / 2, HEIGHT / 2, 128);
+        float[][] crops = {
+                {-3.5f, 2.25f, 20.5f, 17f, 11, 9},
+                {4f, 5f, 6f, 6f, 24, 24},
+                {10.7f, -2f, 12f, 30f, 7, 13},
+        };
+        int[][] layouts = {{WIDTH, 1}, {WIDTH + 3, 1}, {2 * WIDTH + 1, 2}};
+        for (int[] layout : layouts) {
+            YuvFrame frame = TestFrames.wrap(WIDTH, HEIGHT, luma, chroma, chroma, layout[0], layout[1], WIDTH / 2, 1);
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                int[] upright = upright(luma, rotation);
+                int uprightWidth = YuvConverter.rotatedWidth(frame, rotation);
+                int uprightHeight = YuvConverter.rotatedHeight(frame, rotation);
+                for (float[] crop : crops) {
+                    int outWidth = (int) crop[4];
+                    int outHeight = (int) crop[5];
+                    FloatBuffer out = FloatBuffer.allocate(2 + outWidth * outHeight);
+                    LumaSampler.sample(frame, rotation, crop[0], crop[1], crop[2], crop[3],
+                            outWidth, outHeight, LEVELS, out, 2);
+                    for (int oy = 0; oy < outHeight; oy++) {
+                        float y = crop[1] + (oy + 0.5f) * (crop[3] / outHeight) - 0.5f;
+                        for (int ox = 0; ox < outWidth; ox++) {
+                            float x = crop[0] + (ox + 0.5f) * (crop[2] / outWidth) - 0.5f;
+                            int expected = TestFrames.bilinear(upright, uprightWidth, uprightHeight, x, y);
+                            assertEquals("rotation=" + rotation + " at " + ox + "," + oy,
+                                    expected, out.get(2 + oy * outWidth + ox), 1.01f);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void packLumaDropsRowPaddingAndPixelStride() {
+        int[] luma = randomLuma(8);
+        int[] chroma = TestFrames.constant(WIDTH / 2, HEIGHT / 2, 128);
+        for (int[] layout : new int[][]{{WIDTH + 5, 1}, {2 * WIDTH + 1, 2}}) {
+            YuvFrame frame = TestFrames.wrap(WIDTH, HEIGHT, luma, chroma, chroma, layout[0], layout[1], WIDTH / 2, 1);
+            ByteBuffer out = ByteBuffer.allocate(WIDTH * HEIGHT);
+            LumaSampler.packLuma(frame, out);
+            for (int i = 0; i < luma.length; i++) {
+                assertEquals(luma[i], out.get(i) & 0xFF);
+            }
+        }
+    }
+}
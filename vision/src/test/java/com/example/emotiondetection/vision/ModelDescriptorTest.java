@@ -0,0 +1,94 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ModelDescriptorTest {
+    private static final String VALID = "input.layout=rgb\n"
+            + "input.width=200\n"
+            + "input.height=100\n"
+            + "input.mean=0.5, 0.25,0.125\n"
+            + "input.std=0.5,0.5,0.5\n";
+
+    private static ModelDescriptor parse(String text) throws IOException {
+        return ModelDescriptor.parse(new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static void assertRejected(String text) {
+        try {
+            parse(text);
+            fail("Expected the descriptor to be rejected:\n" + text);
+        } catch (IOException expected) {
+            // Reported as a bad model file, not a crash.
+        }
+    }
+
+    @Test
+    public void parsesInputSpecAndLabels() throws IOException {
+        ModelDescriptor descriptor = parse(VALID + "labels=HAPPY, SAD ,X\n");
+        ModelInputSpec spec = descriptor.getInputSpec();
+        assertEquals(ModelInputSpec.Layout.RGB, spec.getLayout());
+        assertEquals(200, spec.getWidth());
+        assertEquals(100, spec.getHeight());
+        assertArrayEquals(new double[]{0.5, 0.25, 0.125}, spec.getMean(), 0);
+        assertArrayEquals(new double[]{0.5, 0.5, 0.5}, spec.getStd(), 0);
+        assertEquals(3, descriptor.getNumClasses());
+        assertSame(ModelDescriptor.HAPPY, descriptor.getLabel(0));
+        assertSame(ModelDescriptor.SAD, descriptor.getLabel(1));
+        assertEquals("X", descriptor.getLabel(2));
+    }
+
+    @Test
+    public void classCountNamesClassesByLetter() throws IOException {
+        ModelDescriptor descriptor = parse(VALID + "output.classes=3\n");
+        assertEquals(3, descriptor.getNumClasses());
+        assertEquals("A", descriptor.getLabel(0));
+        assertEquals("C", descriptor.getLabel(2));
+    }
+
+    @Test
+    public void maxBatchDefaultsAndIsBounded() throws IOException {
+        assertEquals(ModelDescriptor.DEFAULT_MAX_BATCH_SIZE, parse(VALID + "output.classes=2\n").getMaxBatchSize());
+        assertEquals(3, parse(VALID + "input.maxBatch=3\noutput.classes=2\n").getMaxBatchSize());
+        assertRejected(VALID + "input.maxBatch=0\noutput.classes=2\n");
+        assertRejected(VALID + "input.maxBatch=" + (ModelInputSpec.MAX_BATCH_SIZE + 1) + "\noutput.classes=2\n");
+    }
+
+    @Test
+    public void labelsMustAgreeWithClassCount() throws IOException {
+        assertEquals(2, parse(VALID + "labels=A,B\noutput.classes=2\n").getNumClasses());
+        assertRejected(VALID + "labels=A,B\noutput.classes=3\n");
+    }
+
+    @Test
+    public void rejectsMissingKeys() {
+        assertRejected(VALID);
+        for (String key : new String[]{"input.layout", "input.width", "input.height", "input.mean", "input.std"}) {
+            assertRejected((VALID + "output.classes=2\n").replaceAll("(?m)^" + key.replace(".", "\\.") + "=.*\n", ""));
+        }
+    }
+
+    @Test
+    public void rejectsBadValues() {
+        assertRejected(VALID.replace("=rgb", "=YUV") + "output.classes=2\n");
+        assertRejected(VALID.replace("=200", "=wide") + "output.classes=2\n");
+        assertRejected(VALID.replace("=200", "=0") + "output.classes=2\n");
+        assertRejected(VALID.replace("0.125", "blue") + "output.classes=2\n");
+        assertRejected(VALID + "output.classes=0\n");
+    }
+
+    @Test
+    public void rejectsMeanAndStdCountsNotMatchingTheLayout() {
+        assertRejected(VALID.replace("0.5, 0.25,0.125", "0.5,0.25") + "output.classes=2\n");
+        assertRejected(VALID.replace("0.5,0.5,0.5", "0.5,0.5,0.5,0.5") + "output.classes=2\n");
+        assertRejected(VALID.replace("=rgb", "=GRAY") + "output.classes=2\n");
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PixelNormalizerTest {
+    private static final int SIZE = 224;
+
+    /** The per-pixel loop MainActivity's bitmap path used before the lookup tables. */
+    private static void legacyPreprocess(int[] pixels, FloatBuffer inTensorBuffer) {
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int colour = pixels[y * SIZE + x];
+
+                int red = (colour >> 16) & 0xFF;
+                int blue = colour & 0xFF;
+                int green = (colour >> 8) & 0xFF;
+
+                float normalizedRed = (float) ((red / 255.0 - 0.485) / 0.229);
+                float normalizedGreen = (float) ((green / 255.0 - 0.456) / 0.224);
+                float normalizedBlue = (float) ((blue / 255.0 - 0.406) / 0.225);
+
+                inTensorBuffer.put(x + SIZE * y, normalizedBlue);
+                inTensorBuffer.put(SIZE * SIZE + x + SIZE * y, normalizedGreen);
+                inTensorBuffer.put(2 * SIZE * SIZE + x + SIZE * y, normalizedRed);
+            }
+        }
+    }
+
+    @Test
+    public void tablesMatchDoubleExpression() {
+        PixelNormalizer normalizer = PixelNormalizer.IMAGENET;
+        for (int value = 0; value < 256; value++) {
+            assertEquals(Float.floatToIntBits((float) ((value / 255.0 - 0.485) / 0.229)),
+                    Float.floatToIntBits(normalizer.red(value)));
+            assertEquals(Float.floatToIntBits((float) ((value / 255.0 - 0.456) / 0.224)),
+                    Float.floatToIntBits(normalizer.green(value)));
+            assertEquals(Float.floatToIntBits((float) ((value / 255.0 - 0.406) / 0.225)),
+                    Float.floatToIntBits(normalizer.blue(value)));
+        }
+    }
+
+    @Test
+    public void tensorIsBitIdenticalToLegacyLoop() {
+        int[] pixels = new int[SIZE * SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        FloatBuffer expected = FloatBuffer.allocate(3 * SIZE * SIZE);
+        FloatBuffer actual = FloatBuffer.allocate(3 * SIZE * SIZE);
+        legacyPreprocess(pixels, expected);
+        PixelNormalizer.IMAGENET.argbToBgrChw(pixels, SIZE, SIZE, actual, 0);
+
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals("index " + i, Float.floatToIntBits(expected.get(i)), Float.floatToIntBits(actual.get(i)));
+        }
+    }
+}
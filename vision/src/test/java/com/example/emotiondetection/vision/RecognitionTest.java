@@ -0,0 +1,65 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecognitionTest {
+
+    @Test
+    public void softmaxMatchesDoubleReference() {
+        float[] logits = {2.5f, -1f, 0f, 7f, 3.25f, -4f, 1f};
+        float[] out = new float[logits.length];
+        Recognition.softmax(logits, 0, out, 0, logits.length);
+
+        double sum = 0;
+        for (float logit : logits) {
+            sum += Math.exp(logit);
+        }
+        for (int i = 0; i < logits.length; i++) {
+            assertEquals(Math.exp(logits[i]) / sum, out[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void topKIsSortedAndMatchesFullSort() {
+        int classes = 7;
+        int faces = 4;
+        Recognition recognition = new Recognition(faces, classes, 3);
+        float[] logits = new float[faces * classes];
+        Random random = new Random(5);
+        for (int i = 0; i < logits.length; i++) {
+            logits[i] = (float) random.nextGaussian() * 3;
+        }
+        recognition.setLogits(logits, 0, faces);
+
+        assertEquals(faces, recognition.getFaceCount());
+        for (int face = 0; face < faces; face++) {
+            float[] sorted = Arrays.copyOfRange(recognition.getProbabilities(), face * classes, (face + 1) * classes);
+            Arrays.sort(sorted);
+            for (int rank = 0; rank < 3; rank++) {
+                int topClass = recognition.getTopClass(face, rank);
+                assertEquals(sorted[classes - 1 - rank], recognition.getTopProbability(face, rank), 0f);
+                assertEquals(recognition.getProbability(face, topClass), recognition.getTopProbability(face, rank), 0f);
+            }
+            assertTrue(recognition.getTopProbability(face, 0) >= recognition.getTopProbability(face, 1));
+        }
+    }
+
+    @Test
+    public void tiesKeepTheLowerClassFirst() {
+        Recognition recognition = new Recognition(1, 4, 2);
+        recognition.setLogits(new float[]{1f, 3f, 3f, 0f}, 0, 1);
+        assertEquals(1, recognition.getBestClass(0));
+        assertEquals(2, recognition.getTopClass(0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void logitsNotMatchingTheClassCountAreRejected() {
+        new Recognition(2, 7, 1).checkLogits(new float[2 * 29], 2);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceCnnBackendTest {
+
+    private static float[] randomFloats(Random random, int count) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        return values;
+    }
+
+    private static FloatBufferPool.Lease input(FloatBufferPool pool, long[] shape, float[] values) {
+        FloatBufferPool.Lease lease = pool.acquire(shape);
+        lease.getBuffer().put(values, 0, values.length).rewind();
+        return lease;
+    }
+
+    @Test
+    public void convolutionMatchesDirectLoops() {
+        final int channels = 3;
+        final int size = 11;
+        final int outChannels = 5;
+        final int kernel = 3;
+        final int stride = 2;
+        final int padding = 1;
+        Random random = new Random(7);
+        float[] weights = randomFloats(random, outChannels * channels * kernel * kernel);
+        float[] bias = randomFloats(random, outChannels);
+        float[] image = randomFloats(random, channels * size * size);
+
+        ReferenceCnnBackend.Builder builder = new ReferenceCnnBackend.Builder(channels, size, size)
+                .conv(outChannels, kernel, stride, padding, false, weights, bias);
+        int outSize = (size + 2 * padding - kernel) / stride + 1;
+        int flattened = builder.getFlattenedSize();
+        assertEquals(outChannels * outSize * outSize, flattened);
+        // An identity dense layer exposes the raw convolution output.
+        float[] identity = new float[flattened * flattened];
+        for (int i = 0; i < flattened; i++) {
+            identity[i * flattened + i] = 1f;
+        }
+        ReferenceCnnBackend backend = builder.dense(flattened, false, identity, new float[flattened]).build();
+
+        FloatBufferPool pool = new FloatBufferPool(1);
+        float[] out = backend.forward(input(pool, new long[]{1, channels, size, size}, image));
+
+        for (int oc = 0; oc < outChannels; oc++) {
+            for (int oy = 0; oy < outSize; oy++) {
+                for (int ox = 0; ox < outSize; ox++) {
+                    double expected = bias[oc];
+                    for (int c = 0; c < channels; c++) {
+                        for (int ky = 0; ky < kernel; ky++) {
+                            for (int kx = 0; kx < kernel; kx++) {
+                                int y = oy * stride + ky - padding;
+                                int x = ox * stride + kx - padding;
+                                if (y >= 0 && y < size && x >= 0 && x < size) {
+                                    expected += weights[((oc * channels + c) * kernel + ky) * kernel + kx]
+                                            * image[(c * size + y) * size + x];
+                                }
+                            }
+                        }
+                    }
+                    assertEquals(expected, out[(oc * outSize + oy) * outSize + ox], 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void weightsFileRoundTrips() throws IOException {
+        ModelInputSpec spec = ModelInputSpec.imagenetBgr(32);
+        ReferenceCnnBackend original = ReferenceCnnBackend.random(spec, 7, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        original.write(bytes);
+        ReferenceCnnBackend copy = ReferenceCnnBackend.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertTrue(copy.accepts(spec));
+        assertEquals(7, copy.getNumClasses());
+        FloatBufferPool pool = new FloatBufferPool(1);
+        float[] image = randomFloats(new Random(4), spec.getElementsPerFace());
+        FloatBufferPool.Lease lease = input(pool, spec.getShape(1), image);
+        float[] expected = original.forward(lease).clone();
+        assertArrayEquals(expected, copy.forward(lease), 0f);
+    }
+
+    /** Frame to recognition on the JVM: crop sampling, batched inference and softmax. */
+    @Test
+    public void pipelineBatchMatchesSingleFaces() {
+        final int width = 64;
+        final int height = 48;
+        Random random = new Random(11);
+        ByteBuffer y = ByteBuffer.allocate(width * height);
+        random.nextBytes(y.array());
+        ByteBuffer vu = ByteBuffer.allocate(width * height / 2);
+        random.nextBytes(vu.array());
+        ByteBuffer v = vu.duplicate();
+        vu.position(1);
+        ByteBuffer u = vu.slice();
+        YuvFrame frame = new YuvFrame().wrap(width, height, y, width, 1, u, v, width, 2);
+
+        ModelDescriptor descriptor = ModelDescriptor.defaultEmotionModel(32);
+        PreprocessingPlan plan = new PreprocessingPlan(descriptor, new FloatBufferPool(2), 2);
+        ReferenceCnnBackend backend = ReferenceCnnBackend.random(descriptor.getInputSpec(),
+                descriptor.getNumClasses(), 5);
+        float[][] boxes = {{2, 3, 30, 30}, {20, 10, 24, 28}};
+
+        FloatBufferPool.Lease batch = plan.acquire(boxes.length);
+        for (int i = 0; i < boxes.length; i++) {
+            plan.sampleFace(frame, 90, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3], batch.getBuffer(), i);
+        }
+        Recognition batched = new Recognition(boxes.length, descriptor.getNumClasses(), 3);
+        batched.setLogits(backend.forward(batch), 0, boxes.length);
+        plan.release(batch);
+
+        for (int i = 0; i < boxes.length; i++) {
+            FloatBufferPool.Lease single = plan.acquire(1);
+            plan.sampleFace(frame, 90, boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3], single.getBuffer(), 0);
+            Recognition alone = new Recognition(1, descriptor.getNumClasses(), 3);
+            alone.setLogits(backend.forward(single), 0, 1);
+            plan.release(single);
+
+            float sum = 0;
+            for (int c = 0; c < descriptor.getNumClasses(); c++) {
+                assertEquals(alone.getProbability(0, c), batched.getProbability(i, c), 1e-6f);
+                sum += batched.getProbability(i, c);
+            }
+            assertEquals(1f, sum, 1e-5f);
+            assertEquals(alone.getBestClass(0), batched.getBestClass(i));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionOfInterestSearchTest {
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+
+    /** "Detects" the bounding box of the white pixels, and remembers the size of what it saw. */
+    private static final class WhiteDetector implements LumaFaceDetector {
+        int mLastWidth;
+        int mLastHeight;
+        float mLastMinFaceWidth;
+
+        @Override
+        public String getName() {
+            return "white";
+        }
+
+        @Override
+        public int detect(LumaImage image, float minFaceWidth, float[] boxes, int maxFaces) {
+            mLastMinFaceWidth = minFaceWidth;
+            return detect(image, boxes, maxFaces);
+        }
+
+        @Override
+        public int detect(LumaImage image, float[] boxes, int maxFaces) {
+            mLastWidth = image.getWidth();
+            mLastHeight = image.getHeight();
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = -1;
+            int maxY = -1;
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    if (image.get(x, y) == 255) {
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+            }
+            if (maxX < 0 || maxFaces == 0) {
+                return 0;
+            }
+            float scale = image.getScale();
+            boxes[0] = minX * scale;
+            boxes[1] = minY * scale;
+            boxes[2] = (maxX + 1 - minX) * scale;
+            boxes[3] = (maxY + 1 - minY) * scale;
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** A frame shrunk by 2 with a white {@code size}-pixel square at ({@code left}, {@code top}) in image pixels. */
+    private static LumaImage image(int left, int top, int size) {
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        Arrays.fill(pixels, (byte) 100);
+        for (int y = top; y < top + size; y++) {
+            Arrays.fill(pixels, y * WIDTH + left, y * WIDTH + left + size, (byte) 255);
+        }
+        return new LumaImage().wrap(pixels, WIDTH, HEIGHT, 1);
+    }
+
+    /** Full scans are reported as taking 10 s, so a region search always saves time, however slow the machine. */
+    private static final long FULL_SCAN_NANOS = 10000000000L;
+
+    private static int fullScan(RegionOfInterestSearch search, WhiteDetector detector, LumaImage image, float[] boxes) {
+        int count = detector.detect(image, boxes, 1);
+        search.onFullScan(boxes, count, FULL_SCAN_NANOS);
+        return count;
+    }
+
+    @Test
+    public void searchesAroundTheLastFaceInFramePixels() throws Exception {
+        RegionOfInterestSearch search = new RegionOfInterestSearch(1, 0.5f, 10);
+        WhiteDetector detector = new WhiteDetector();
+        float[] boxes = new float[4];
+        assertTrue(search.needsFullScan());
+        assertEquals(1, fullScan(search, detector, image(30, 20, 10), boxes));
+        assertFalse(search.needsFullScan());
+
+        // Moved by 3 image pixels: found in a 20x20 region, in frame pixels.
+        assertEquals(1, search.search(detector, image(33, 22, 10), boxes, 1));
+        assertArrayEquals(new float[]{66, 44, 20, 20}, boxes, 0f);
+        assertEquals(20, detector.mLastWidth);
+        assertEquals(20, detector.mLastHeight);
+        assertEquals(10, detector.mLastMinFaceWidth, 0f);
+        assertEquals(1, search.getHits());
+        assertEquals(400.0 / (WIDTH * HEIGHT), search.getMeanSearchedFraction(), 1e-9);
+        assertTrue(search.getSavedNanos() > 0);
+    }
+
+    @Test
+    public void missesFallBackToAFullScan() throws Exception {
+        RegionOfInterestSearch search = new RegionOfInterestSearch(1, 0.5f, 10);
+        WhiteDetector detector = new WhiteDetector();
+        float[] boxes = new float[4];
+        fullScan(search, detector, image(30, 20, 10), boxes);
+
+        assertEquals(-1, search.search(detector, image(60, 40, 10), boxes, 1));
+        assertEquals(1, search.getMisses());
+        assertTrue(search.needsFullScan());
+        assertEquals(1, fullScan(search, detector, image(60, 40, 10), boxes));
+        assertFalse(search.needsFullScan());
+        assertEquals(1, search.search(detector, image(60, 40, 10), boxes, 1));
+        assertArrayEquals(new float[]{120, 80, 20, 20}, boxes, 0f);
+    }
+
+    @Test
+    public void scansTheFullImageEveryIntervalAndWithoutFaces() throws Exception {
+        RegionOfInterestSearch search = new RegionOfInterestSearch(1, 0.5f, 3);
+        WhiteDetector detector = new WhiteDetector();
+        float[] boxes = new float[4];
+        LumaImage image = image(30, 20, 10);
+        fullScan(search, detector, image, boxes);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(search.needsFullScan());
+            assertEquals(1, search.search(detector, image, boxes, 1));
+        }
+        assertTrue(search.needsFullScan());
+
+        assertEquals(0, fullScan(search, detector, new LumaImage().wrap(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 1), boxes));
+        assertTrue(search.needsFullScan());
+        assertEquals(2, search.getFullScans());
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StagePipelineTest {
+
+    private static final class Item {
+        final int mId;
+        final List<String> mStages = Collections.synchronizedList(new ArrayList<String>());
+
+        Item(int id) {
+            mId = id;
+        }
+    }
+
+    /** Records where items end up, in the order they get there. */
+    private static final class Sink implements StagePipeline.Listener<Item>, StagePipeline.Recycler<Item> {
+        final BlockingQueue<Item> mCompleted = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> mErrors = new LinkedBlockingQueue<>();
+        final BlockingQueue<Item> mRecycled = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onComplete(Item item) {
+            mCompleted.add(item);
+        }
+
+        @Override
+        public void onError(Item item, Throwable error) {
+            mErrors.add(error);
+        }
+
+        @Override
+        public void recycle(Item item) {
+            mRecycled.add(item);
+        }
+    }
+
+    private static StagePipeline.Stage<Item> visit(final String name) {
+        return new StagePipeline.Stage<Item>() {
+            @Override
+            public boolean process(Item item) {
+                item.mStages.add(name);
+                return true;
+            }
+        };
+    }
+
+    private static <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+        return queue.poll(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void runsEveryStageInOrderAndRecycles() throws Exception {
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("a", visit("a"))
+                .addStage("b", visit("b"))
+                .addStage("c", visit("c"));
+        pipeline.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                Item item = new Item(i);
+                pipeline.submit(item);
+                assertSame(item, poll(sink.mCompleted));
+                assertSame(item, poll(sink.mRecycled));
+                assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(item.mStages));
+            }
+            assertEquals(3, pipeline.getProcessed(2));
+            assertTrue(sink.mErrors.isEmpty());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void stageReturningFalseSkipsTheRest() throws Exception {
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("a", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) {
+                        item.mStages.add("a");
+                        return item.mId != 0;
+                    }
+                })
+                .addStage("b", visit("b"));
+        pipeline.start();
+        try {
+            Item skipped = new Item(0);
+            pipeline.submit(skipped);
+            assertSame(skipped, poll(sink.mCompleted));
+            assertEquals(Collections.singletonList("a"), new ArrayList<>(skipped.mStages));
+            assertEquals(0, pipeline.getProcessed(1));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void busyStageDropsTheOldestWaitingItem() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("slow", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) throws InterruptedException {
+                        if (item.mId == 1) {
+                            started.countDown();
+                            release.await();
+                        }
+                        return true;
+                    }
+                });
+        pipeline.start();
+        try {
+            Item first = new Item(1);
+            Item dropped = new Item(2);
+            Item last = new Item(3);
+            pipeline.submit(first);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            pipeline.submit(dropped);
+            pipeline.submit(last);
+            // Displaced while waiting, so recycled right away without reaching the listener.
+            assertSame(dropped, poll(sink.mRecycled));
+            assertEquals(1, pipeline.getDropped(0));
+            assertEquals(1, pipeline.getQueueDepth(0));
+
+            release.countDown();
+            assertSame(first, poll(sink.mCompleted));
+            assertSame(last, poll(sink.mCompleted));
+            assertSame(first, poll(sink.mRecycled));
+            assertSame(last, poll(sink.mRecycled));
+            assertNull(sink.mCompleted.poll(50, TimeUnit.MILLISECONDS));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void failuresGoToTheListenerAndTheStageCarriesOn() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("bad frame");
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("a", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) {
+                        if (item.mId == 0) {
+                            throw failure;
+                        }
+                        return true;
+                    }
+                })
+                .addStage("b", visit("b"));
+        pipeline.start();
+        try {
+            Item bad = new Item(0);
+            pipeline.submit(bad);
+            assertSame(failure, poll(sink.mErrors));
+            assertSame(bad, poll(sink.mRecycled));
+            assertFalse(bad.mStages.contains("b"));
+
+            Item good = new Item(1);
+            pipeline.submit(good);
+            assertSame(good, poll(sink.mCompleted));
+            assertEquals(2, pipeline.getProcessed(0));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void bottleneckLeavesOutStagesItemsNoLongerReach() throws Exception {
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("detect", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) {
+                        return item.mId < 2;
+                    }
+                })
+                .addStage("infer", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) throws InterruptedException {
+                        Thread.sleep(20);
+                        return true;
+                    }
+                });
+        pipeline.start();
+        try {
+            int id = 0;
+            for (; id < 2; id++) {
+                pipeline.submit(new Item(id));
+                poll(sink.mCompleted);
+            }
+            assertTrue(pipeline.getBottleneckNanos() >= 20000000L);
+
+            for (; id < 2 + StagePipeline.STALE_ITEMS; id++) {
+                pipeline.submit(new Item(id));
+                poll(sink.mCompleted);
+            }
+            assertTrue(pipeline.getBottleneckNanos() >= 20000000L);
+
+            pipeline.submit(new Item(id));
+            poll(sink.mCompleted);
+            assertEquals(pipeline.getRecentNanos(0), pipeline.getBottleneckNanos());
+            assertTrue(pipeline.getRecentNanos(1) >= 20000000L);
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdownRecyclesEveryItemAndRefusesNewOnes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Sink sink = new Sink();
+        StagePipeline<Item> pipeline = new StagePipeline<>("test", sink, sink)
+                .addStage("blocked", new StagePipeline.Stage<Item>() {
+                    @Override
+                    public boolean process(Item item) throws InterruptedException {
+                        started.countDown();
+                        new CountDownLatch(1).await();
+                        return true;
+                    }
+                })
+                .addStage("b", visit("b"));
+        pipeline.start();
+        Item running = new Item(1);
+        Item waiting = new Item(2);
+        pipeline.submit(running);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.submit(waiting);
+
+        pipeline.shutdown();
+        assertSame(waiting, poll(sink.mRecycled));
+        // The running stage is interrupted, and its item fails rather than going on.
+        assertTrue(poll(sink.mErrors) instanceof InterruptedException);
+        assertSame(running, poll(sink.mRecycled));
+
+        Item late = new Item(3);
+        pipeline.submit(late);
+        assertSame(late, poll(sink.mRecycled));
+        assertTrue(sink.mCompleted.isEmpty());
+        assertNull(sink.mRecycled.poll(50, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StripedExecutorTest {
+
+    @Test
+    public void coversEveryRowOnce() {
+        StripedExecutor executor = new StripedExecutor(4, 0);
+        final int[] visits = new int[100];
+        try {
+            executor.forEachStripe(visits.length, 1, new StripedExecutor.RowTask() {
+                @Override
+                public void run(int rowStart, int rowEnd) {
+                    for (int row = rowStart; row < rowEnd; row++) {
+                        visits[row]++;
+                    }
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        for (int visit : visits) {
+            assertEquals(1, visit);
+        }
+    }
+
+    @Test
+    public void callerFailureWaitsForTheOtherStripes() {
+        StripedExecutor executor = new StripedExecutor(4, 0);
+        final AtomicInteger running = new AtomicInteger();
+        try {
+            executor.forEachStripe(64, 1, new StripedExecutor.RowTask() {
+                @Override
+                public void run(int rowStart, int rowEnd) {
+                    if (rowStart == 0) {
+                        throw new IllegalStateException("caller stripe");
+                    }
+                    running.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                }
+            });
+            fail("The caller's failure was swallowed");
+        } catch (IllegalStateException expected) {
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsWorkAfterShutdownWithoutHanging() {
+        StripedExecutor executor = new StripedExecutor(4, 0);
+        executor.shutdown();
+        try {
+            executor.forEachStripe(64, 1, new StripedExecutor.RowTask() {
+                @Override
+                public void run(int rowStart, int rowEnd) {
+                }
+            });
+            fail("Ran on a shut down executor");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.emotiondetection.vision;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YuvConverterTest {
+
+    /** Builds a 4x2 semi-planar frame with padded rows, like most camera HALs deliver. */
+    private static YuvFrame syntheticFrame(byte[] luma, int u, int v) {
+        final int width = 4;
+        final int height = 2;
+        final int yRowStride = 8;
+        final int uvRowStride = 8;
+        ByteBuffer y = ByteBuffer.allocate(yRowStride * height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                y.put(row * yRowStride + col, luma[row * width + col]);
+            }
+        }
+        ByteBuffer interleaved = ByteBuffer.allocate(uvRowStride);
+        for (int i = 0; i < uvRowStride; i += 2) {
+            interleaved.put(i, (byte) u);
+            interleaved.put(i + 1, (byte) v);
+        }
+        interleaved.position(0);
+        ByteBuffer uPlane = interleaved.duplicate();
+        interleaved.position(1);
+        ByteBuffer vPlane = interleaved.slice();
+        return new YuvFrame().wrap(width, height, y, yRowStride, 1, uPlane, vPlane, uvRowStride, 2);
+    }
+
+    @Test
+    public void neutralChromaGivesGray() {
+        byte[] luma = {0, 50, 100, (byte) 150, (byte) 200, (byte) 250, 10, 20};
+        YuvFrame frame = syntheticFrame(luma, 128, 128);
+        int[] out = new int[8];
+        YuvConverter.toArgb(frame, 0, out);
+        for (int i = 0; i < luma.length; i++) {
+            int value = luma[i] & 0xFF;
+            assertEquals(0xFF000000 | value << 16 | value << 8 | value, out[i]);
+        }
+    }
+
+    @Test
+    public void rotationMatchesMatrixPostRotate() {
+        byte[] luma = {1, 2, 3, 4, 5, 6, 7, 8};
+        YuvFrame frame = syntheticFrame(luma, 128, 128);
+        int[] out = new int[8];
+
+        YuvConverter.toArgb(frame, 90, out);
+        assertEquals(2, YuvConverter.rotatedWidth(frame, 90));
+        // Source column 0 read bottom-up becomes the first output row.
+        assertEquals(5, out[0] & 0xFF);
+        assertEquals(1, out[1] & 0xFF);
+        assertEquals(4, out[7] & 0xFF);
+
+        YuvConverter.toArgb(frame, 270, out);
+        assertEquals(4, out[0] & 0xFF);
+        assertEquals(8, out[1] & 0xFF);
+
+        YuvConverter.toArgb(frame, 180, out);
+        assertEquals(8, out[0] & 0xFF);
+        assertEquals(1, out[7] & 0xFF);
+    }
+
+    @Test
+    public void floatPlanesMatchPackedPixels() {
+        byte[] luma = {16, 60, 90, 120, (byte) 180, (byte) 235, 30, 70};
+        YuvFrame frame = syntheticFrame(luma, 90, 200);
+        int[] packed = new int[8];
+        float[] planes = new float[24];
+        YuvConverter.toArgb(frame, 0, packed);
+        YuvConverter.toRgbPlanes(frame, 0, planes);
+        for (int i = 0; i < 8; i++) {
+            assertEquals((packed[i] >> 16) & 0xFF, (int) planes[i]);
+            assertEquals((packed[i] >> 8) & 0xFF, (int) planes[8 + i]);
+            assertEquals(packed[i] & 0xFF, (int) planes[16 + i]);
+        }
+    }
+
+    @Test
+    public void stripedConversionIsIndependentOfThreadCount() {
+        int width = 640;
+        int height = 480;
+        byte[] y = new byte[width * height];
+        byte[] uv = new byte[width * height / 2];
+        Random random = new Random(3);
+        random.nextBytes(y);
+        random.nextBytes(uv);
+        ByteBuffer interleaved = ByteBuffer.wrap(uv);
+        interleaved.position(1);
+        YuvFrame frame = new YuvFrame().wrap(width, height, ByteBuffer.wrap(y), width, 1,
+                ByteBuffer.wrap(uv), interleaved.slice(), width, 2);
+
+        int[] expected = new int[width * height];
+        YuvConverter.toArgb(frame, 90, expected);
+        for (int threads = 1; threads <= 8; threads++) {
+            StripedExecutor executor = new StripedExecutor(threads, 0);
+            try {
+                int[] actual = new int[width * height];
+                YuvConverter.toArgb(frame, 90, actual, executor);
+                assertArrayEquals("threads=" + threads, expected, actual);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.emotiondetection.vision;
+
+import java.util.Random;
+
+/**
+ * Made-up grayscale content for the face detector and tracker tests and benchmarks: smooth
+ * random backgrounds and a schematic face with the eyes, brows, nose and mouth contrasts
+ * {@link HaarCascade#synthetic()} looks for.
+ */
+public final class SyntheticFaces {
+
+    private SyntheticFaces() {
+    }
+
+    /** Smooth random texture: value noise on a {@code cell}-pixel lattice, bilinearly interpolated. */
+    public static int[] texture(int width, int height, long seed, int cell) {
+        Random random = new Random(seed);
+        int cellsX = width / cell + 2;
+        int cellsY = height / cell + 2;
+        int[] lattice = new int[cellsX * cellsY];
+        for (int i = 0; i < lattice.length; i++) {
+            lattice[i] = 30 + random.nextInt(196);
+        }
+        int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cx = x / cell;
+                int cy = y / cell;
+                float fx = (x % cell) / (float) cell;
+                float fy = (y % cell) / (float) cell;
+                float top = lattice[cy * cellsX + cx] * (1 - fx) + lattice[cy * cellsX + cx + 1] * fx;
+                float bottom = lattice[(cy + 1) * cellsX + cx] * (1 - fx) + lattice[(cy + 1) * cellsX + cx + 1] * fx;
+                out[y * width + x] = Math.round(top * (1 - fy) + bottom * fy);
+            }
+        }
+        return out;
+    }
+
+    /** Schematic face brightness at ({@code u}, {@code v}) of its box, or -1 outside the face. */
+    public static int face(float u, float v) {
+        if (inEllipse(u, v, 0.5f, 0.5f, 0.46f, 0.52f)) {
+            if (inEllipse(u, v, 0.30f, 0.39f, 0.11f, 0.07f) || inEllipse(u, v, 0.70f, 0.39f, 0.11f, 0.07f)) {
+                return 45;
+            }
+            if (v >= 0.24f && v < 0.29f && (u >= 0.17f && u < 0.42f || u >= 0.58f && u < 0.83f)) {
+                return 95;
+            }
+            if (inEllipse(u, v, 0.5f, 0.75f, 0.17f, 0.06f)) {
+                return 70;
+            }
+            return v >= 0.45f && v < 0.62f && u >= 0.46f && u < 0.54f ? 150 : 170;
+        }
+        return -1;
+    }
+
+    private static boolean inEllipse(float u, float v, float centerU, float centerV, float radiusU, float radiusV) {
+        float a = (u - centerU) / radiusU;
+        float b = (v - centerV) / radiusV;
+        return a * a + b * b <= 1;
+    }
+
+    /**
+     * Draws a {@code size}-pixel face with its box at ({@code left}, {@code top}) into rows of
+     * {@code stride} pixels, with its brightness scaled by {@code gain} and shifted by
+     * {@code offset} for different lighting.
+     */
+    public static void drawFace(byte[] pixels, int stride, int left, int top, int size, float gain, int offset) {
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int value = face((x + 0.5f) / size, (y + 0.5f) / size);
+                if (value >= 0) {
+                    pixels[(top + y) * stride + left + x] = (byte) clamp(Math.round(value * gain + offset));
+                }
+            }
+        }
+    }
+
+    /** Draws the face into {@code image} as is. */
+    public static void drawFace(LumaImage image, int left, int top, int size) {
+        drawFace(image.getPixels(), image.getWidth(), left, top, size, 1f, 0);
+    }
+
+    public static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
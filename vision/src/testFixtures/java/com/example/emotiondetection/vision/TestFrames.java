@@ -0,0 +1,75 @@
+package com.example.emotiondetection.vision;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Camera frames laid out like the ones camera HALs deliver, padded rows and interleaved chroma
+ * included, and a plain-array bilinear resampler to check the samplers against.
+ */
+public final class TestFrames {
+
+    private TestFrames() {
+    }
+
+    /**
+     * Wraps {@code width x height} luma and {@code ceil(width/2) x ceil(height/2)} chroma
+     * samples, row-major, in a frame with the given strides. A chroma pixel stride of 2 puts U
+     * and V in one interleaved buffer, V one byte after U, as semi-planar formats do.
+     */
+    public static YuvFrame wrap(int width, int height, int[] luma, int[] u, int[] v,
+                                int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride) {
+        ByteBuffer y = ByteBuffer.allocate(yRowStride * height);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                y.put(row * yRowStride + col * yPixelStride, (byte) luma[row * width + col]);
+            }
+        }
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int chromaSize = uvRowStride * chromaHeight;
+        ByteBuffer uPlane;
+        ByteBuffer vPlane;
+        if (uvPixelStride == 2) {
+            ByteBuffer interleaved = ByteBuffer.allocate(chromaSize + 1);
+            uPlane = interleaved.duplicate();
+            interleaved.position(1);
+            vPlane = interleaved.slice();
+        } else {
+            uPlane = ByteBuffer.allocate(chromaSize);
+            vPlane = ByteBuffer.allocate(chromaSize);
+        }
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                uPlane.put(row * uvRowStride + col * uvPixelStride, (byte) u[row * chromaWidth + col]);
+                vPlane.put(row * uvRowStride + col * uvPixelStride, (byte) v[row * chromaWidth + col]);
+            }
+        }
+        return new YuvFrame().wrap(width, height, y, yRowStride, yPixelStride, uPlane, vPlane, uvRowStride, uvPixelStride);
+    }
+
+    /** Same value for every sample of a {@code width x height} plane. */
+    public static int[] constant(int width, int height, int value) {
+        int[] plane = new int[width * height];
+        Arrays.fill(plane, value);
+        return plane;
+    }
+
+    /**
+     * Bilinear sample of a row-major plane at ({@code x}, {@code y}), repeating the border
+     * outside it, rounded to the nearest level.
+     */
+    public static int bilinear(int[] plane, int width, int height, float x, float y) {
+        x = Math.max(0f, Math.min(x, width - 1));
+        y = Math.max(0f, Math.min(y, height - 1));
+        final int x0 = (int) x;
+        final int y0 = (int) y;
+        final int x1 = Math.min(x0 + 1, width - 1);
+        final int y1 = Math.min(y0 + 1, height - 1);
+        final float fx = x - x0;
+        final float fy = y - y0;
+        final float top = plane[y0 * width + x0] + (plane[y0 * width + x1] - plane[y0 * width + x0]) * fx;
+        final float bottom = plane[y1 * width + x0] + (plane[y1 * width + x1] - plane[y1 * width + x0]) * fx;
+        return (int) (top + (bottom - top) * fy + 0.5f);
+    }
+}